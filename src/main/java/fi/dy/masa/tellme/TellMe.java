@@ -18,9 +18,12 @@ import fi.dy.masa.tellme.command.CommandTellMe;
 import fi.dy.masa.tellme.config.Configs;
 import fi.dy.masa.tellme.datadump.DataProviderBase;
 import fi.dy.masa.tellme.datadump.DataProviderClient;
+import fi.dy.masa.tellme.event.BlockChangeEventHandler;
 import fi.dy.masa.tellme.event.InteractEventHandler;
 import fi.dy.masa.tellme.network.PacketHandler;
 import fi.dy.masa.tellme.reference.Reference;
+import fi.dy.masa.tellme.util.chunkprocessor.BlockStateRollupTables;
+import fi.dy.masa.tellme.util.chunkprocessor.ChunkScanScheduler;
 
 @Mod(Reference.MOD_ID)
 public class TellMe
@@ -43,6 +46,9 @@ public class TellMe
         ModLoadingContext.get().registerExtensionPoint(IExtensionPoint.DisplayTest.class, () -> new IExtensionPoint.DisplayTest(() -> NetworkConstants.IGNORESERVERONLY, (incoming, isNetwork) -> true));
 
         MinecraftForge.EVENT_BUS.register(new InteractEventHandler());
+        MinecraftForge.EVENT_BUS.register(new BlockChangeEventHandler());
+        MinecraftForge.EVENT_BUS.register(ChunkScanScheduler.INSTANCE);
+        MinecraftForge.EVENT_BUS.register(BlockStateRollupTables.INSTANCE);
         MinecraftForge.EVENT_BUS.addListener(this::onRegisterCommands);
 
         Configs.loadConfig(FMLPaths.CONFIGDIR.get().resolve(Reference.MOD_ID + ".toml"));
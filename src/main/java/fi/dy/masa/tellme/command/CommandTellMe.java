@@ -8,8 +8,10 @@ import net.minecraft.commands.synchronization.ArgumentTypes;
 import net.minecraft.commands.synchronization.EmptyArgumentSerializer;
 import fi.dy.masa.tellme.command.argument.BiomeArgument;
 import fi.dy.masa.tellme.command.argument.BlockStateCountGroupingArgument;
+import fi.dy.masa.tellme.command.argument.BlockStateRollupGroupingArgument;
 import fi.dy.masa.tellme.command.argument.FileArgument;
 import fi.dy.masa.tellme.command.argument.GroupingArgument;
+import fi.dy.masa.tellme.command.argument.HeightmapTypeArgument;
 import fi.dy.masa.tellme.command.argument.OutputFormatArgument;
 import fi.dy.masa.tellme.command.argument.OutputTypeArgument;
 import fi.dy.masa.tellme.command.argument.StringCollectionArgument;
@@ -30,8 +32,10 @@ public class CommandTellMe
     {
         ArgumentTypes.register("tellme:biome", BiomeArgument.class, new EmptyArgumentSerializer<>(BiomeArgument::create));
         ArgumentTypes.register("tellme:block_grouping", BlockStateCountGroupingArgument.class, new EmptyArgumentSerializer<>(BlockStateCountGroupingArgument::create));
+        ArgumentTypes.register("tellme:block_rollup_grouping", BlockStateRollupGroupingArgument.class, new EmptyArgumentSerializer<>(BlockStateRollupGroupingArgument::create));
         ArgumentTypes.register("tellme:file", FileArgument.class, new EmptyArgumentSerializer<>(FileArgument::createEmpty));
         ArgumentTypes.register("tellme:grouping", GroupingArgument.class, new EmptyArgumentSerializer<>(GroupingArgument::create));
+        ArgumentTypes.register("tellme:heightmap_type", HeightmapTypeArgument.class, new EmptyArgumentSerializer<>(HeightmapTypeArgument::create));
         ArgumentTypes.register("tellme:output_format", OutputFormatArgument.class, new EmptyArgumentSerializer<>(OutputFormatArgument::create));
         ArgumentTypes.register("tellme:output_type", OutputTypeArgument.class, new EmptyArgumentSerializer<>(OutputTypeArgument::create));
         ArgumentTypes.register("tellme:string_collection", StringCollectionArgument.class, new EmptyArgumentSerializer<>(() -> StringCollectionArgument.create(() -> Collections.emptyList(), "")));
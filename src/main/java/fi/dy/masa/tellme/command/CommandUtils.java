@@ -167,6 +167,18 @@ public class CommandUtils
         source.sendSuccess(new TextComponent(message), true);
     }
 
+    /**
+     * Tells about the saved chunks that a saved region scan couldn't read, if there were any
+     */
+    public static void sendSkippedSavedChunksMessage(CommandSourceStack source, int skippedCount)
+    {
+        if (skippedCount > 0)
+        {
+            sendMessage(source, String.format("Skipped %d saved chunks that are still in the pre-1.18 chunk format. " +
+                                              "Load them, or run the world once with --forceUpgrade, to include them.", skippedCount));
+        }
+    }
+
     public static Vec2 getVec2fFromSource(CommandSourceStack source)
     {
         Entity entity = source.getEntity();
@@ -247,12 +259,14 @@ public class CommandUtils
 
     public enum AreaType
     {
+        ALL_DIMENSIONS  ("all-dimensions"),
         AREA            ("area"),
         BOX             ("box"),
         CHUNK_RADIUS    ("chunk-radius"),
         LOADED          ("loaded-chunks"),
         RANGE           ("range"),
-        SAMPLED         ("sampled");
+        SAMPLED         ("sampled"),
+        SAVED_REGIONS   ("saved-regions");
 
         private final String arg;
 
@@ -283,14 +297,18 @@ public class CommandUtils
 
     public enum BlockStateGrouping
     {
-        BY_BLOCK("by-block"),
-        BY_STATE("by-state");
+        BY_BLOCK("by-block",    false),
+        BY_STATE("by-state",    false),
+        BY_MOD  ("by-mod",      true),
+        BY_TAG  ("by-tag",      true);
 
         private final String arg;
+        private final boolean rollup;
 
-        BlockStateGrouping(String arg)
+        BlockStateGrouping(String arg, boolean rollup)
         {
             this.arg = arg;
+            this.rollup = rollup;
         }
 
         public String getArgument()
@@ -298,6 +316,14 @@ public class CommandUtils
             return this.arg;
         }
 
+        /**
+         * @return true if this grouping sums the counts into groups of several blocks
+         */
+        public boolean isRollup()
+        {
+            return this.rollup;
+        }
+
         @Nullable
         public static BlockStateGrouping fromArg(String arg)
         {
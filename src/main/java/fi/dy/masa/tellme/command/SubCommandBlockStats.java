@@ -1,27 +1,38 @@
 package fi.dy.masa.tellme.command;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.tree.ArgumentCommandNode;
 import com.mojang.brigadier.tree.CommandNode;
 import com.mojang.brigadier.tree.LiteralCommandNode;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
+import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.commands.arguments.DimensionArgument;
 import net.minecraft.commands.arguments.coordinates.Coordinates;
 import net.minecraft.commands.arguments.coordinates.Vec2Argument;
 import net.minecraft.commands.arguments.coordinates.Vec3Argument;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.Heightmap;
 import net.minecraft.world.phys.Vec2;
 import net.minecraft.world.phys.Vec3;
 import net.minecraftforge.registries.ForgeRegistries;
@@ -30,37 +41,79 @@ import fi.dy.masa.tellme.command.CommandUtils.AreaType;
 import fi.dy.masa.tellme.command.CommandUtils.IWorldRetriever;
 import fi.dy.masa.tellme.command.CommandUtils.OutputType;
 import fi.dy.masa.tellme.command.argument.BlockStateCountGroupingArgument;
+import fi.dy.masa.tellme.command.argument.BlockStateRollupGroupingArgument;
+import fi.dy.masa.tellme.command.argument.HeightmapTypeArgument;
 import fi.dy.masa.tellme.command.argument.OutputFormatArgument;
 import fi.dy.masa.tellme.command.argument.OutputTypeArgument;
 import fi.dy.masa.tellme.command.argument.StringCollectionArgument;
 import fi.dy.masa.tellme.util.OutputUtils;
+import fi.dy.masa.tellme.util.chunkprocessor.BlockDensityHeatmap;
 import fi.dy.masa.tellme.util.chunkprocessor.BlockStats;
+import fi.dy.masa.tellme.util.chunkprocessor.BlockStatsByY;
+import fi.dy.masa.tellme.util.chunkprocessor.BlockStatsSampler;
+import fi.dy.masa.tellme.util.chunkprocessor.BlockStatsSnapshot;
+import fi.dy.masa.tellme.util.chunkprocessor.ChunkDensityRanking;
+import fi.dy.masa.tellme.util.chunkprocessor.ChunkProcessorAllChunks;
+import fi.dy.masa.tellme.util.chunkprocessor.ChunkProcessorBlockEntityCounterPerChunk;
+import fi.dy.masa.tellme.util.chunkprocessor.ChunkScanPipeline;
+import fi.dy.masa.tellme.util.chunkprocessor.LocateBase;
+import fi.dy.masa.tellme.util.chunkprocessor.LocateBlockEntities;
+import fi.dy.masa.tellme.util.chunkprocessor.ParallelChunkScanner;
 import fi.dy.masa.tellme.util.datadump.DataDump;
 
 public class SubCommandBlockStats
 {
     private static final Map<UUID, BlockStats> BLOCK_STATS = new HashMap<>();
     private static final BlockStats CONSOLE_BLOCK_STATS = new BlockStats();
+    private static final Map<UUID, BlockStatsByY> BLOCK_STATS_BY_Y = new HashMap<>();
+    private static final BlockStatsByY CONSOLE_BLOCK_STATS_BY_Y = new BlockStatsByY();
 
     public static CommandNode<CommandSourceStack> registerSubCommand(CommandDispatcher<CommandSourceStack> dispatcher)
     {
         LiteralCommandNode<CommandSourceStack> subCommandRootNode = Commands.literal("block-stats").executes(c -> printHelp(c.getSource())).build();
 
-        subCommandRootNode.addChild(createCountNodes("count", false));
-        subCommandRootNode.addChild(createCountNodes("count-append", true));
+        for (CountMode mode : CountMode.values())
+        {
+            subCommandRootNode.addChild(createCountNodes(mode));
+        }
+
         subCommandRootNode.addChild(createOutputDataNodes());
+        subCommandRootNode.addChild(createOutputDataByYNodes());
+        subCommandRootNode.addChild(createTopChunksNodes());
+        subCommandRootNode.addChild(createHeatmapNodes());
+        subCommandRootNode.addChild(createSnapshotNodes());
+        subCommandRootNode.addChild(createCombinedScanNodes());
+        subCommandRootNode.addChild(createSampleNodes());
 
         return subCommandRootNode;
     }
 
-    private static LiteralCommandNode<CommandSourceStack> createCountNodes(String command, boolean isAppend)
+    private static LiteralCommandNode<CommandSourceStack> createCountNodes(CountMode mode)
     {
-        LiteralCommandNode<CommandSourceStack> actionNodeCount = Commands.literal(command).build();
+        LiteralCommandNode<CommandSourceStack> actionNodeCount = Commands.literal(mode.getArgument()).build();
+        CommandNode<CommandSourceStack> areaParentNode = actionNodeCount;
 
-        actionNodeCount.addChild(createCountNodeAllLoadedChunks(isAppend));
-        actionNodeCount.addChild(createCountNodeArea(isAppend));
-        actionNodeCount.addChild(createCountNodeBox(isAppend));
-        actionNodeCount.addChild(createCountNodeRange(isAppend));
+        if (mode.isSurface())
+        {
+            ArgumentCommandNode<CommandSourceStack, Heightmap.Types> argHeightmap = Commands.argument("heightmap", HeightmapTypeArgument.create()).build();
+            ArgumentCommandNode<CommandSourceStack, Integer> argDepth = Commands.argument("depth", IntegerArgumentType.integer(1, 4096)).build();
+
+            actionNodeCount.addChild(argHeightmap);
+            argHeightmap.addChild(argDepth);
+            areaParentNode = argDepth;
+        }
+
+        areaParentNode.addChild(createCountNodeAllLoadedChunks(mode));
+        areaParentNode.addChild(createCountNodeAllDimensions(mode));
+        areaParentNode.addChild(createCountNodeArea(mode));
+        areaParentNode.addChild(createCountNodeBox(mode));
+        areaParentNode.addChild(createCountNodeRange(mode));
+
+        // The heightmaps are not included in the chunk data read from the region files
+        if (mode.isSurface() == false)
+        {
+            areaParentNode.addChild(createCountNodeSavedRegions(mode));
+        }
 
         return actionNodeCount;
     }
@@ -74,7 +127,7 @@ public class SubCommandBlockStats
 
         ArgumentCommandNode<CommandSourceStack, DataDump.Format> argOutputFormat = Commands.argument("output_format", OutputFormatArgument.create()).build();
 
-        ArgumentCommandNode<CommandSourceStack, CommandUtils.BlockStateGrouping> argDataGrouping = Commands.argument("result_grouping", BlockStateCountGroupingArgument.create())
+        ArgumentCommandNode<CommandSourceStack, CommandUtils.BlockStateGrouping> argDataGrouping = Commands.argument("result_grouping", BlockStateRollupGroupingArgument.create())
                 .executes(c -> outputData(c.getSource(),
                                           c.getArgument("output_type", OutputType.class),
                                           c.getArgument("output_format", DataDump.Format.class),
@@ -133,15 +186,303 @@ public class SubCommandBlockStats
         return actionNodeOutputData;
     }
 
-    private static LiteralCommandNode<CommandSourceStack> createCountNodeAllLoadedChunks(boolean isAppend)
+    // tellme output-data-by-y <to-chat | to-console | to-file> <ascii | csv> <by-block | by-state> <y-rows | state-rows> [y_bucket_size] [modid:block] [modid:block] ...
+    private static LiteralCommandNode<CommandSourceStack> createOutputDataByYNodes()
+    {
+        LiteralCommandNode<CommandSourceStack> actionNodeOutputData = Commands.literal("output-data-by-y").build();
+
+        ArgumentCommandNode<CommandSourceStack, OutputType> argOutputType = Commands.argument("output_type", OutputTypeArgument.create()).build();
+
+        ArgumentCommandNode<CommandSourceStack, DataDump.Format> argOutputFormat = Commands.argument("output_format", OutputFormatArgument.create()).build();
+
+        ArgumentCommandNode<CommandSourceStack, CommandUtils.BlockStateGrouping> argDataGrouping = Commands.argument("result_grouping", BlockStateCountGroupingArgument.create()).build();
+
+        actionNodeOutputData.addChild(argOutputType);
+        argOutputType.addChild(argOutputFormat);
+        argOutputFormat.addChild(argDataGrouping);
+        argDataGrouping.addChild(createOutputDataByYLayoutNode("y-rows", false));
+        argDataGrouping.addChild(createOutputDataByYLayoutNode("state-rows", true));
+
+        return actionNodeOutputData;
+    }
+
+    private static LiteralCommandNode<CommandSourceStack> createOutputDataByYLayoutNode(String layout, boolean rowsPerState)
+    {
+        LiteralCommandNode<CommandSourceStack> argLayout = Commands.literal(layout)
+                .executes(c -> outputDataByY(c.getSource(),
+                                             c.getArgument("output_type", OutputType.class),
+                                             c.getArgument("output_format", DataDump.Format.class),
+                                             c.getArgument("result_grouping", CommandUtils.BlockStateGrouping.class),
+                                             rowsPerState, 1, null))
+                .build();
+
+        ArgumentCommandNode<CommandSourceStack, Integer> argBucketSize = Commands.argument("y_bucket_size", IntegerArgumentType.integer(1, 4096))
+                .executes(c -> outputDataByY(c.getSource(),
+                                             c.getArgument("output_type", OutputType.class),
+                                             c.getArgument("output_format", DataDump.Format.class),
+                                             c.getArgument("result_grouping", CommandUtils.BlockStateGrouping.class),
+                                             rowsPerState,
+                                             IntegerArgumentType.getInteger(c, "y_bucket_size"),
+                                             null))
+                .build();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCommandNode<CommandSourceStack, List<String>> argBlockFilters = Commands.argument("block_filters",
+                StringCollectionArgument.create(() -> ForgeRegistries.BLOCKS.getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                .executes(c -> outputDataByY(c.getSource(),
+                                             c.getArgument("output_type", OutputType.class),
+                                             c.getArgument("output_format", DataDump.Format.class),
+                                             c.getArgument("result_grouping", CommandUtils.BlockStateGrouping.class),
+                                             rowsPerState,
+                                             IntegerArgumentType.getInteger(c, "y_bucket_size"),
+                                             c.getArgument("block_filters", List.class)))
+                .build();
+
+        argLayout.addChild(argBucketSize);
+        argBucketSize.addChild(argBlockFilters);
+
+        return argLayout;
+    }
+
+    // tellme top-chunks <to-chat | to-console | to-file> <ascii | csv> <count> <loaded-chunks | all-dimensions | box <x1> <y1> <z1> <x2> <y2> <z2> | saved-regions> <modid:block> [modid:block] ...
+    private static LiteralCommandNode<CommandSourceStack> createTopChunksNodes()
+    {
+        LiteralCommandNode<CommandSourceStack> actionNodeTopChunks = Commands.literal("top-chunks").build();
+
+        ArgumentCommandNode<CommandSourceStack, OutputType> argOutputType = Commands.argument("output_type", OutputTypeArgument.create()).build();
+        ArgumentCommandNode<CommandSourceStack, DataDump.Format> argOutputFormat = Commands.argument("output_format", OutputFormatArgument.create()).build();
+        ArgumentCommandNode<CommandSourceStack, Integer> argCount = Commands.argument("count", IntegerArgumentType.integer(1, 10000)).build();
+
+        LiteralCommandNode<CommandSourceStack> argAreaTypeAllLoaded = Commands.literal(AreaType.LOADED.getArgument()).build();
+        LiteralCommandNode<CommandSourceStack> argAreaTypeAllDimensions = Commands.literal(AreaType.ALL_DIMENSIONS.getArgument()).build();
+        LiteralCommandNode<CommandSourceStack> argAreaTypeBox = Commands.literal(AreaType.BOX.getArgument()).build();
+        LiteralCommandNode<CommandSourceStack> argAreaTypeSavedRegions = Commands.literal(AreaType.SAVED_REGIONS.getArgument()).build();
+
+        ArgumentCommandNode<CommandSourceStack, Coordinates> argStartCorner = Commands.argument("start_corner", Vec3Argument.vec3()).build();
+        ArgumentCommandNode<CommandSourceStack, Coordinates> argEndCorner = Commands.argument("end_corner", Vec3Argument.vec3()).build();
+
+        actionNodeTopChunks.addChild(argOutputType);
+        argOutputType.addChild(argOutputFormat);
+        argOutputFormat.addChild(argCount);
+        argCount.addChild(argAreaTypeAllLoaded);
+        argCount.addChild(argAreaTypeAllDimensions);
+        argCount.addChild(argAreaTypeBox);
+        argCount.addChild(argAreaTypeSavedRegions);
+
+        argAreaTypeAllLoaded.addChild(createTopChunksFilterNode(AreaType.LOADED));
+        argAreaTypeAllDimensions.addChild(createTopChunksFilterNode(AreaType.ALL_DIMENSIONS));
+        argAreaTypeBox.addChild(argStartCorner);
+        argStartCorner.addChild(argEndCorner);
+        argEndCorner.addChild(createTopChunksFilterNode(AreaType.BOX));
+        argAreaTypeSavedRegions.addChild(createTopChunksFilterNode(AreaType.SAVED_REGIONS));
+
+        return actionNodeTopChunks;
+    }
+
+    private static ArgumentCommandNode<CommandSourceStack, List<String>> createTopChunksFilterNode(AreaType areaType)
+    {
+        return Commands.argument("block_filters",
+                StringCollectionArgument.create(() -> ForgeRegistries.BLOCKS.getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                .executes(c -> rankChunks(c, areaType)).build();
+    }
+
+    // tellme heatmap <cell_size> <loaded-chunks | box <x1> <y1> <z1> <x2> <y2> <z2> | saved-regions> <modid:block> [modid:block] ...
+    private static LiteralCommandNode<CommandSourceStack> createHeatmapNodes()
+    {
+        LiteralCommandNode<CommandSourceStack> actionNodeHeatmap = Commands.literal("heatmap").build();
+
+        ArgumentCommandNode<CommandSourceStack, Integer> argCellSize = Commands.argument("cell_size", IntegerArgumentType.integer(1, 1024)).build();
+
+        LiteralCommandNode<CommandSourceStack> argAreaTypeAllLoaded = Commands.literal(AreaType.LOADED.getArgument()).build();
+        LiteralCommandNode<CommandSourceStack> argAreaTypeBox = Commands.literal(AreaType.BOX.getArgument()).build();
+        LiteralCommandNode<CommandSourceStack> argAreaTypeSavedRegions = Commands.literal(AreaType.SAVED_REGIONS.getArgument()).build();
+
+        ArgumentCommandNode<CommandSourceStack, Coordinates> argStartCorner = Commands.argument("start_corner", Vec3Argument.vec3()).build();
+        ArgumentCommandNode<CommandSourceStack, Coordinates> argEndCorner = Commands.argument("end_corner", Vec3Argument.vec3()).build();
+
+        actionNodeHeatmap.addChild(argCellSize);
+        argCellSize.addChild(argAreaTypeAllLoaded);
+        argCellSize.addChild(argAreaTypeBox);
+        argCellSize.addChild(argAreaTypeSavedRegions);
+
+        argAreaTypeAllLoaded.addChild(createHeatmapFilterNode(AreaType.LOADED));
+        argAreaTypeBox.addChild(argStartCorner);
+        argStartCorner.addChild(argEndCorner);
+        argEndCorner.addChild(createHeatmapFilterNode(AreaType.BOX));
+        argAreaTypeSavedRegions.addChild(createHeatmapFilterNode(AreaType.SAVED_REGIONS));
+
+        return actionNodeHeatmap;
+    }
+
+    private static ArgumentCommandNode<CommandSourceStack, List<String>> createHeatmapFilterNode(AreaType areaType)
+    {
+        return Commands.argument("block_filters",
+                StringCollectionArgument.create(() -> ForgeRegistries.BLOCKS.getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                .executes(c -> renderHeatmap(c, areaType)).build();
+    }
+
+    // tellme snapshot save <name>
+    // tellme snapshot diff <to-chat | to-console | to-file> <ascii | csv> <by-block | by-state> <sort-by-name | sort-by-change> <from_name> <to_name | current> [modid:block] [modid:block] ...
+    private static LiteralCommandNode<CommandSourceStack> createSnapshotNodes()
+    {
+        LiteralCommandNode<CommandSourceStack> actionNodeSnapshot = Commands.literal("snapshot").build();
+        LiteralCommandNode<CommandSourceStack> argSave = Commands.literal("save").build();
+        LiteralCommandNode<CommandSourceStack> argDiff = Commands.literal("diff").build();
+
+        ArgumentCommandNode<CommandSourceStack, String> argSaveName = Commands.argument("name", StringArgumentType.word())
+                .suggests((c, b) -> SharedSuggestionProvider.suggest(BlockStatsSnapshot.getSnapshotNames(), b))
+                .executes(c -> saveSnapshot(c.getSource(), StringArgumentType.getString(c, "name")))
+                .build();
+
+        ArgumentCommandNode<CommandSourceStack, OutputType> argOutputType = Commands.argument("output_type", OutputTypeArgument.create()).build();
+        ArgumentCommandNode<CommandSourceStack, DataDump.Format> argOutputFormat = Commands.argument("output_format", OutputFormatArgument.create()).build();
+        ArgumentCommandNode<CommandSourceStack, CommandUtils.BlockStateGrouping> argDataGrouping = Commands.argument("result_grouping", BlockStateCountGroupingArgument.create()).build();
+
+        actionNodeSnapshot.addChild(argSave);
+        argSave.addChild(argSaveName);
+
+        actionNodeSnapshot.addChild(argDiff);
+        argDiff.addChild(argOutputType);
+        argOutputType.addChild(argOutputFormat);
+        argOutputFormat.addChild(argDataGrouping);
+        argDataGrouping.addChild(createSnapshotDiffSortNode("sort-by-name", false));
+        argDataGrouping.addChild(createSnapshotDiffSortNode("sort-by-change", true));
+
+        return actionNodeSnapshot;
+    }
+
+    private static LiteralCommandNode<CommandSourceStack> createSnapshotDiffSortNode(String sortArg, boolean sortByChange)
+    {
+        LiteralCommandNode<CommandSourceStack> argSort = Commands.literal(sortArg).build();
+
+        ArgumentCommandNode<CommandSourceStack, String> argFromName = Commands.argument("from_name", StringArgumentType.word())
+                .suggests((c, b) -> SharedSuggestionProvider.suggest(BlockStatsSnapshot.getSnapshotNames(), b))
+                .build();
+
+        ArgumentCommandNode<CommandSourceStack, String> argToName = Commands.argument("to_name", StringArgumentType.word())
+                .suggests((c, b) -> {
+                    List<String> names = BlockStatsSnapshot.getSnapshotNames();
+                    names.add(BlockStatsSnapshot.CURRENT_DATA);
+                    return SharedSuggestionProvider.suggest(names, b);
+                })
+                .executes(c -> diffSnapshots(c, sortByChange, null))
+                .build();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCommandNode<CommandSourceStack, List<String>> argBlockFilters = Commands.argument("block_filters",
+                StringCollectionArgument.create(() -> ForgeRegistries.BLOCKS.getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                .executes(c -> diffSnapshots(c, sortByChange, c.getArgument("block_filters", List.class)))
+                .build();
+
+        argSort.addChild(argFromName);
+        argFromName.addChild(argToName);
+        argToName.addChild(argBlockFilters);
+
+        return argSort;
+    }
+
+    // tellme combined-scan <to-chat | to-console | to-file> <ascii | csv> <loaded-chunks | box <x1> <y1> <z1> <x2> <y2> <z2>> <modid:block_entity> [modid:block_entity] ...
+    private static LiteralCommandNode<CommandSourceStack> createCombinedScanNodes()
+    {
+        LiteralCommandNode<CommandSourceStack> actionNodeCombined = Commands.literal("combined-scan").build();
+
+        ArgumentCommandNode<CommandSourceStack, OutputType> argOutputType = Commands.argument("output_type", OutputTypeArgument.create()).build();
+        ArgumentCommandNode<CommandSourceStack, DataDump.Format> argOutputFormat = Commands.argument("output_format", OutputFormatArgument.create()).build();
+
+        LiteralCommandNode<CommandSourceStack> argAreaTypeAllLoaded = Commands.literal(AreaType.LOADED.getArgument()).build();
+        LiteralCommandNode<CommandSourceStack> argAreaTypeBox = Commands.literal(AreaType.BOX.getArgument()).build();
+
+        ArgumentCommandNode<CommandSourceStack, Coordinates> argStartCorner = Commands.argument("start_corner", Vec3Argument.vec3()).build();
+        ArgumentCommandNode<CommandSourceStack, Coordinates> argEndCorner = Commands.argument("end_corner", Vec3Argument.vec3()).build();
+
+        actionNodeCombined.addChild(argOutputType);
+        argOutputType.addChild(argOutputFormat);
+        argOutputFormat.addChild(argAreaTypeAllLoaded);
+        argOutputFormat.addChild(argAreaTypeBox);
+
+        argAreaTypeAllLoaded.addChild(createCombinedScanFilterNode(AreaType.LOADED));
+        argAreaTypeBox.addChild(argStartCorner);
+        argStartCorner.addChild(argEndCorner);
+        argEndCorner.addChild(createCombinedScanFilterNode(AreaType.BOX));
+
+        return actionNodeCombined;
+    }
+
+    private static ArgumentCommandNode<CommandSourceStack, List<String>> createCombinedScanFilterNode(AreaType areaType)
+    {
+        return Commands.argument("block_entities",
+                StringCollectionArgument.create(() -> ForgeRegistries.BLOCK_ENTITIES.getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                .executes(c -> combinedScan(c, areaType)).build();
+    }
+
+    // tellme sample <to-chat | to-console | to-file> <ascii | csv> <by-block | by-state> <fraction <value> | target-error <value>>
+    //                <area <x1> <z1> <x2> <z2> | box <x1> <y1> <z1> <x2> <y2> <z2>> [modid:block] [modid:block] ...
+    private static LiteralCommandNode<CommandSourceStack> createSampleNodes()
+    {
+        LiteralCommandNode<CommandSourceStack> actionNodeSample = Commands.literal("sample").build();
+
+        ArgumentCommandNode<CommandSourceStack, OutputType> argOutputType = Commands.argument("output_type", OutputTypeArgument.create()).build();
+        ArgumentCommandNode<CommandSourceStack, DataDump.Format> argOutputFormat = Commands.argument("output_format", OutputFormatArgument.create()).build();
+        ArgumentCommandNode<CommandSourceStack, CommandUtils.BlockStateGrouping> argDataGrouping = Commands.argument("result_grouping", BlockStateCountGroupingArgument.create()).build();
+
+        LiteralCommandNode<CommandSourceStack> argFraction = Commands.literal("fraction").build();
+        LiteralCommandNode<CommandSourceStack> argTargetError = Commands.literal("target-error").build();
+        ArgumentCommandNode<CommandSourceStack, Double> argFractionValue = Commands.argument("fraction", DoubleArgumentType.doubleArg(0.00001, 1.0)).build();
+        ArgumentCommandNode<CommandSourceStack, Double> argTargetErrorValue = Commands.argument("target_error", DoubleArgumentType.doubleArg(0.001, 1.0)).build();
+
+        actionNodeSample.addChild(argOutputType);
+        argOutputType.addChild(argOutputFormat);
+        argOutputFormat.addChild(argDataGrouping);
+        argDataGrouping.addChild(argFraction);
+        argDataGrouping.addChild(argTargetError);
+        argFraction.addChild(argFractionValue);
+        argTargetError.addChild(argTargetErrorValue);
+
+        for (boolean useTargetError : new boolean[] { false, true })
+        {
+            ArgumentCommandNode<CommandSourceStack, Double> argValue = useTargetError ? argTargetErrorValue : argFractionValue;
+
+            LiteralCommandNode<CommandSourceStack> argAreaTypeArea = Commands.literal(AreaType.AREA.getArgument()).build();
+            ArgumentCommandNode<CommandSourceStack, Coordinates> argAreaStart = Commands.argument("start_corner", Vec2Argument.vec2()).build();
+            ArgumentCommandNode<CommandSourceStack, Coordinates> argAreaEnd = Commands.argument("end_corner", Vec2Argument.vec2())
+                    .executes(c -> sampleBlocks(c, AreaType.AREA, useTargetError, null)).build();
+
+            LiteralCommandNode<CommandSourceStack> argAreaTypeBox = Commands.literal(AreaType.BOX.getArgument()).build();
+            ArgumentCommandNode<CommandSourceStack, Coordinates> argBoxStart = Commands.argument("start_corner", Vec3Argument.vec3()).build();
+            ArgumentCommandNode<CommandSourceStack, Coordinates> argBoxEnd = Commands.argument("end_corner", Vec3Argument.vec3())
+                    .executes(c -> sampleBlocks(c, AreaType.BOX, useTargetError, null)).build();
+
+            argValue.addChild(argAreaTypeArea);
+            argAreaTypeArea.addChild(argAreaStart);
+            argAreaStart.addChild(argAreaEnd);
+            argAreaEnd.addChild(createSampleFilterNode(AreaType.AREA, useTargetError));
+
+            argValue.addChild(argAreaTypeBox);
+            argAreaTypeBox.addChild(argBoxStart);
+            argBoxStart.addChild(argBoxEnd);
+            argBoxEnd.addChild(createSampleFilterNode(AreaType.BOX, useTargetError));
+        }
+
+        return actionNodeSample;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCommandNode<CommandSourceStack, List<String>> createSampleFilterNode(AreaType areaType, boolean useTargetError)
+    {
+        return Commands.argument("block_filters",
+                StringCollectionArgument.create(() -> ForgeRegistries.BLOCKS.getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                .executes(c -> sampleBlocks(c, areaType, useTargetError, c.getArgument("block_filters", List.class))).build();
+    }
+
+    private static LiteralCommandNode<CommandSourceStack> createCountNodeAllLoadedChunks(CountMode mode)
     {
         LiteralCommandNode<CommandSourceStack> argAreaType = Commands.literal(AreaType.LOADED.getArgument())
-                .executes(c -> countBlocksLoadedChunks(c.getSource(),
-                                                       CommandUtils::getWorldFromCommandSource, isAppend)).build();
+                .executes(c -> countBlocksLoadedChunks(c,
+                                                       CommandUtils::getWorldFromCommandSource, mode)).build();
 
         ArgumentCommandNode<CommandSourceStack, ResourceLocation> argDimension  = Commands.argument("dimension", DimensionArgument.dimension())
-                .executes(c -> countBlocksLoadedChunks(c.getSource(),
-                          (s) -> DimensionArgument.getDimension(c, "dimension"), isAppend))
+                .executes(c -> countBlocksLoadedChunks(c,
+                          (s) -> DimensionArgument.getDimension(c, "dimension"), mode))
                 .build();
 
         argAreaType.addChild(argDimension);
@@ -149,22 +490,28 @@ public class SubCommandBlockStats
         return argAreaType;
     }
 
-    private static LiteralCommandNode<CommandSourceStack> createCountNodeArea(boolean isAppend)
+    private static LiteralCommandNode<CommandSourceStack> createCountNodeAllDimensions(CountMode mode)
+    {
+        return Commands.literal(AreaType.ALL_DIMENSIONS.getArgument())
+                .executes(c -> countBlocksAllDimensions(c, mode)).build();
+    }
+
+    private static LiteralCommandNode<CommandSourceStack> createCountNodeArea(CountMode mode)
     {
         LiteralCommandNode<CommandSourceStack> argAreaType = Commands.literal(AreaType.AREA.getArgument()).build();
 
         ArgumentCommandNode<CommandSourceStack, Coordinates> argStartCorner = Commands.argument("start_corner", Vec2Argument.vec2()).build();
         ArgumentCommandNode<CommandSourceStack, Coordinates> argEndCorner = Commands.argument("end_corner", Vec2Argument.vec2())
-                .executes(c -> countBlocksArea(c.getSource(),
+                .executes(c -> countBlocksArea(c,
                         Vec2Argument.getVec2(c, "start_corner"),
                         Vec2Argument.getVec2(c, "end_corner"),
-                        CommandUtils::getWorldFromCommandSource, isAppend))
+                        CommandUtils::getWorldFromCommandSource, mode))
                 .build();
         ArgumentCommandNode<CommandSourceStack, ResourceLocation> argDimension  = Commands.argument("dimension", DimensionArgument.dimension())
-                .executes(c -> countBlocksArea(c.getSource(),
+                .executes(c -> countBlocksArea(c,
                         Vec2Argument.getVec2(c, "start_corner"),
                         Vec2Argument.getVec2(c, "end_corner"),
-                        (s) -> DimensionArgument.getDimension(c, "dimension"), isAppend))
+                        (s) -> DimensionArgument.getDimension(c, "dimension"), mode))
                 .build();
 
         argAreaType.addChild(argStartCorner);
@@ -174,23 +521,23 @@ public class SubCommandBlockStats
         return argAreaType;
     }
 
-    private static LiteralCommandNode<CommandSourceStack> createCountNodeBox(boolean isAppend)
+    private static LiteralCommandNode<CommandSourceStack> createCountNodeBox(CountMode mode)
     {
         LiteralCommandNode<CommandSourceStack> argAreaType = Commands.literal(AreaType.BOX.getArgument()).build();
 
         ArgumentCommandNode<CommandSourceStack, Coordinates> argStartCorner = Commands.argument("start_corner", Vec3Argument.vec3()).build();
         ArgumentCommandNode<CommandSourceStack, Coordinates> argEndCorner = Commands.argument("end_corner", Vec3Argument.vec3())
-                .executes(c -> countBlocksBox(c.getSource(),
+                .executes(c -> countBlocksBox(c,
                         Vec3Argument.getVec3(c, "start_corner"),
                         Vec3Argument.getVec3(c, "end_corner"),
-                        CommandUtils::getWorldFromCommandSource, isAppend))
+                        CommandUtils::getWorldFromCommandSource, mode))
                 .build();
 
         ArgumentCommandNode<CommandSourceStack, ResourceLocation> argDimension  = Commands.argument("dimension", DimensionArgument.dimension())
-                .executes(c -> countBlocksBox(c.getSource(),
+                .executes(c -> countBlocksBox(c,
                         Vec3Argument.getVec3(c, "start_corner"),
                         Vec3Argument.getVec3(c, "end_corner"),
-                        (s) -> DimensionArgument.getDimension(c, "dimension"), isAppend))
+                        (s) -> DimensionArgument.getDimension(c, "dimension"), mode))
                 .build();
 
         argAreaType.addChild(argStartCorner);
@@ -200,27 +547,27 @@ public class SubCommandBlockStats
         return argAreaType;
     }
 
-    private static LiteralCommandNode<CommandSourceStack> createCountNodeRange(boolean isAppend)
+    private static LiteralCommandNode<CommandSourceStack> createCountNodeRange(CountMode mode)
     {
         LiteralCommandNode<CommandSourceStack> argAreaType = Commands.literal(AreaType.RANGE.getArgument()).build();
 
         ArgumentCommandNode<CommandSourceStack, Integer> argChunkBlockRange = Commands.argument("block_range", IntegerArgumentType.integer(0, 8192))
-                .executes(c -> countBlocksRange(c.getSource(),
+                .executes(c -> countBlocksRange(c,
                         IntegerArgumentType.getInteger(c, "block_range"),
                         CommandUtils.getVec3dFromSource(c.getSource()),
-                        CommandUtils::getWorldFromCommandSource, isAppend))
+                        CommandUtils::getWorldFromCommandSource, mode))
                 .build();
         ArgumentCommandNode<CommandSourceStack, Coordinates> argCenter = Commands.argument("center", Vec3Argument.vec3())
-                .executes(c -> countBlocksRange(c.getSource(),
+                .executes(c -> countBlocksRange(c,
                         IntegerArgumentType.getInteger(c, "block_range"),
                         CommandUtils.getVec3dFromArg(c, "center"),
-                        CommandUtils::getWorldFromCommandSource, isAppend))
+                        CommandUtils::getWorldFromCommandSource, mode))
                 .build();
         ArgumentCommandNode<CommandSourceStack, ResourceLocation> argDimension  = Commands.argument("dimension", DimensionArgument.dimension())
-                .executes(c -> countBlocksRange(c.getSource(),
+                .executes(c -> countBlocksRange(c,
                         IntegerArgumentType.getInteger(c, "block_range"),
                         CommandUtils.getVec3dFromArg(c, "center"),
-                        (s) -> DimensionArgument.getDimension(c, "dimension"), isAppend))
+                        (s) -> DimensionArgument.getDimension(c, "dimension"), mode))
                 .build();
 
         argAreaType.addChild(argChunkBlockRange);
@@ -230,82 +577,439 @@ public class SubCommandBlockStats
         return argAreaType;
     }
 
-    private static int countBlocksRange(CommandSourceStack source, int range, Vec3 center,
-                                        IWorldRetriever dimensionGetter, boolean isAppend) throws CommandSyntaxException
+    private static LiteralCommandNode<CommandSourceStack> createCountNodeSavedRegions(CountMode mode)
+    {
+        LiteralCommandNode<CommandSourceStack> argAreaType = Commands.literal(AreaType.SAVED_REGIONS.getArgument())
+                .executes(c -> countBlocksSavedRegions(c,
+                                                       CommandUtils::getWorldFromCommandSource, mode)).build();
+
+        ArgumentCommandNode<CommandSourceStack, ResourceLocation> argDimension  = Commands.argument("dimension", DimensionArgument.dimension())
+                .executes(c -> countBlocksSavedRegions(c,
+                          (s) -> DimensionArgument.getDimension(c, "dimension"), mode))
+                .build();
+
+        argAreaType.addChild(argDimension);
+
+        return argAreaType;
+    }
+
+    private static int countBlocksRange(CommandContext<CommandSourceStack> ctx, int range, Vec3 center,
+                                        IWorldRetriever dimensionGetter, CountMode mode) throws CommandSyntaxException
     {
         BlockPos centerPos = new BlockPos(center);
-        Level world = dimensionGetter.getWorldFromSource(source);
+        Level world = dimensionGetter.getWorldFromSource(ctx.getSource());
         int minY = world.getMinBuildHeight();
         int maxY = world.getMaxBuildHeight() - 1;
         BlockPos minPos = new BlockPos(centerPos.getX() - range, Math.max(minY, centerPos.getY() - range), centerPos.getZ() - range);
         BlockPos maxPos = new BlockPos(centerPos.getX() + range, Math.min(maxY, centerPos.getY() + range), centerPos.getZ() + range);
 
-        return countBlocksBox(source, minPos, maxPos, dimensionGetter, isAppend);
+        return countBlocksBox(ctx, minPos, maxPos, dimensionGetter, mode);
     }
 
-    private static int countBlocksBox(CommandSourceStack source, Vec3 corner1, Vec3 corner2,
-                                      IWorldRetriever dimensionGetter, boolean isAppend) throws CommandSyntaxException
+    private static int countBlocksBox(CommandContext<CommandSourceStack> ctx, Vec3 corner1, Vec3 corner2,
+                                      IWorldRetriever dimensionGetter, CountMode mode) throws CommandSyntaxException
     {
         BlockPos minPos = CommandUtils.getMinCorner(corner1, corner2);
         BlockPos maxPos = CommandUtils.getMaxCorner(corner1, corner2);
 
-        return countBlocksBox(source, minPos, maxPos, dimensionGetter, isAppend);
+        return countBlocksBox(ctx, minPos, maxPos, dimensionGetter, mode);
     }
 
-    private static int countBlocksArea(CommandSourceStack source, Vec2 corner1, Vec2 corner2,
-                                       IWorldRetriever dimensionGetter, boolean isAppend) throws CommandSyntaxException
+    private static int countBlocksArea(CommandContext<CommandSourceStack> ctx, Vec2 corner1, Vec2 corner2,
+                                       IWorldRetriever dimensionGetter, CountMode mode) throws CommandSyntaxException
     {
-        Level world = dimensionGetter.getWorldFromSource(source);
+        Level world = dimensionGetter.getWorldFromSource(ctx.getSource());
         BlockPos minPos = CommandUtils.getMinCorner(corner1, corner2, world);
         BlockPos maxPos = CommandUtils.getMaxCorner(corner1, corner2, world);
 
-        return countBlocksBox(source, minPos, maxPos, dimensionGetter, isAppend);
+        return countBlocksBox(ctx, minPos, maxPos, dimensionGetter, mode);
     }
 
-    private static int countBlocksBox(CommandSourceStack source, BlockPos minPos, BlockPos maxPos,
-                                      IWorldRetriever dimensionGetter, boolean isAppend) throws CommandSyntaxException
+    private static int countBlocksBox(CommandContext<CommandSourceStack> ctx, BlockPos minPos, BlockPos maxPos,
+                                      IWorldRetriever dimensionGetter, CountMode mode) throws CommandSyntaxException
     {
+        CommandSourceStack source = ctx.getSource();
         Level world = dimensionGetter.getWorldFromSource(source);
-        BlockStats blockStats = getBlockStatsFor(source.getEntity());
+        ChunkProcessorAllChunks blockStats = getBlockStatsForCounting(ctx, mode);
 
         CommandUtils.sendMessage(source, "Counting blocks...");
 
-        blockStats.setAppend(isAppend);
-        blockStats.processChunks(world, minPos, maxPos);
+        blockStats.processChunksAsync(world, minPos, maxPos).whenComplete((v, e) -> sendCompletionMessage(source, e));
+
+        return 1;
+    }
 
-        CommandUtils.sendMessage(source, "Done");
+    private static int countBlocksLoadedChunks(CommandContext<CommandSourceStack> ctx, IWorldRetriever dimensionGetter, CountMode mode) throws CommandSyntaxException
+    {
+        CommandSourceStack source = ctx.getSource();
+        Level world = dimensionGetter.getWorldFromSource(source);
+        ChunkProcessorAllChunks blockStats = getBlockStatsForCounting(ctx, mode);
+
+        CommandUtils.sendMessage(source, "Counting blocks...");
+
+        blockStats.processChunksAsync(TellMe.dataProvider.getLoadedChunks(world), world).whenComplete((v, e) -> sendCompletionMessage(source, e));
 
         return 1;
     }
 
-    private static int countBlocksLoadedChunks(CommandSourceStack source, IWorldRetriever dimensionGetter, boolean isAppend) throws CommandSyntaxException
+    private static int countBlocksAllDimensions(CommandContext<CommandSourceStack> ctx, CountMode mode) throws CommandSyntaxException
     {
+        CommandSourceStack source = ctx.getSource();
+        ChunkProcessorAllChunks blockStats = getBlockStatsForCounting(ctx, mode);
+
+        CommandUtils.sendMessage(source, "Counting blocks in all dimensions...");
+
+        blockStats.processChunksAcrossWorldsAsync(TellMe.dataProvider.getLoadedChunksInAllWorlds(source.getServer()))
+                  .whenComplete((v, e) -> sendCompletionMessage(source, e));
+
+        return 1;
+    }
+
+    private static int countBlocksSavedRegions(CommandContext<CommandSourceStack> ctx, IWorldRetriever dimensionGetter, CountMode mode) throws CommandSyntaxException
+    {
+        CommandSourceStack source = ctx.getSource();
         Level world = dimensionGetter.getWorldFromSource(source);
+
+        if ((world instanceof ServerLevel) == false)
+        {
+            CommandUtils.throwException("The saved regions can only be read on the server");
+        }
+
+        ChunkProcessorAllChunks blockStats = getBlockStatsForCounting(ctx, mode);
+
+        CommandUtils.sendMessage(source, "Counting blocks from the saved region files...");
+
+        blockStats.processSavedChunksAsync((ServerLevel) world, ChunkProcessorAllChunks.getWorldMinPos(world), ChunkProcessorAllChunks.getWorldMaxPos(world))
+                  .thenRun(() -> CommandUtils.sendSkippedSavedChunksMessage(source, blockStats.getSkippedSavedChunkCount()))
+                  .whenComplete((v, e) -> sendCompletionMessage(source, e));
+
+        return 1;
+    }
+
+    private static int rankChunks(CommandContext<CommandSourceStack> ctx, AreaType areaType) throws CommandSyntaxException
+    {
+        CommandSourceStack source = ctx.getSource();
+        OutputType outputType = ctx.getArgument("output_type", OutputType.class);
+        DataDump.Format outputFormat = ctx.getArgument("output_format", DataDump.Format.class);
+        @SuppressWarnings("unchecked")
+        List<String> filters = ctx.getArgument("block_filters", List.class);
+        ChunkDensityRanking ranking = new ChunkDensityRanking(outputFormat, IntegerArgumentType.getInteger(ctx, "count"), filters);
+        CompletableFuture<Void> future;
+
+        ranking.setProgressListener((msg) -> CommandUtils.sendMessage(source, msg));
+        CommandUtils.sendMessage(source, "Ranking chunks...");
+
+        if (areaType == AreaType.ALL_DIMENSIONS)
+        {
+            ranking.setPrintDimension(true);
+            future = ranking.processChunksAcrossWorldsAsync(TellMe.dataProvider.getLoadedChunksInAllWorlds(source.getServer()));
+        }
+        else
+        {
+            future = processChunksInArea(ranking, ctx, areaType);
+        }
+
+        future.whenComplete((v, e) -> {
+            if (e != null)
+            {
+                CommandUtils.sendMessage(source, "Ranking the chunks failed: " + e.getMessage());
+                return;
+            }
+
+            OutputUtils.printOutput(ranking.getLines(), outputType, outputFormat, "block_stats_top_chunks", source);
+        });
+
+        return 1;
+    }
+
+    private static int renderHeatmap(CommandContext<CommandSourceStack> ctx, AreaType areaType) throws CommandSyntaxException
+    {
+        CommandSourceStack source = ctx.getSource();
+        @SuppressWarnings("unchecked")
+        List<String> filters = ctx.getArgument("block_filters", List.class);
+        final int cellSize = IntegerArgumentType.getInteger(ctx, "cell_size");
+        BlockDensityHeatmap heatmap = new BlockDensityHeatmap(cellSize, filters);
+
+        heatmap.setProgressListener((msg) -> CommandUtils.sendMessage(source, msg));
+        CommandUtils.sendMessage(source, "Counting blocks for the heatmap...");
+
+        // The image is rendered on the worker threads, and the result message is sent from the server thread
+        processChunksInArea(heatmap, ctx, areaType)
+                .thenApplyAsync((v) -> {
+                    try
+                    {
+                        return heatmap.writeImage(ParallelChunkScanner.getPool());
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                }, ParallelChunkScanner.getPool())
+                .whenCompleteAsync((file, e) -> {
+                    if (e != null)
+                    {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        CommandUtils.sendMessage(source, "Rendering the heatmap failed: " + cause.getMessage());
+                        return;
+                    }
+
+                    CommandUtils.sendMessage(source, String.format("Heatmap of %d cells of %d x %d chunks, the highest count in a cell is %d",
+                                                                   heatmap.getCellCount(), cellSize, cellSize, heatmap.getMaxCount()));
+                    OutputUtils.sendFileWrittenMessage(file, source.getEntity() instanceof Player ? (Player) source.getEntity() : null, source);
+                }, source.getServer());
+
+        return 1;
+    }
+
+    /**
+     * Counts the block stats, locates the given block entities and counts the block entities per chunk, all in one pass over the chunks
+     */
+    private static int combinedScan(CommandContext<CommandSourceStack> ctx, AreaType areaType) throws CommandSyntaxException
+    {
+        CommandSourceStack source = ctx.getSource();
+        OutputType outputType = ctx.getArgument("output_type", OutputType.class);
+        DataDump.Format outputFormat = ctx.getArgument("output_format", DataDump.Format.class);
+        @SuppressWarnings("unchecked")
+        List<String> filters = ctx.getArgument("block_entities", List.class);
+
+        BlockStats blockStats = (BlockStats) getBlockStatsForCounting(source, CountMode.COUNT);
+        LocateBlockEntities locate = (LocateBlockEntities) LocateBase.LocateType.BLOCK_ENTITY.createChunkProcessor(outputFormat, filters);
+        ChunkProcessorBlockEntityCounterPerChunk blockEntityCounter = new ChunkProcessorBlockEntityCounterPerChunk(outputFormat);
+        ChunkScanPipeline pipeline = new ChunkScanPipeline().addProcessor(blockStats).addStage(locate).addProcessor(blockEntityCounter);
+
+        pipeline.setProgressListener((msg) -> CommandUtils.sendMessage(source, msg));
+        CommandUtils.sendMessage(source, "Scanning the chunks...");
+
+        processChunksInArea(pipeline, ctx, areaType).whenComplete((v, e) -> {
+            if (e != null)
+            {
+                CommandUtils.sendMessage(source, "Scanning the chunks failed: " + e.getMessage());
+                return;
+            }
+
+            OutputUtils.printOutput(locate.getLines(), outputType, outputFormat, "combined_scan_locate_block_entities", source);
+            OutputUtils.printOutput(blockEntityCounter.getDump().getLines(), outputType, outputFormat, "combined_scan_block_entities_per_chunk", source);
+            CommandUtils.sendMessage(source, "The block counts were stored, use the output-data command to print them");
+            locate.clearResults();
+        });
+
+        return 1;
+    }
+
+    private static int sampleBlocks(CommandContext<CommandSourceStack> ctx, AreaType areaType, boolean useTargetError,
+                                    @Nullable List<String> filters) throws CommandSyntaxException
+    {
+        CommandSourceStack source = ctx.getSource();
+        OutputType outputType = ctx.getArgument("output_type", OutputType.class);
+        DataDump.Format outputFormat = ctx.getArgument("output_format", DataDump.Format.class);
+        CommandUtils.BlockStateGrouping grouping = ctx.getArgument("result_grouping", CommandUtils.BlockStateGrouping.class);
+        double fraction = useTargetError ? 1.0 : DoubleArgumentType.getDouble(ctx, "fraction");
+        double targetError = useTargetError ? DoubleArgumentType.getDouble(ctx, "target_error") : 0.0;
+        Level world = CommandUtils.getWorldFromCommandSource(source);
+        BlockPos minPos;
+        BlockPos maxPos;
+
+        if ((world instanceof ServerLevel) == false)
+        {
+            CommandUtils.throwException("The sampling can only be done on the server");
+        }
+
+        if (areaType == AreaType.AREA)
+        {
+            Vec2 vecStart = Vec2Argument.getVec2(ctx, "start_corner");
+            Vec2 vecEnd = Vec2Argument.getVec2(ctx, "end_corner");
+            minPos = CommandUtils.getMinCorner(vecStart, vecEnd, world);
+            maxPos = CommandUtils.getMaxCorner(vecStart, vecEnd, world);
+        }
+        else
+        {
+            Vec3 vecStart = CommandUtils.getVec3dFromArg(ctx, "start_corner");
+            Vec3 vecEnd = CommandUtils.getVec3dFromArg(ctx, "end_corner");
+            minPos = CommandUtils.getMinCorner(vecStart, vecEnd);
+            maxPos = CommandUtils.getMaxCorner(vecStart, vecEnd);
+        }
+
+        BlockStatsSampler sampler = new BlockStatsSampler(outputFormat, grouping, fraction, targetError,
+                                                          filters != null && filters.isEmpty() == false ? filters : null);
+
+        sampler.setProgressListener((msg) -> CommandUtils.sendMessage(source, msg));
+        CommandUtils.sendMessage(source, "Sampling blocks...");
+
+        sampler.sampleAsync((ServerLevel) world, minPos, maxPos).whenComplete((v, e) -> {
+            if (e != null)
+            {
+                CommandUtils.sendMessage(source, "Sampling the blocks failed: " + e.getMessage());
+                return;
+            }
+
+            OutputUtils.printOutput(sampler.getLines(), outputType, outputFormat, "block_stats_sampled", source);
+        });
+
+        return 1;
+    }
+
+    private static int saveSnapshot(CommandSourceStack source, String name) throws CommandSyntaxException
+    {
         BlockStats blockStats = getBlockStatsFor(source.getEntity());
 
-        CommandUtils.sendMessage(source, "Counting blocks...");
+        if (name.equals(BlockStatsSnapshot.CURRENT_DATA))
+        {
+            CommandUtils.throwException("The name '" + BlockStatsSnapshot.CURRENT_DATA + "' is reserved for the current data");
+        }
+
+        if (blockStats.isScanInProgress())
+        {
+            CommandUtils.throwException("A block count is still in progress");
+        }
 
-        blockStats.setAppend(isAppend);
-        blockStats.processChunks(TellMe.dataProvider.getLoadedChunks(world), world);
+        if (blockStats.isApproximate())
+        {
+            CommandUtils.throwException("The current results are from the count-approximate command, snapshots need the exact counts");
+        }
 
-        CommandUtils.sendMessage(source, "Done");
+        File file = BlockStatsSnapshot.getSnapshotFile(name);
+
+        try
+        {
+            BlockStatsSnapshot.of(name, blockStats).write(file);
+        }
+        catch (IOException e)
+        {
+            TellMe.logger.warn("Failed to write the block stats snapshot '{}'", file.getAbsolutePath(), e);
+            CommandUtils.throwException("Failed to write the snapshot: " + e.getMessage());
+        }
+
+        CommandUtils.sendMessage(source, "Saved the block stats snapshot '" + name + "'");
 
         return 1;
     }
 
+    private static int diffSnapshots(CommandContext<CommandSourceStack> ctx, boolean sortByChange, @Nullable List<String> filters) throws CommandSyntaxException
+    {
+        CommandSourceStack source = ctx.getSource();
+        OutputType outputType = ctx.getArgument("output_type", OutputType.class);
+        DataDump.Format format = ctx.getArgument("output_format", DataDump.Format.class);
+        CommandUtils.BlockStateGrouping grouping = ctx.getArgument("result_grouping", CommandUtils.BlockStateGrouping.class);
+        BlockStatsSnapshot from = getSnapshot(source, StringArgumentType.getString(ctx, "from_name"));
+        BlockStatsSnapshot to = getSnapshot(source, StringArgumentType.getString(ctx, "to_name"));
+        List<String> lines = BlockStatsSnapshot.diff(from, to, format, grouping, sortByChange, filters != null && filters.isEmpty() == false ? filters : null);
+
+        OutputUtils.printOutput(lines, outputType, format, "block_stats_diff", source);
+
+        return 1;
+    }
+
+    private static BlockStatsSnapshot getSnapshot(CommandSourceStack source, String name) throws CommandSyntaxException
+    {
+        if (name.equals(BlockStatsSnapshot.CURRENT_DATA))
+        {
+            BlockStats blockStats = getBlockStatsFor(source.getEntity());
+
+            if (blockStats.isApproximate())
+            {
+                CommandUtils.throwException("The current results are from the count-approximate command, snapshots need the exact counts");
+            }
+
+            return BlockStatsSnapshot.of(name, blockStats);
+        }
+
+        File file = BlockStatsSnapshot.getSnapshotFile(name);
+
+        if (file.exists() == false)
+        {
+            CommandUtils.throwException("No block stats snapshot named '" + name + "'");
+        }
+
+        try
+        {
+            return BlockStatsSnapshot.read(name, file);
+        }
+        catch (Exception e)
+        {
+            TellMe.logger.warn("Failed to read the block stats snapshot '{}'", file.getAbsolutePath(), e);
+            CommandUtils.throwException("Failed to read the snapshot '" + name + "': " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    private static CompletableFuture<Void> processChunksInArea(ChunkProcessorAllChunks processor, CommandContext<CommandSourceStack> ctx,
+                                                               AreaType areaType) throws CommandSyntaxException
+    {
+        Level world = CommandUtils.getWorldFromCommandSource(ctx.getSource());
+
+        if (areaType == AreaType.BOX)
+        {
+            Vec3 vecStart = CommandUtils.getVec3dFromArg(ctx, "start_corner");
+            Vec3 vecEnd = CommandUtils.getVec3dFromArg(ctx, "end_corner");
+            return processor.processChunksAsync(world, CommandUtils.getMinCorner(vecStart, vecEnd), CommandUtils.getMaxCorner(vecStart, vecEnd));
+        }
+        else if (areaType == AreaType.SAVED_REGIONS)
+        {
+            if ((world instanceof ServerLevel) == false)
+            {
+                CommandUtils.throwException("The saved regions can only be read on the server");
+            }
+
+            return processor.processSavedChunksAsync((ServerLevel) world, ChunkProcessorAllChunks.getWorldMinPos(world), ChunkProcessorAllChunks.getWorldMaxPos(world))
+                            .thenRun(() -> CommandUtils.sendSkippedSavedChunksMessage(ctx.getSource(), processor.getSkippedSavedChunkCount()));
+        }
+
+        return processor.processChunksAsync(TellMe.dataProvider.getLoadedChunks(world), world);
+    }
+
+    private static void sendCompletionMessage(CommandSourceStack source, @Nullable Throwable error)
+    {
+        if (error != null)
+        {
+            CommandUtils.sendMessage(source, "Counting the blocks failed: " + error.getMessage());
+        }
+        else
+        {
+            CommandUtils.sendMessage(source, "Done");
+        }
+    }
+
     private static int printHelp(CommandSourceStack source)
     {
         CommandUtils.sendMessage(source, "Calculates the number of blocks in a given area");
         CommandUtils.sendMessage(source, "Usage: /tellme block-stats count[-append] all-loaded-chunks [dimension]");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats count[-append] all-dimensions");
         CommandUtils.sendMessage(source, "Usage: /tellme block-stats count[-append] area <x1> <z1> <x2> <z2> [dimension]");
         CommandUtils.sendMessage(source, "Usage: /tellme block-stats count[-append] box <x1> <y1> <z1> <x2> <y2> <z2> [dimension]");
         CommandUtils.sendMessage(source, "Usage: /tellme block-stats count[-append] range <block_range> [x y z (of the center)] [dimension]");
-        CommandUtils.sendMessage(source, "Usage: /tellme block-stats output-data <to-chat | to-console | to-file> <ascii | csv> <by-block | by-state> [sort-by-count] [modid:block] [modid:block] ...");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats count[-append] saved-regions [dimension]");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats output-data <to-chat | to-console | to-file> <ascii | csv> <by-block | by-state | by-mod | by-tag> [sort-by-count] [modid:block] [modid:block] ...");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats count-approximate[-append] <the same area options as count>");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats count-surface[-append] <world-surface | motion-blocking | motion-blocking-no-leaves | ocean-floor> <depth> <the same area options as count, except saved-regions>");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats count-by-y[-append] <the same area options as count>");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats top-chunks <to-chat | to-console | to-file> <ascii | csv> <count> <loaded-chunks | all-dimensions | box <x1> <y1> <z1> <x2> <y2> <z2> | saved-regions> <modid:block> [modid:block] ...");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats heatmap <cell_size> <loaded-chunks | box <x1> <y1> <z1> <x2> <y2> <z2> | saved-regions> <modid:block> [modid:block] ...");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats snapshot save <name>");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats snapshot diff <to-chat | to-console | to-file> <ascii | csv> <by-block | by-state> <sort-by-name | sort-by-change> <from_name> <to_name | current> [modid:block] [modid:block] ...");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats combined-scan <to-chat | to-console | to-file> <ascii | csv> <loaded-chunks | box <x1> <y1> <z1> <x2> <y2> <z2>> <modid:block_entity> [modid:block_entity] ...");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats sample <to-chat | to-console | to-file> <ascii | csv> <by-block | by-state> <fraction <value> | target-error <value>> <area <x1> <z1> <x2> <z2> | box <x1> <y1> <z1> <x2> <y2> <z2>> [modid:block] [modid:block] ...");
+        CommandUtils.sendMessage(source, "Usage: /tellme block-stats output-data-by-y <to-chat | to-console | to-file> <ascii | csv> <by-block | by-state> <y-rows | state-rows> [y_bucket_size] [modid:block] [modid:block] ...");
         CommandUtils.sendMessage(source, "- count: Clears previously stored results, and then counts all the blocks in the given area");
         CommandUtils.sendMessage(source, "- count-append: Counts all the blocks in the given area, appending the data to the previously stored results");
+        CommandUtils.sendMessage(source, "- all-dimensions: Counts the loaded chunks of all the dimensions at once, into one combined result");
+        CommandUtils.sendMessage(source, "- saved-regions: Reads all the saved chunks directly from the region files, without loading them. Unsaved changes are not included.");
         CommandUtils.sendMessage(source, "- output-data: Outputs the stored data from previous count operations to the selected output location.");
         CommandUtils.sendMessage(source, "- output-data: The 'file' output's dump files will go to 'config/tellme/'.");
         CommandUtils.sendMessage(source, "- output-data: If you give some block names, then only the data for those given blocks will be included in the output");
+        CommandUtils.sendMessage(source, "- output-data: by-mod and by-tag list the total non-air block counts per mod namespace or per block tag. A block with several tags is counted in each of them.");
+        CommandUtils.sendMessage(source, "- count-approximate: Counts the blocks into a fixed amount of memory, keeping only the most common block states (see the 'approximateCountTopSize' config)");
+        CommandUtils.sendMessage(source, "- count-approximate: output-data then lists those states, or the filtered states, with an upper estimate and a lower bound for each count");
+        CommandUtils.sendMessage(source, "- count-surface: Only counts the top <depth> blocks of each column, down from the surface given by the selected heightmap");
+        CommandUtils.sendMessage(source, "- count-by-y: Counts the blocks separately on each y-level, for the output-data-by-y command");
+        CommandUtils.sendMessage(source, "- top-chunks: Lists the <count> chunks with the most matching blocks, separately for each given block (state) filter");
+        CommandUtils.sendMessage(source, "- heatmap: Renders the number of matching blocks per <cell_size> x <cell_size> chunks into a PNG image in 'config/tellme/', using a logarithmic colour scale");
+        CommandUtils.sendMessage(source, "- snapshot save: Saves the current results of the count command into a named snapshot file in 'config/tellme/block_stats_snapshots/'");
+        CommandUtils.sendMessage(source, "- snapshot diff: Compares two saved snapshots, or a snapshot against the 'current' results, and lists the changed counts");
+        CommandUtils.sendMessage(source, "- combined-scan: Counts the blocks like the count command, locates the given block entities and counts the block entities per chunk, all in one pass over the chunks");
+        CommandUtils.sendMessage(source, "- sample: Estimates the block counts from a random sample of the chunks in the area, with 95% confidence intervals");
+        CommandUtils.sendMessage(source, "- sample: Either samples the given fraction (0..1) of the chunks, or keeps sampling until the estimates are within the given relative target error (for example 0.05 for +/- 5%)");
+        CommandUtils.sendMessage(source, "- output-data-by-y: Outputs the per-y-level counts, either with one row per y-level or one row per block. The y_bucket_size combines that many y-levels into one.");
 
         return 1;
     }
@@ -335,6 +1039,54 @@ public class SubCommandBlockStats
         return 1;
     }
 
+    private static int outputDataByY(CommandSourceStack source, OutputType outputType, DataDump.Format format, CommandUtils.BlockStateGrouping grouping,
+                                     boolean rowsPerState, int bucketSize, @Nullable List<String> filters) throws CommandSyntaxException
+    {
+        BlockStatsByY blockStats = getBlockStatsByYFor(source.getEntity());
+        List<String> lines = blockStats.query(format, grouping, rowsPerState, bucketSize, filters);
+
+        OutputUtils.printOutput(lines, outputType, format, "block_stats_by_y", source);
+
+        return 1;
+    }
+
+    private static ChunkProcessorAllChunks getBlockStatsForCounting(CommandContext<CommandSourceStack> ctx, CountMode mode) throws CommandSyntaxException
+    {
+        ChunkProcessorAllChunks processor = getBlockStatsForCounting(ctx.getSource(), mode);
+
+        if (mode.isSurface())
+        {
+            ((BlockStats) processor).setSurface(ctx.getArgument("heightmap", Heightmap.Types.class), IntegerArgumentType.getInteger(ctx, "depth"));
+        }
+
+        return processor;
+    }
+
+    private static ChunkProcessorAllChunks getBlockStatsForCounting(CommandSourceStack source, CountMode mode) throws CommandSyntaxException
+    {
+        ChunkProcessorAllChunks processor = mode.isByY() ? getBlockStatsByYFor(source.getEntity()) : getBlockStatsFor(source.getEntity());
+
+        if (processor.isScanInProgress())
+        {
+            CommandUtils.throwException("A previous block count is still in progress");
+        }
+
+        if (mode.isByY())
+        {
+            ((BlockStatsByY) processor).setAppend(mode.isAppend());
+        }
+        else
+        {
+            ((BlockStats) processor).setAppend(mode.isAppend());
+            ((BlockStats) processor).setApproximate(mode.isApproximate());
+            ((BlockStats) processor).setSurface(null, 0);
+        }
+
+        processor.setProgressListener((msg) -> CommandUtils.sendMessage(source, msg));
+
+        return processor;
+    }
+
     private static BlockStats getBlockStatsFor(@Nullable Entity entity)
     {
         if (entity == null)
@@ -344,4 +1096,66 @@ public class SubCommandBlockStats
 
         return BLOCK_STATS.computeIfAbsent(entity.getUUID(), (e) -> new BlockStats());
     }
+
+    private static BlockStatsByY getBlockStatsByYFor(@Nullable Entity entity)
+    {
+        if (entity == null)
+        {
+            return CONSOLE_BLOCK_STATS_BY_Y;
+        }
+
+        return BLOCK_STATS_BY_Y.computeIfAbsent(entity.getUUID(), (e) -> new BlockStatsByY());
+    }
+
+    private enum CountMode
+    {
+        COUNT                       ("count",                       false, false, false, false),
+        COUNT_APPEND                ("count-append",                true,  false, false, false),
+        COUNT_APPROXIMATE           ("count-approximate",           false, false, true,  false),
+        COUNT_APPROXIMATE_APPEND    ("count-approximate-append",    true,  false, true,  false),
+        COUNT_SURFACE               ("count-surface",               false, false, false, true),
+        COUNT_SURFACE_APPEND        ("count-surface-append",        true,  false, false, true),
+        COUNT_BY_Y                  ("count-by-y",                  false, true,  false, false),
+        COUNT_BY_Y_APPEND           ("count-by-y-append",           true,  true,  false, false);
+
+        private final String arg;
+        private final boolean append;
+        private final boolean byY;
+        private final boolean approximate;
+        private final boolean surface;
+
+        CountMode(String arg, boolean append, boolean byY, boolean approximate, boolean surface)
+        {
+            this.arg = arg;
+            this.append = append;
+            this.byY = byY;
+            this.approximate = approximate;
+            this.surface = surface;
+        }
+
+        public String getArgument()
+        {
+            return this.arg;
+        }
+
+        public boolean isAppend()
+        {
+            return this.append;
+        }
+
+        public boolean isByY()
+        {
+            return this.byY;
+        }
+
+        public boolean isApproximate()
+        {
+            return this.approximate;
+        }
+
+        public boolean isSurface()
+        {
+            return this.surface;
+        }
+    }
 }
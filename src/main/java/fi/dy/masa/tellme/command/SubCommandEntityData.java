@@ -2,6 +2,8 @@ package fi.dy.masa.tellme.command;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.context.CommandContext;
@@ -156,17 +158,21 @@ public class SubCommandEntityData
 
         if (processor != null)
         {
+            final ChunkProcessorBase finalProcessor = processor;
+            Consumer<String> progressListener = (msg) -> CommandUtils.sendMessage(source, msg);
+            CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+
             switch (areaType)
             {
                 case ALL_LOADED:
-                    processor.processChunks(TellMe.dataProvider.getLoadedChunks(world));
+                    future = processor.processChunksAsync(TellMe.dataProvider.getLoadedChunks(world), progressListener);
                     break;
 
                 case CHUNK:
                 {
                     Vec2 vec = CommandUtils.getVec2fFromArg(context, "chunk");
                     ChunkPos pos = CommandUtils.getAsChunkPos(vec);
-                    processor.processChunksInArea(world, pos, pos);
+                    future = processor.processChunksInAreaAsync(world, pos, pos, progressListener);
                     break;
                 }
 
@@ -177,20 +183,28 @@ public class SubCommandEntityData
                     ChunkPos pos1 = CommandUtils.getMinCornerChunkPos(vecStart, vecEnd);
                     ChunkPos pos2 = CommandUtils.getMaxCornerChunkPos(vecStart, vecEnd);
                     processor.setBoxCorners(vecStart, vecEnd);
-                    processor.processChunksInArea(world, pos1, pos2);
+                    future = processor.processChunksInAreaAsync(world, pos1, pos2, progressListener);
                     break;
                 }
             }
 
-            DataDump dump = processor.getDump();
-            dump.addHeader(0, String.format("Dimension: '%s'", WorldUtils.getDimensionId(world)));
+            future.whenComplete((v, e) -> {
+                if (e != null)
+                {
+                    CommandUtils.sendMessage(source, "Processing the chunks failed: " + e.getMessage());
+                    return;
+                }
 
-            List<String> lines = dump.getLines();
+                DataDump dump = finalProcessor.getDump();
+                dump.addHeader(0, String.format("Dimension: '%s'", WorldUtils.getDimensionId(world)));
 
-            if (lines != null)
-            {
-                OutputUtils.printOutput(lines, outputType, outputFormat, "entity-data_" + target.getArgument(), source);
-            }
+                List<String> lines = dump.getLines();
+
+                if (lines != null)
+                {
+                    OutputUtils.printOutput(lines, outputType, outputFormat, "entity-data_" + target.getArgument(), source);
+                }
+            });
         }
 
         return 1;
@@ -1,6 +1,9 @@
 package fi.dy.masa.tellme.command;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
@@ -14,6 +17,7 @@ import net.minecraft.commands.arguments.coordinates.Coordinates;
 import net.minecraft.commands.arguments.coordinates.Vec2Argument;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.phys.Vec2;
@@ -57,6 +61,7 @@ public class SubCommandLoaded
         CommandUtils.sendMessage(source, "Usage: /tellme loaded chunks in-area <x1> <z1> <x2> <z2> <to-chat | to-console | to-file> [ascii | csv] [dimension]");
         CommandUtils.sendMessage(source, "Usage: /tellme loaded dimensions <to-chat | to-console | to-file> [ascii | csv]");
         CommandUtils.sendMessage(source, "Usage: /tellme loaded <entities | block-entities> <list-all | by-chunk | by-type> <to-chat | to-console | to-file> <ascii | csv> all-loaded [dimension]");
+        CommandUtils.sendMessage(source, "Usage: /tellme loaded <entities | block-entities> <list-all | by-chunk | by-type> <to-chat | to-console | to-file> <ascii | csv> all-dimensions");
         CommandUtils.sendMessage(source, "Usage: /tellme loaded <entities | block-entities> <list-all | by-chunk | by-type> <to-chat | to-console | to-file> <ascii | csv> in-area <x1> <z1> <x2> <z2> [dimension]");
         CommandUtils.sendMessage(source, "Usage: /tellme loaded <entities | block-entities> <list-all | by-chunk | by-type> <to-chat | to-console | to-file> <ascii | csv> in-chunk <chunkX> <chunkZ> [dimension]");
 
@@ -175,6 +180,7 @@ public class SubCommandLoaded
         ArgumentCommandNode<CommandSourceStack, DataDump.Format> argOutputFormat = Commands.argument("output_format", OutputFormatArgument.create()).build();
 
         // /tellme loaded <entities | block-entities> <all | by-chunk | by-type> <to-chat | to-console | to-file> <ascii | csv> all [dimension]
+        // /tellme loaded <entities | block-entities> <all | by-chunk | by-type> <to-chat | to-console | to-file> <ascii | csv> all-dimensions
         // /tellme loaded <entities | block-entities> <all | by-chunk | by-type> <to-chat | to-console | to-file> <ascii | csv> in-area <x1> <z1> <x2> <z2> [dimension]
         // /tellme loaded <entities | block-entities> <all | by-chunk | by-type> <to-chat | to-console | to-file> <ascii | csv> in-chunk <chunkX> <chunkZ> [dimension]
 
@@ -185,6 +191,10 @@ public class SubCommandLoaded
         ArgumentCommandNode<CommandSourceStack, ResourceLocation> argDimensionAll = Commands.argument("dimension", DimensionArgument.dimension())
                 .executes(c -> listLoadedEntities(target, AreaType.ALL_LOADED, c, (s) -> DimensionArgument.getDimension(c, "dimension"))).build();
 
+        // all-dimensions
+        LiteralCommandNode<CommandSourceStack> argAreaTypeAllDimensions = Commands.literal(AreaType.ALL_DIMENSIONS.getArgument())
+                .executes(c -> listLoadedEntitiesInAllDimensions(target, c)).build();
+
         // in-area
         LiteralCommandNode<CommandSourceStack> argAreaTypeInArea = Commands.literal(AreaType.AREA.getArgument())
                 .executes(c -> listLoadedEntities(target, AreaType.AREA, c, CommandUtils::getWorldFromCommandSource)).build();
@@ -213,6 +223,8 @@ public class SubCommandLoaded
         argOutputFormat.addChild(argAreaTypeAll);
         argAreaTypeAll.addChild(argDimensionAll);
 
+        argOutputFormat.addChild(argAreaTypeAllDimensions);
+
         argOutputFormat.addChild(argAreaTypeInArea);
         argAreaTypeInArea.addChild(argStartCorner);
         argStartCorner.addChild(argEndCorner);
@@ -234,52 +246,25 @@ public class SubCommandLoaded
         OutputType outputType = context.getArgument("output_type", OutputType.class);
         DataDump.Format outputFormat = context.getArgument("output_format", DataDump.Format.class);
 
-        ChunkProcessorBase processor = null;
-
-        if (target == LoadedTarget.BLOCK_ENTITY)
-        {
-            switch (grouping)
-            {
-                case LIST_ALL:
-                    processor = new BlockEntitiesLister(outputFormat);
-                    break;
-                case BY_CHUNK:
-                    processor = new ChunkProcessorBlockEntityCounterPerChunk(outputFormat);
-                    break;
-                case BY_TYPE:
-                    processor = new ChunkProcessorBlockEntityCounterPerType(outputFormat);
-                    break;
-            }
-        }
-        else if (target == LoadedTarget.ENTITY)
-        {
-            switch (grouping)
-            {
-                case LIST_ALL:
-                    processor = new EntitiesLister(outputFormat);
-                    break;
-                case BY_CHUNK:
-                    processor = new ChunkProcessorEntityCounterPerChunk(outputFormat);
-                    break;
-                case BY_TYPE:
-                    processor = new ChunkProcessorEntityCounterPerType(outputFormat);
-                    break;
-            }
-        }
+        ChunkProcessorBase processor = createProcessor(target, grouping, outputFormat);
 
         if (processor != null)
         {
+            final ChunkProcessorBase finalProcessor = processor;
+            Consumer<String> progressListener = (msg) -> CommandUtils.sendMessage(source, msg);
+            CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+
             switch (areaType)
             {
                 case ALL_LOADED:
-                    processor.processChunks(TellMe.dataProvider.getLoadedChunks(world));
+                    future = processor.processChunksAsync(TellMe.dataProvider.getLoadedChunks(world), progressListener);
                     break;
 
                 case CHUNK:
                 {
                     Vec2 vec = CommandUtils.getVec2fFromArg(context, "chunk");
                     ChunkPos pos = CommandUtils.getAsChunkPos(vec);
-                    processor.processChunksInArea(world, pos, pos);
+                    future = processor.processChunksInAreaAsync(world, pos, pos, progressListener);
                     break;
                 }
 
@@ -289,23 +274,106 @@ public class SubCommandLoaded
                     Vec2 vecEnd = CommandUtils.getVec2fFromArg(context, "end_corner");
                     ChunkPos pos1 = CommandUtils.getMinCornerChunkPos(vecStart, vecEnd);
                     ChunkPos pos2 = CommandUtils.getMaxCornerChunkPos(vecStart, vecEnd);
-                    processor.processChunksInArea(world, pos1, pos2);
+                    future = processor.processChunksInAreaAsync(world, pos1, pos2, progressListener);
                     break;
                 }
             }
 
-            DataDump dump = processor.getDump();
-            dump.addHeader(0, String.format("Dimension: '%s'", WorldUtils.getDimensionId(world)));
+            future.whenComplete((v, e) -> {
+                if (e != null)
+                {
+                    CommandUtils.sendMessage(source, "Processing the chunks failed: " + e.getMessage());
+                    return;
+                }
+
+                DataDump dump = finalProcessor.getDump();
+                dump.addHeader(0, String.format("Dimension: '%s'", WorldUtils.getDimensionId(world)));
+
+                List<String> lines = dump.getLines();
+
+                if (lines != null)
+                {
+                    OutputUtils.printOutput(lines, outputType, outputFormat, "loaded_" + target.getArgument(), source);
+                }
+            });
+        }
+
+        return 1;
+    }
+
+    /**
+     * Processes the loaded chunks of each dimension in turn, and prints the results of all the dimensions
+     * as one output. The entities can only be accessed on the server thread, and the per-chunk results
+     * would overlap between the dimensions, so each dimension gets its own processor and output section.
+     */
+    private static int listLoadedEntitiesInAllDimensions(LoadedTarget target, CommandContext<CommandSourceStack> context)
+    {
+        CommandSourceStack source = context.getSource();
+        Grouping grouping = context.getArgument("grouping", Grouping.class);
+        OutputType outputType = context.getArgument("output_type", OutputType.class);
+        DataDump.Format outputFormat = context.getArgument("output_format", DataDump.Format.class);
+        Consumer<String> progressListener = (msg) -> CommandUtils.sendMessage(source, msg);
+        List<String> lines = new ArrayList<>();
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+
+        for (ServerLevel world : source.getServer().getAllLevels())
+        {
+            future = future.thenCompose((v) -> {
+                ChunkProcessorBase processor = createProcessor(target, grouping, outputFormat);
+
+                return processor.processChunksAsync(TellMe.dataProvider.getLoadedChunks(world), progressListener).thenRun(() -> {
+                    DataDump dump = processor.getDump();
+                    dump.addHeader(0, String.format("Dimension: '%s'", WorldUtils.getDimensionId(world)));
+
+                    List<String> dimensionLines = dump.getLines();
+
+                    if (dimensionLines != null)
+                    {
+                        lines.addAll(dimensionLines);
+                    }
+                });
+            });
+        }
+
+        future.whenComplete((v, e) -> {
+            if (e != null)
+            {
+                CommandUtils.sendMessage(source, "Processing the chunks failed: " + e.getMessage());
+                return;
+            }
+
+            OutputUtils.printOutput(lines, outputType, outputFormat, "loaded_" + target.getArgument(), source);
+        });
 
-            List<String> lines = dump.getLines();
+        return 1;
+    }
 
-            if (lines != null)
+    private static ChunkProcessorBase createProcessor(LoadedTarget target, Grouping grouping, DataDump.Format outputFormat)
+    {
+        if (target == LoadedTarget.BLOCK_ENTITY)
+        {
+            if (grouping == Grouping.BY_CHUNK)
+            {
+                return new ChunkProcessorBlockEntityCounterPerChunk(outputFormat);
+            }
+            else if (grouping == Grouping.BY_TYPE)
             {
-                OutputUtils.printOutput(lines, outputType, outputFormat, "loaded_" + target.getArgument(), source);
+                return new ChunkProcessorBlockEntityCounterPerType(outputFormat);
             }
+
+            return new BlockEntitiesLister(outputFormat);
         }
 
-        return 1;
+        if (grouping == Grouping.BY_CHUNK)
+        {
+            return new ChunkProcessorEntityCounterPerChunk(outputFormat);
+        }
+        else if (grouping == Grouping.BY_TYPE)
+        {
+            return new ChunkProcessorEntityCounterPerType(outputFormat);
+        }
+
+        return new EntitiesLister(outputFormat);
     }
 
     private static int listLoadedChunksAll(CommandSourceStack source, OutputType outputType,
@@ -382,9 +450,10 @@ public class SubCommandLoaded
 
     public enum AreaType
     {
-        ALL_LOADED  ("all-loaded"),
-        AREA        ("in-area"),
-        CHUNK       ("in-chunk");
+        ALL_LOADED      ("all-loaded"),
+        ALL_DIMENSIONS  ("all-dimensions"),
+        AREA            ("in-area"),
+        CHUNK           ("in-chunk");
 
         private final String argument;
 
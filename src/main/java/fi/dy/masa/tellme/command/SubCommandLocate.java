@@ -1,6 +1,7 @@
 package fi.dy.masa.tellme.command;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
@@ -15,6 +16,7 @@ import net.minecraft.commands.arguments.coordinates.Coordinates;
 import net.minecraft.commands.arguments.coordinates.Vec3Argument;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.phys.Vec3;
 import fi.dy.masa.tellme.TellMe;
@@ -43,8 +45,14 @@ public class SubCommandLocate
     {
         CommandUtils.sendMessage(source, "Locates Blocks, BlockEntities or Entities in the current dimension");
         CommandUtils.sendMessage(source, "Usage: /tellme locate <block | entity | block-entity> <to-chat | to-console | to-file> <ascii | csv> all-loaded-chunks <name> [name name ...]");
+        CommandUtils.sendMessage(source, "Usage: /tellme locate <block | entity | block-entity> <to-chat | to-console | to-file> <ascii | csv> all-dimensions <name> [name name ...]");
         CommandUtils.sendMessage(source, "Usage: /tellme locate <block | entity | block-entity> <to-chat | to-console | to-file> <ascii | csv> box <x1> <y1> <z1> <x2> <y2> <z2> <name> [name name ...]");
         CommandUtils.sendMessage(source, "Usage: /tellme locate <block | entity | block-entity> <to-chat | to-console | to-file> <ascii | csv> chunk-radius <radius> <name> [name name ...]");
+        CommandUtils.sendMessage(source, "Usage: /tellme locate <block | entity | block-entity> <to-chat | to-console | to-file> <ascii | csv> nearest <count> <max_chunk_radius> <name> [name name ...]");
+        CommandUtils.sendMessage(source, "Usage: /tellme locate block <to-chat | to-console | to-file> <ascii | csv> saved-regions <name> [name name ...]");
+        CommandUtils.sendMessage(source, "- all-dimensions: Searches the loaded chunks of all the dimensions at once, with the dimension included in the output");
+        CommandUtils.sendMessage(source, "- nearest: Finds the <count> nearest matches, by scanning outward from your position and stopping once nothing closer can exist");
+        CommandUtils.sendMessage(source, "- saved-regions: Reads all the saved chunks directly from the region files, without loading them. Unsaved changes are not included.");
 
         return 1;
     }
@@ -57,10 +65,14 @@ public class SubCommandLocate
         ArgumentCommandNode<CommandSourceStack, DataDump.Format> argOutputFormat = Commands.argument("output_format", OutputFormatArgument.create()).build();
 
         LiteralCommandNode<CommandSourceStack> argAreaTypeAllLoaded = Commands.literal("all-loaded-chunks").build();
+        LiteralCommandNode<CommandSourceStack> argAreaTypeAllDimensions = Commands.literal("all-dimensions").build();
         LiteralCommandNode<CommandSourceStack> argAreaTypeBox = Commands.literal("box").build();
         LiteralCommandNode<CommandSourceStack> argAreaTypeChunkRadius = Commands.literal("chunk-radius").build();
+        LiteralCommandNode<CommandSourceStack> argAreaTypeNearest = Commands.literal("nearest").build();
 
         ArgumentCommandNode<CommandSourceStack, Integer> argChunkRadius = Commands.argument("chunk_radius", IntegerArgumentType.integer(1, 64)).build();
+        ArgumentCommandNode<CommandSourceStack, Integer> argNearestCount = Commands.argument("count", IntegerArgumentType.integer(1, 100000)).build();
+        ArgumentCommandNode<CommandSourceStack, Integer> argNearestRadius = Commands.argument("max_chunk_radius", IntegerArgumentType.integer(0, 64)).build();
 
         ArgumentCommandNode<CommandSourceStack, Coordinates> argAreaCorner1 = Commands.argument("start_corner", Vec3Argument.vec3()).build();
         ArgumentCommandNode<CommandSourceStack, Coordinates> argAreaCorner2 = Commands.argument("end_corner", Vec3Argument.vec3()).build();
@@ -69,6 +81,10 @@ public class SubCommandLocate
                 StringCollectionArgument.create(() -> type.getRegistrySupplier().get().getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
                 .executes(ctx -> locate(type, AreaType.ALL_LOADED, ctx)).build();
 
+        ArgumentCommandNode<CommandSourceStack, List<String>> argNamesAllDimensions = Commands.argument(type.getPlural(),
+                StringCollectionArgument.create(() -> type.getRegistrySupplier().get().getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                .executes(ctx -> locate(type, AreaType.ALL_DIMENSIONS, ctx)).build();
+
         ArgumentCommandNode<CommandSourceStack, List<String>> argNamesBox = Commands.argument(type.getPlural(),
                 StringCollectionArgument.create(() -> type.getRegistrySupplier().get().getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
                 .executes(ctx -> locate(type, AreaType.BOX, ctx)).build();
@@ -77,13 +93,20 @@ public class SubCommandLocate
                 StringCollectionArgument.create(() -> type.getRegistrySupplier().get().getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
                 .executes(ctx -> locate(type, AreaType.CHUNK_RADIUS, ctx)).build();
 
+        ArgumentCommandNode<CommandSourceStack, List<String>> argNamesNearest = Commands.argument(type.getPlural(),
+                StringCollectionArgument.create(() -> type.getRegistrySupplier().get().getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                .executes(ctx -> locate(type, AreaType.NEAREST, ctx)).build();
+
         argTarget.addChild(argOutputType);
         argOutputType.addChild(argOutputFormat);
         argOutputFormat.addChild(argAreaTypeAllLoaded);
+        argOutputFormat.addChild(argAreaTypeAllDimensions);
         argOutputFormat.addChild(argAreaTypeBox);
         argOutputFormat.addChild(argAreaTypeChunkRadius);
+        argOutputFormat.addChild(argAreaTypeNearest);
 
         argAreaTypeAllLoaded.addChild(argNamesAllLoaded);
+        argAreaTypeAllDimensions.addChild(argNamesAllDimensions);
 
         argAreaTypeBox.addChild(argAreaCorner1);
         argAreaCorner1.addChild(argAreaCorner2);
@@ -92,6 +115,23 @@ public class SubCommandLocate
         argAreaTypeChunkRadius.addChild(argChunkRadius);
         argChunkRadius.addChild(argNamesChunkRadius);
 
+        argAreaTypeNearest.addChild(argNearestCount);
+        argNearestCount.addChild(argNearestRadius);
+        argNearestRadius.addChild(argNamesNearest);
+
+        // Only the block state data is decoded from the region files
+        if (type == LocateType.BLOCK)
+        {
+            LiteralCommandNode<CommandSourceStack> argAreaTypeSavedRegions = Commands.literal("saved-regions").build();
+
+            ArgumentCommandNode<CommandSourceStack, List<String>> argNamesSavedRegions = Commands.argument(type.getPlural(),
+                    StringCollectionArgument.create(() -> type.getRegistrySupplier().get().getKeys().stream().map(ResourceLocation::toString).collect(Collectors.toList()), ""))
+                    .executes(ctx -> locate(type, AreaType.SAVED_REGIONS, ctx)).build();
+
+            argOutputFormat.addChild(argAreaTypeSavedRegions);
+            argAreaTypeSavedRegions.addChild(argNamesSavedRegions);
+        }
+
         return argTarget;
     }
 
@@ -102,14 +142,22 @@ public class SubCommandLocate
         @SuppressWarnings("unchecked")
         List<String> filters = ctx.getArgument(locateType.getPlural(), List.class);
         CommandSourceStack source = ctx.getSource();
-        Level world = CommandUtils.getWorldFromCommandSource(source);
+        // The all-dimensions search doesn't need a world, so that it can also be run from the console
+        Level world = areaType != AreaType.ALL_DIMENSIONS ? CommandUtils.getWorldFromCommandSource(source) : null;
 
         LocateBase locate = locateType.createChunkProcessor(outputFormat, filters);
+        locate.setProgressListener((msg) -> CommandUtils.sendMessage(source, msg));
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
 
         switch (areaType)
         {
             case ALL_LOADED:
-                locate.processChunks(TellMe.dataProvider.getLoadedChunks(world), world);
+                future = locate.processChunksAsync(TellMe.dataProvider.getLoadedChunks(world), world);
+                break;
+
+            case ALL_DIMENSIONS:
+                locate.setPrintDimension(true);
+                future = locate.processChunksAcrossWorldsAsync(TellMe.dataProvider.getLoadedChunksInAllWorlds(source.getServer()));
                 break;
 
             case BOX:
@@ -118,7 +166,7 @@ public class SubCommandLocate
                 Vec3 vecEnd = CommandUtils.getVec3dFromArg(ctx, "end_corner");
                 BlockPos minPos = CommandUtils.getMinCorner(vecStart, vecEnd);
                 BlockPos maxPos = CommandUtils.getMaxCorner(vecStart, vecEnd);
-                locate.processChunks(world, minPos, maxPos);
+                future = locate.processChunksAsync(world, minPos, maxPos);
                 break;
             }
 
@@ -131,21 +179,59 @@ public class SubCommandLocate
                 int maxY = world.getMaxBuildHeight() - 1;
                 BlockPos minPos = new BlockPos(center.getX() - blockRadius, minY, center.getZ() - blockRadius);
                 BlockPos maxPos = new BlockPos(center.getX() + blockRadius, maxY, center.getZ() + blockRadius);
-                locate.processChunks(world, minPos, maxPos);
+                future = locate.processChunksAsync(world, minPos, maxPos);
+                break;
+            }
+
+            case NEAREST:
+            {
+                int count = IntegerArgumentType.getInteger(ctx, "count");
+                int chunkRadius = IntegerArgumentType.getInteger(ctx, "max_chunk_radius");
+                future = locate.locateNearestAsync(world, source.getPosition(), chunkRadius, count);
+                break;
+            }
+
+            case SAVED_REGIONS:
+            {
+                if ((world instanceof ServerLevel) == false)
+                {
+                    CommandUtils.throwException("The saved regions can only be read on the server");
+                }
+
+                future = locate.processSavedChunksAsync((ServerLevel) world, LocateBase.getWorldMinPos(world), LocateBase.getWorldMaxPos(world))
+                               .thenRun(() -> CommandUtils.sendSkippedSavedChunksMessage(source, locate.getSkippedSavedChunkCount()));
                 break;
             }
         }
 
-        OutputUtils.printOutput(locate.getLines(), outputType, outputFormat, "locate_" + locateType.getArgument(), source);
+        future.whenComplete((v, e) -> {
+            if (e != null)
+            {
+                CommandUtils.sendMessage(source, "Locating failed: " + e.getMessage());
+            }
+            else if (locate.hasSpilledResults())
+            {
+                OutputUtils.printStreamedOutput(locate.createDump(), locate::forEachRow, outputType, source, "locate_" + locateType.getArgument());
+            }
+            else
+            {
+                OutputUtils.printOutput(locate.getLines(), outputType, outputFormat, "locate_" + locateType.getArgument(), source);
+            }
+
+            locate.clearResults();
+        });
 
         return 1;
     }
 
     public enum AreaType
     {
-        ALL_LOADED   ("all-loaded"),
-        BOX          ("box"),
-        CHUNK_RADIUS ("chunk-radius");
+        ALL_LOADED    ("all-loaded"),
+        ALL_DIMENSIONS("all-dimensions"),
+        BOX           ("box"),
+        CHUNK_RADIUS  ("chunk-radius"),
+        NEAREST       ("nearest"),
+        SAVED_REGIONS ("saved-regions");
 
         private final String argument;
 
@@ -1,13 +1,14 @@
 package fi.dy.masa.tellme.command.argument;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import com.google.common.collect.ImmutableList;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.arguments.ArgumentType;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import com.mojang.brigadier.suggestion.Suggestions;
 import com.mojang.brigadier.suggestion.SuggestionsBuilder;
@@ -17,11 +18,23 @@ import fi.dy.masa.tellme.command.CommandUtils;
 public class BlockStateCountGroupingArgument implements ArgumentType<CommandUtils.BlockStateGrouping>
 {
     private static final SimpleCommandExceptionType EMPTY_TYPE = new SimpleCommandExceptionType(new TextComponent("No output format given"));
-    private static final ImmutableList<String> SUGGESTIONS = ImmutableList.copyOf(Stream.of(CommandUtils.BlockStateGrouping.values()).map(CommandUtils.BlockStateGrouping::getArgument).collect(Collectors.toList()));
+    private static final DynamicCommandExceptionType INVALID_TYPE = new DynamicCommandExceptionType((type) -> new TextComponent("Invalid grouping: '" + type + "'"));
 
+    private final ImmutableList<CommandUtils.BlockStateGrouping> values;
+    private final ImmutableList<String> suggestions;
+
+    protected BlockStateCountGroupingArgument(List<CommandUtils.BlockStateGrouping> values)
+    {
+        this.values = ImmutableList.copyOf(values);
+        this.suggestions = ImmutableList.copyOf(values.stream().map(CommandUtils.BlockStateGrouping::getArgument).collect(Collectors.toList()));
+    }
+
+    /**
+     * @return an argument for the by-block and by-state groupings
+     */
     public static BlockStateCountGroupingArgument create()
     {
-        return new BlockStateCountGroupingArgument();
+        return new BlockStateCountGroupingArgument(ImmutableList.of(CommandUtils.BlockStateGrouping.BY_BLOCK, CommandUtils.BlockStateGrouping.BY_STATE));
     }
 
     @Override
@@ -41,12 +54,19 @@ public class BlockStateCountGroupingArgument implements ArgumentType<CommandUtil
             throw EMPTY_TYPE.create();
         }
 
-        return CommandUtils.BlockStateGrouping.fromArg(type);
+        CommandUtils.BlockStateGrouping grouping = CommandUtils.BlockStateGrouping.fromArg(type);
+
+        if (grouping == null || this.values.contains(grouping) == false)
+        {
+            throw INVALID_TYPE.create(type);
+        }
+
+        return grouping;
     }
 
     @Override
     public <S> CompletableFuture<Suggestions> listSuggestions(CommandContext<S> context, SuggestionsBuilder builder)
     {
-        return CommandUtils.suggestIterable(SUGGESTIONS, builder);
+        return CommandUtils.suggestIterable(this.suggestions, builder);
     }
 }
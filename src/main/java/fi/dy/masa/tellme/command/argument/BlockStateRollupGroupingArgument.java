@@ -0,0 +1,20 @@
+package fi.dy.masa.tellme.command.argument;
+
+import java.util.Arrays;
+import fi.dy.masa.tellme.command.CommandUtils;
+
+/**
+ * The block stats grouping, including the per-mod and per-tag rollups of the counts
+ */
+public class BlockStateRollupGroupingArgument extends BlockStateCountGroupingArgument
+{
+    private BlockStateRollupGroupingArgument()
+    {
+        super(Arrays.asList(CommandUtils.BlockStateGrouping.values()));
+    }
+
+    public static BlockStateRollupGroupingArgument create()
+    {
+        return new BlockStateRollupGroupingArgument();
+    }
+}
@@ -0,0 +1,39 @@
+package fi.dy.masa.tellme.command.argument;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import net.minecraft.world.level.levelgen.Heightmap;
+
+public class HeightmapTypeArgument extends EnumArgument<Heightmap.Types>
+{
+    private HeightmapTypeArgument()
+    {
+        // Only these heightmaps are kept up to date in the loaded chunks
+        super(Arrays.stream(Heightmap.Types.values()).filter(Heightmap.Types::keepAfterWorldgen).collect(Collectors.toList()),
+              HeightmapTypeArgument::fromArgument, HeightmapTypeArgument::getArgument);
+    }
+
+    public static HeightmapTypeArgument create()
+    {
+        return new HeightmapTypeArgument();
+    }
+
+    public static String getArgument(Heightmap.Types type)
+    {
+        return type.getSerializationKey().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    public static Heightmap.Types fromArgument(String argument)
+    {
+        for (Heightmap.Types type : Heightmap.Types.values())
+        {
+            if (type.keepAfterWorldgen() && getArgument(type).equalsIgnoreCase(argument))
+            {
+                return type;
+            }
+        }
+
+        return Heightmap.Types.WORLD_SURFACE;
+    }
+}
@@ -35,8 +35,19 @@ public class Configs
 
     public static class Generic
     {
+        public static boolean enableBlockCountCache;
+        public static boolean enableBlockPositionIndex;
+        public static boolean enableBlockStateSummaries;
+        public static boolean enableChunkBlockStateSummaries;
         public static boolean enableDebugItemForBlocksAndEntities;
         public static boolean enableDebugItemForItems;
+        public static boolean enableParallelScanning;
+        public static int scanThreadCount;
+        public static int scanTickBudgetMs;
+        public static int scanChunkWindowSize;
+        public static int locateResultMemoryLimit;
+        public static int approximateCountTopSize;
+        public static int sectionCacheMaxChunks;
 
         private static String debugItemNameBlocks;
         private static String debugItemNameItems;
@@ -71,6 +82,70 @@ public class Configs
         COMMON_BUILDER.comment(" The debug item to right click with to dump item NBT from the item to the right of it on the hotbar")
                       .define("debugItemNameItems", "minecraft:blaze_rod");
 
+        COMMON_BUILDER.comment(" If enabled, then the block counts of fully counted chunk sections are cached,\n" +
+                               " and repeated block-stats counts only recount the sections that have changed.\n" +
+                               " Each section is still hashed on every count to detect the changes, so this\n" +
+                               " only saves the counting itself. The cache is saved in config/tellme/block_count_cache/.")
+                      .define("enableBlockCountCache", false);
+
+        COMMON_BUILDER.comment(" If enabled, then the locate block command builds an index of the positions\n" +
+                               " of each block state in the scanned chunk sections, and answers repeated\n" +
+                               " queries from it, only re-indexing the sections that have changed.\n" +
+                               " Each section is hashed before its index is used, to detect all the changes,\n" +
+                               " including the ones that don't fire block events.\n" +
+                               " The index is saved in config/tellme/block_position_index/.")
+                      .define("enableBlockPositionIndex", false);
+
+        COMMON_BUILDER.comment(" The maximum number of chunks per dimension that the block count cache\n" +
+                               " and the block position index each keep. The least recently used chunks\n" +
+                               " are dropped first, and the saved cache files are also limited to these.")
+                      .defineInRange("sectionCacheMaxChunks", 16384, 16, 1000000);
+
+        COMMON_BUILDER.comment(" If enabled, then a small Bloom filter of the contained blocks is kept\n" +
+                               " for each region, filled from the chunks that the scans process.\n" +
+                               " The locate block command then skips the chunks that can't contain\n" +
+                               " any of the searched blocks, without loading them. Blocks placed\n" +
+                               " without the block update flag (by some mods or by external world\n" +
+                               " editors) are not tracked, so delete the files in\n" +
+                               " config/tellme/block_state_summaries/ after using those.")
+                      .define("enableBlockStateSummaries", false);
+
+        COMMON_BUILDER.comment(" If enabled, then the block state summaries also keep a filter for\n" +
+                               " each chunk, which skips more chunks but uses 128 kB per region.\n" +
+                               " This only applies to the regions summarized after enabling this.")
+                      .define("enableChunkBlockStateSummaries", false);
+
+        COMMON_BUILDER.comment(" If enabled, then the block-stats count and locate block commands take a copy\n" +
+                               " of the chunk data on the server thread, and then process it on worker threads.\n" +
+                               " The commands then return immediately and report the results when the scan finishes.")
+                      .define("enableParallelScanning", false);
+
+        COMMON_BUILDER.comment(" The number of worker threads to use for the parallel scanning.\n" +
+                               " 0 = use the number of available processors minus one.")
+                      .defineInRange("scanThreadCount", 0, 0, 256);
+
+        COMMON_BUILDER.comment(" The maximum time in milliseconds per server tick to spend on\n" +
+                               " chunk scans (block-stats count, locate, loaded entities etc.).\n" +
+                               " Larger scans are spread over multiple ticks, and their results\n" +
+                               " are reported once they finish. 0 = process everything at once.")
+                      .defineInRange("scanTickBudgetMs", 5, 0, 1000);
+
+        COMMON_BUILDER.comment(" The maximum number of chunks that an area scan keeps loaded at once.\n" +
+                               " The chunks are loaded in the background, and each chunk is allowed\n" +
+                               " to unload again after it has been processed.")
+                      .defineInRange("scanChunkWindowSize", 256, 1, 16384);
+
+        COMMON_BUILDER.comment(" The number of locate results to keep in memory, before the rest\n" +
+                               " are written to a temporary spill file. Results that have been spilled\n" +
+                               " are written to the output file unsorted, directly from the spill file.")
+                      .defineInRange("locateResultMemoryLimit", 100000, 1000, 100000000);
+
+        COMMON_BUILDER.comment(" The number of the most common block states that the block-stats\n" +
+                               " count-approximate command tracks with error bounds. The memory use\n" +
+                               " of the approximate counts is fixed by this, instead of growing\n" +
+                               " with the number of different block states found.")
+                      .defineInRange("approximateCountTopSize", 1024, 16, 65536);
+
         COMMON_BUILDER.pop();
     }
 
@@ -98,6 +173,10 @@ public class Configs
                 {
                     field.set(null, spec.getValues().<ForgeConfigSpec.BooleanValue>get(category + "." + name).get().booleanValue());
                 }
+                else if (type == int.class)
+                {
+                    field.set(null, spec.getValues().<ForgeConfigSpec.IntValue>get(category + "." + name).get().intValue());
+                }
                 else if (type == double.class)
                 {
                     field.set(null, spec.getValues().<ForgeConfigSpec.DoubleValue>get(category + "." + name).get().doubleValue());
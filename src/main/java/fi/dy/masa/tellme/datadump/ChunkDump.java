@@ -1,14 +1,13 @@
 package fi.dy.masa.tellme.datadump;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import javax.annotation.Nullable;
+import org.apache.commons.lang3.mutable.MutableInt;
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.chunk.LevelChunk;
 import fi.dy.masa.tellme.TellMe;
 import fi.dy.masa.tellme.util.WorldUtils;
 import fi.dy.masa.tellme.util.datadump.DataDump;
@@ -40,41 +39,31 @@ public class ChunkDump
                 }
             }
 
-            final int minCX = minPos != null ? minPos.getX() >> 4 : Integer.MIN_VALUE;
-            final int minCZ = minPos != null ? minPos.getZ() >> 4 : Integer.MIN_VALUE;
-            final int maxCX = maxPos != null ? maxPos.getX() >> 4 : Integer.MAX_VALUE;
-            final int maxCZ = maxPos != null ? maxPos.getZ() >> 4 : Integer.MAX_VALUE;
-            int chunkCount = 0;
+            ChunkPos minChunk = minPos != null && maxPos != null ? new ChunkPos(minPos.getX() >> 4, minPos.getZ() >> 4) : null;
+            ChunkPos maxChunk = minPos != null && maxPos != null ? new ChunkPos(maxPos.getX() >> 4, maxPos.getZ() >> 4) : null;
+            MutableInt chunkCount = new MutableInt();
 
             for (Level world : worlds)
             {
                 if (world != null)
                 {
                     String dimId = WorldUtils.getDimensionId(world);
-                    Collection<LevelChunk> chunks = TellMe.dataProvider.getLoadedChunks(world);
 
-                    for (LevelChunk chunk : chunks)
-                    {
+                    TellMe.dataProvider.visitLoadedChunks(world, minChunk, maxChunk, (chunk) -> {
                         ChunkPos cp = chunk.getPos();
-
-                        if (cp.x < minCX || cp.x > maxCX || cp.z < minCZ || cp.z > maxCZ)
-                        {
-                            continue;
-                        }
-
-                        ++chunkCount;
                         int count = WorldUtils.getEntityCountInChunk(world, cp.x, cp.z);
                         String entityCount = String.valueOf(count);
+                        chunkCount.increment();
 
                         chunkDump.addData(  dimId,
                                             String.format("%4d, %4d", cp.x, cp.z),
                                             String.format("%5d, %5d", cp.x << 4, cp.z << 4),
                                             entityCount);
-                    }
+                    });
                 }
             }
 
-            chunkDump.addFooter("Total loaded chunks in the requested area: " + chunkCount);
+            chunkDump.addFooter("Total loaded chunks in the requested area: " + chunkCount.intValue());
         }
 
         chunkDump.addTitle("Dim ID", "Chunk", "Block pos", "Entities");
@@ -1,10 +1,14 @@
 package fi.dy.masa.tellme.datadump;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import com.google.gson.JsonObject;
 import com.mojang.brigadier.Command;
@@ -18,6 +22,7 @@ import net.minecraft.server.level.ChunkMap;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.Item;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.biome.Biome;
 import net.minecraft.world.level.chunk.LevelChunk;
@@ -25,10 +30,12 @@ import net.minecraftforge.fml.util.ObfuscationReflectionHelper;
 import fi.dy.masa.tellme.TellMe;
 import fi.dy.masa.tellme.util.datadump.DataDump;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 
 public class DataProviderBase
 {
-    private static final Field field_ChunkManager_immutableLoadedChunks = ObfuscationReflectionHelper.findField(ChunkMap.class, "f_140130_");
+    @Nullable private static final MethodHandle handle_ChunkMap_visibleChunkMap = createVisibleChunkMapGetter();
 
     @Nullable
     public Collection<Advancement> getAdvancements(@Nullable MinecraftServer server)
@@ -40,36 +47,105 @@ public class DataProviderBase
     {
     }
 
+    /**
+     * @return the loaded chunks of all the dimensions on the server
+     */
+    public List<LevelChunk> getLoadedChunksInAllWorlds(MinecraftServer server)
+    {
+        List<LevelChunk> chunks = new ArrayList<>();
+
+        for (ServerLevel world : server.getAllLevels())
+        {
+            this.visitLoadedChunks(world, null, null, chunks::add);
+        }
+
+        return chunks;
+    }
+
     public Collection<LevelChunk> getLoadedChunks(Level world)
     {
-        if (world instanceof ServerLevel)
+        ArrayList<LevelChunk> chunks = new ArrayList<>(this.getLoadedChunkCountEstimate(world));
+        this.visitLoadedChunks(world, null, null, chunks::add);
+        return chunks;
+    }
+
+    /**
+     * Passes each loaded chunk of the given world to the given consumer, without collecting them into a list.
+     * If the bounds are given, then only the chunks within the (inclusive) chunk coordinate range are visited,
+     * and the chunks outside of it are skipped before their holders are resolved.
+     */
+    public void visitLoadedChunks(Level world, @Nullable ChunkPos minChunk, @Nullable ChunkPos maxChunk, Consumer<LevelChunk> consumer)
+    {
+        Long2ObjectLinkedOpenHashMap<ChunkHolder> holders = getVisibleChunkMap(world);
+
+        if (holders == null)
         {
-            ArrayList<LevelChunk> chunks = new ArrayList<>();
+            return;
+        }
 
-            try
+        final boolean bounded = minChunk != null && maxChunk != null;
+
+        for (Long2ObjectMap.Entry<ChunkHolder> entry : Long2ObjectMaps.fastIterable(holders))
+        {
+            if (bounded)
             {
-                @SuppressWarnings("unchecked")
-                Long2ObjectLinkedOpenHashMap<ChunkHolder> immutableLoadedChunks = (Long2ObjectLinkedOpenHashMap<ChunkHolder>) field_ChunkManager_immutableLoadedChunks.get(((ServerLevel) world).getChunkSource().chunkMap);
+                final long key = entry.getLongKey();
+                final int chunkX = ChunkPos.getX(key);
+                final int chunkZ = ChunkPos.getZ(key);
 
-                for (ChunkHolder holder : immutableLoadedChunks.values())
+                if (chunkX < minChunk.x || chunkX > maxChunk.x || chunkZ < minChunk.z || chunkZ > maxChunk.z)
                 {
-                    Optional<LevelChunk> optional = holder.getFullChunkFuture().getNow(ChunkHolder.UNLOADED_LEVEL_CHUNK).left();
-
-                    if (optional.isPresent())
-                    {
-                        chunks.add(optional.get());
-                    }
+                    continue;
                 }
             }
-            catch (Exception e)
+
+            Optional<LevelChunk> optional = entry.getValue().getFullChunkFuture().getNow(ChunkHolder.UNLOADED_LEVEL_CHUNK).left();
+
+            if (optional.isPresent())
             {
-                TellMe.logger.warn("Failed to get the loaded chunks", e);
+                consumer.accept(optional.get());
             }
+        }
+    }
 
-            return chunks;
+    protected int getLoadedChunkCountEstimate(Level world)
+    {
+        Long2ObjectLinkedOpenHashMap<ChunkHolder> holders = getVisibleChunkMap(world);
+        return holders != null ? holders.size() : 0;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static Long2ObjectLinkedOpenHashMap<ChunkHolder> getVisibleChunkMap(Level world)
+    {
+        if (handle_ChunkMap_visibleChunkMap != null && world instanceof ServerLevel)
+        {
+            try
+            {
+                return (Long2ObjectLinkedOpenHashMap<ChunkHolder>) handle_ChunkMap_visibleChunkMap.invokeExact(((ServerLevel) world).getChunkSource().chunkMap);
+            }
+            catch (Throwable e)
+            {
+                TellMe.logger.warn("Failed to get the loaded chunks", e);
+            }
         }
 
-        return Collections.emptyList();
+        return null;
+    }
+
+    @Nullable
+    private static MethodHandle createVisibleChunkMapGetter()
+    {
+        try
+        {
+            Field field = ObfuscationReflectionHelper.findField(ChunkMap.class, "f_140130_");
+            return MethodHandles.lookup().unreflectGetter(field).asType(MethodType.methodType(Long2ObjectLinkedOpenHashMap.class, ChunkMap.class));
+        }
+        catch (Exception e)
+        {
+            TellMe.logger.warn("Failed to create the loaded chunks accessor", e);
+            return null;
+        }
     }
 
     public void addCommandDumpData(DataDump dump, @Nullable MinecraftServer server)
@@ -1,9 +1,8 @@
 package fi.dy.masa.tellme.datadump;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
@@ -36,11 +35,12 @@ public class DataProviderClient extends DataProviderBase
     //private static final Field field_ChunkArray_chunks = ObfuscationReflectionHelper.findField(ClientChunkProvider.ChunkArray.class, "chunks");
 
     @Override
-    public Collection<LevelChunk> getLoadedChunks(Level world)
+    public void visitLoadedChunks(Level world, @Nullable ChunkPos minChunk, @Nullable ChunkPos maxChunk, Consumer<LevelChunk> consumer)
     {
         if (world.isClientSide == false)
         {
-            return super.getLoadedChunks(world);
+            super.visitLoadedChunks(world, minChunk, maxChunk, consumer);
+            return;
         }
 
         Minecraft mc = Minecraft.getInstance();
@@ -50,18 +50,29 @@ public class DataProviderClient extends DataProviderBase
             ClientChunkCache provider = ((ClientLevel) world).getChunkSource();
             Vec3 vec = mc.player.position();
             ChunkPos center = new ChunkPos(((int) Math.floor(vec.x)) >> 4, ((int) Math.floor(vec.z)) >> 4);
-            ArrayList<LevelChunk> list = new ArrayList<>();
             final int renderDistance = mc.options.renderDistance;
+            int minX = center.x - renderDistance;
+            int minZ = center.z - renderDistance;
+            int maxX = center.x + renderDistance;
+            int maxZ = center.z + renderDistance;
 
-            for (int chunkZ = center.z - renderDistance; chunkZ <= center.z + renderDistance; ++chunkZ)
+            if (minChunk != null && maxChunk != null)
             {
-                for (int chunkX = center.x - renderDistance; chunkX <= center.x + renderDistance; ++chunkX)
+                minX = Math.max(minX, minChunk.x);
+                minZ = Math.max(minZ, minChunk.z);
+                maxX = Math.min(maxX, maxChunk.x);
+                maxZ = Math.min(maxZ, maxChunk.z);
+            }
+
+            for (int chunkZ = minZ; chunkZ <= maxZ; ++chunkZ)
+            {
+                for (int chunkX = minX; chunkX <= maxX; ++chunkX)
                 {
                     LevelChunk chunk = provider.getChunk(chunkX, chunkZ, ChunkStatus.FULL, false);
 
                     if (chunk != null)
                     {
-                        list.add(chunk);
+                        consumer.accept(chunk);
                     }
                 }
             }
@@ -76,7 +87,7 @@ public class DataProviderClient extends DataProviderBase
 
                 for (int i = 0; i < size; ++i)
                 {
-                    list.add(chunks.get(i));
+                    consumer.accept(chunks.get(i));
                 }
             }
             catch (Exception e)
@@ -84,11 +95,19 @@ public class DataProviderClient extends DataProviderBase
                 TellMe.logger.warn("Failed to get the loaded chunks on the client", e);
             }
             */
+        }
+    }
 
-            return list;
+    @Override
+    protected int getLoadedChunkCountEstimate(Level world)
+    {
+        if (world.isClientSide)
+        {
+            final int diameter = Minecraft.getInstance().options.renderDistance * 2 + 1;
+            return diameter * diameter;
         }
 
-        return Collections.emptyList();
+        return super.getLoadedChunkCountEstimate(world);
     }
 
     @Override
@@ -0,0 +1,78 @@
+package fi.dy.masa.tellme.event;
+
+import net.minecraft.core.BlockPos;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ExplosionEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import fi.dy.masa.tellme.util.chunkprocessor.BlockCountCache;
+import fi.dy.masa.tellme.util.chunkprocessor.BlockPositionIndex;
+import fi.dy.masa.tellme.util.chunkprocessor.BlockStateSummaries;
+
+public class BlockChangeEventHandler
+{
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onNeighborNotify(BlockEvent.NeighborNotifyEvent event)
+    {
+        BlockCountCache.INSTANCE.onBlockChanged(event.getWorld(), event.getPos());
+        BlockPositionIndex.INSTANCE.onBlockChanged(event.getWorld(), event.getPos());
+        BlockStateSummaries.INSTANCE.onBlockPlaced(event.getWorld(), event.getPos(), event.getState());
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onBlockBreak(BlockEvent.BreakEvent event)
+    {
+        BlockCountCache.INSTANCE.onBlockChanged(event.getWorld(), event.getPos());
+        BlockPositionIndex.INSTANCE.onBlockChanged(event.getWorld(), event.getPos());
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onBlockPlace(BlockEvent.EntityPlaceEvent event)
+    {
+        BlockCountCache.INSTANCE.onBlockChanged(event.getWorld(), event.getPos());
+        BlockPositionIndex.INSTANCE.onBlockChanged(event.getWorld(), event.getPos());
+        BlockStateSummaries.INSTANCE.onBlockPlaced(event.getWorld(), event.getPos(), event.getPlacedBlock());
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onFluidPlaceBlock(BlockEvent.FluidPlaceBlockEvent event)
+    {
+        BlockCountCache.INSTANCE.onBlockChanged(event.getWorld(), event.getPos());
+        BlockPositionIndex.INSTANCE.onBlockChanged(event.getWorld(), event.getPos());
+        BlockStateSummaries.INSTANCE.onBlockPlaced(event.getWorld(), event.getPos(), event.getNewState());
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onExplosion(ExplosionEvent.Detonate event)
+    {
+        for (BlockPos pos : event.getAffectedBlocks())
+        {
+            BlockCountCache.INSTANCE.onBlockChanged(event.getWorld(), pos);
+            BlockPositionIndex.INSTANCE.onBlockChanged(event.getWorld(), pos);
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldLoad(WorldEvent.Load event)
+    {
+        BlockStateSummaries.INSTANCE.onWorldLoad(event.getWorld());
+    }
+
+    @SubscribeEvent
+    public void onWorldSave(WorldEvent.Save event)
+    {
+        BlockCountCache.INSTANCE.onWorldSave(event.getWorld());
+        BlockPositionIndex.INSTANCE.onWorldSave(event.getWorld());
+        BlockStateSummaries.INSTANCE.onWorldSave(event.getWorld());
+    }
+
+    @SubscribeEvent
+    public void onServerStopped(ServerStoppedEvent event)
+    {
+        BlockCountCache.INSTANCE.onServerStopped();
+        BlockPositionIndex.INSTANCE.onServerStopped();
+        BlockStateSummaries.INSTANCE.onServerStopped();
+    }
+}
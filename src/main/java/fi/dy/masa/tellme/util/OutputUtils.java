@@ -108,19 +108,55 @@ public class OutputUtils
 
             case FILE:
                 File file = DataDump.dumpDataToFile(fileNameBase, fileNameExtension, lines);
+                sendFileWrittenMessage(file, player, source);
+                break;
+        }
+    }
+
+    /**
+     * Prints the given dump, with the data rows generated by the given source instead of being stored in the dump.
+     * This is meant for outputs that are too large to be held in memory, so printing to chat is not supported.
+     */
+    public static void printStreamedOutput(DataDump dump, DataDump.IRowSource rowSource, OutputType outputType,
+            CommandSourceStack source, String fileNameBase)
+    {
+        @Nullable Player player = source.getEntity() instanceof Player ? (Player) source.getEntity() : null;
 
-                if (file != null)
+        switch (outputType)
+        {
+            case CHAT:
+                source.sendFailure(new TextComponent("The output is too large to be printed to chat, use to-file instead"));
+                break;
+
+            case CONSOLE:
+                dump.printStreamedDataToLogger(rowSource);
+
+                if (player != null)
                 {
-                    if (player != null)
-                    {
-                        OutputUtils.sendClickableLinkMessage(player, "Output written to file %s", file);
-                    }
-                    else
-                    {
-                        source.sendSuccess(new TextComponent("Output written to file '" + file.getName() + "'"), false);
-                    }
+                    player.displayClientMessage(new TextComponent("Output printed to console"), false);
                 }
                 break;
+
+            case FILE:
+                String fileNameExtension = dump.getFormat() == DataDump.Format.CSV ? ".csv" : ".txt";
+                File file = dump.dumpStreamedDataToFile(fileNameBase, fileNameExtension, rowSource);
+                sendFileWrittenMessage(file, player, source);
+                break;
+        }
+    }
+
+    public static void sendFileWrittenMessage(@Nullable File file, @Nullable Player player, CommandSourceStack source)
+    {
+        if (file != null)
+        {
+            if (player != null)
+            {
+                OutputUtils.sendClickableLinkMessage(player, "Output written to file %s", file);
+            }
+            else
+            {
+                source.sendSuccess(new TextComponent("Output written to file '" + file.getName() + "'"), false);
+            }
         }
     }
 }
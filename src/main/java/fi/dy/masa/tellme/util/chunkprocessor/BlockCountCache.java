@@ -0,0 +1,121 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import javax.annotation.Nullable;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntArrayTag;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import fi.dy.masa.tellme.config.Configs;
+
+/**
+ * Caches the block state counts of chunk sections, so that repeated block-stats counts
+ * only need to recount the sections that have changed since the previous count.
+ * A section is detected as changed by a hash of its block state data, which is checked on every count.
+ * The cache is saved per world and dimension under config/tellme/block_count_cache/.
+ */
+public class BlockCountCache extends SectionDataCache<BlockCountCache.SectionCounts>
+{
+    public static final BlockCountCache INSTANCE = new BlockCountCache();
+
+    private BlockCountCache()
+    {
+        super("block_count_cache", "block counts", 1);
+    }
+
+    public static boolean isEnabled()
+    {
+        return Configs.Generic.enableBlockCountCache;
+    }
+
+    /**
+     * Returns the block state counts of the given (non-empty) section, recounting it only if needed.
+     * This must be called on the server thread.
+     */
+    public SectionCounts getSectionCounts(LevelChunk chunk, int sectionIndex, LevelChunkSection section)
+    {
+        return this.getSectionData(chunk, sectionIndex, section);
+    }
+
+    @Override
+    protected SectionCounts createSectionData(LevelChunkSection section, int version)
+    {
+        return SectionCounts.of(section, version);
+    }
+
+    @Override
+    protected void writeSectionData(SectionCounts counts, CompoundTag tag, StateTable stateTable)
+    {
+        tag.put("states", new IntArrayTag(stateTable.getIndices(counts.stateIds)));
+        tag.put("counts", new IntArrayTag(counts.counts));
+    }
+
+    @Override
+    @Nullable
+    protected SectionCounts readSectionData(CompoundTag tag, int version, int[] stateIds)
+    {
+        int[] stateIndices = tag.getIntArray("states");
+        int[] counts = tag.getIntArray("counts");
+
+        if (stateIndices.length != counts.length)
+        {
+            return null;
+        }
+
+        int[] sectionStates = new int[stateIndices.length];
+
+        for (int j = 0; j < stateIndices.length; ++j)
+        {
+            sectionStates[j] = stateIds[stateIndices[j]];
+        }
+
+        return new SectionCounts(version, sectionStates, counts);
+    }
+
+    public static class SectionCounts extends SectionDataCache.SectionData
+    {
+        private final int[] stateIds;
+        private final int[] counts;
+
+        private SectionCounts(int version, int[] stateIds, int[] counts)
+        {
+            super(version);
+
+            this.stateIds = stateIds;
+            this.counts = counts;
+        }
+
+        private static SectionCounts of(LevelChunkSection section, int version)
+        {
+            IntArrayList stateIds = new IntArrayList();
+            IntArrayList counts = new IntArrayList();
+
+            section.getStates().count((state, count) -> {
+                stateIds.add(Block.BLOCK_STATE_REGISTRY.getId(state));
+                counts.add(count);
+            });
+
+            return new SectionCounts(version, stateIds.toIntArray(), counts.toIntArray());
+        }
+
+        /**
+         * Adds the counts to the given array, indexed by the global state ID
+         * @param touchedStates if not null, the state IDs whose counts were zero before are added to this list
+         */
+        public void addTo(long[] countsOut, @Nullable IntArrayList touchedStates)
+        {
+            for (int i = 0; i < this.stateIds.length; ++i)
+            {
+                final int id = this.stateIds[i];
+
+                if (touchedStates != null && countsOut[id] == 0)
+                {
+                    touchedStates.add(id);
+                }
+
+                countsOut[id] += this.counts[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.imageio.ImageIO;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMaps;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import net.minecraft.world.level.ChunkPos;
+import fi.dy.masa.tellme.util.datadump.DataDump;
+
+/**
+ * Counts the blocks matching the given filters per grid cell of one or more chunks,
+ * and renders the counts into a PNG image, using a logarithmic colour scale.
+ * The image rows are rendered in parallel tiles on the scan worker threads.
+ */
+public class BlockDensityHeatmap extends FilteredBlockCounter<BlockDensityHeatmap.Cells>
+{
+    public static final int MAX_IMAGE_SIZE = 4096;
+    private static final int MAX_CELL_PIXELS = 8;
+    private static final int TILE_ROWS = 64;
+    private static final int COLOR_NOT_SCANNED = 0x00000000;
+    private static final int COLOR_EMPTY = 0xFF000000;
+    // A blue - cyan - green - yellow - red colour ramp
+    private static final int[] RAMP = new int[] { 0x000080, 0x0000FF, 0x00FFFF, 0x00FF00, 0xFFFF00, 0xFF0000 };
+
+    private final int cellSize;
+    private Cells results;
+
+    /**
+     * @param cellSize the width of the grid cells in chunks
+     */
+    public BlockDensityHeatmap(int cellSize, List<String> filterStrings) throws CommandSyntaxException
+    {
+        super(filterStrings);
+
+        this.cellSize = cellSize;
+        this.results = this.createWorker();
+    }
+
+    @Override
+    public Cells createWorker()
+    {
+        return new Cells(this.getTargetCount());
+    }
+
+    @Override
+    protected void onChunkCounted(Cells counts, ChunkPos chunkPos, Supplier<String> dimension)
+    {
+        // Also the empty chunks are added, so that they can be told apart from the chunks that weren't scanned
+        long key = ChunkPos.asLong(Math.floorDiv(chunkPos.x, this.cellSize), Math.floorDiv(chunkPos.z, this.cellSize));
+        counts.cellCounts.addTo(key, this.getTotal(counts));
+    }
+
+    @Override
+    public void mergeWorkers(Cells into, Cells from)
+    {
+        for (Long2LongMap.Entry entry : Long2LongMaps.fastIterable(from.cellCounts))
+        {
+            into.cellCounts.addTo(entry.getLongKey(), entry.getLongValue());
+        }
+    }
+
+    @Override
+    protected void onScanResults(Cells results)
+    {
+        this.results = results;
+    }
+
+    public int getCellCount()
+    {
+        return this.results.cellCounts.size();
+    }
+
+    public long getMaxCount()
+    {
+        long max = 0;
+
+        for (Long2LongMap.Entry entry : Long2LongMaps.fastIterable(this.results.cellCounts))
+        {
+            max = Math.max(max, entry.getLongValue());
+        }
+
+        return max;
+    }
+
+    /**
+     * Renders the results into a new PNG file in the dump output directory.
+     * The image rows are rendered in parallel on the given pool. This should not be called on the server thread.
+     * @return the written file, or null if the file couldn't be created
+     */
+    @Nullable
+    public File writeImage(ForkJoinPool pool) throws IOException
+    {
+        final Long2LongOpenHashMap cells = this.results.cellCounts;
+
+        if (cells.isEmpty())
+        {
+            throw new IOException("No chunks were scanned");
+        }
+
+        int minX = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+
+        for (Long2LongMap.Entry entry : Long2LongMaps.fastIterable(cells))
+        {
+            final long key = entry.getLongKey();
+            minX = Math.min(minX, ChunkPos.getX(key));
+            minZ = Math.min(minZ, ChunkPos.getZ(key));
+            maxX = Math.max(maxX, ChunkPos.getX(key));
+            maxZ = Math.max(maxZ, ChunkPos.getZ(key));
+        }
+
+        final int gridWidth = maxX - minX + 1;
+        final int gridHeight = maxZ - minZ + 1;
+
+        if (gridWidth > MAX_IMAGE_SIZE || gridHeight > MAX_IMAGE_SIZE)
+        {
+            throw new IOException(String.format("The area is too large for the image (%d x %d cells, max %d), use a larger cell size",
+                                                gridWidth, gridHeight, MAX_IMAGE_SIZE));
+        }
+
+        final int scale = Math.max(1, Math.min(MAX_CELL_PIXELS, MAX_IMAGE_SIZE / Math.max(gridWidth, gridHeight)));
+        final int width = gridWidth * scale;
+        final int height = gridHeight * scale;
+        final double logMax = Math.log1p(this.getMaxCount());
+        final int[] pixels = new int[width * height];
+        final int originX = minX;
+        final int originZ = minZ;
+        List<CompletableFuture<Void>> tiles = new ArrayList<>();
+
+        // The map is only read while rendering, so the tiles can share it
+        for (int tileStart = 0; tileStart < height; tileStart += TILE_ROWS)
+        {
+            final int startRow = tileStart;
+            final int endRow = Math.min(height, tileStart + TILE_ROWS);
+
+            tiles.add(CompletableFuture.runAsync(() -> {
+                for (int row = startRow; row < endRow; ++row)
+                {
+                    final int cellZ = originZ + row / scale;
+
+                    for (int col = 0; col < width; ++col)
+                    {
+                        long key = ChunkPos.asLong(originX + col / scale, cellZ);
+                        long count = cells.getOrDefault(key, -1L);
+                        pixels[row * width + col] = getColor(count, logMax);
+                    }
+                }
+            }, pool));
+        }
+
+        CompletableFuture.allOf(tiles.toArray(new CompletableFuture[0])).join();
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+
+        File file = DataDump.createOutputFile("block_heatmap", ".png");
+
+        if (file != null)
+        {
+            ImageIO.write(image, "png", file);
+        }
+
+        return file;
+    }
+
+    private static int getColor(long count, double logMax)
+    {
+        if (count < 0)
+        {
+            return COLOR_NOT_SCANNED;
+        }
+
+        if (count == 0 || logMax <= 0)
+        {
+            return COLOR_EMPTY;
+        }
+
+        double pos = Math.log1p(count) / logMax * (RAMP.length - 1);
+        int index = Math.min((int) pos, RAMP.length - 2);
+        double frac = pos - index;
+        int c1 = RAMP[index];
+        int c2 = RAMP[index + 1];
+        int r = (int) ((c1 >> 16 & 0xFF) + ((c2 >> 16 & 0xFF) - (c1 >> 16 & 0xFF)) * frac);
+        int g = (int) ((c1 >>  8 & 0xFF) + ((c2 >>  8 & 0xFF) - (c1 >>  8 & 0xFF)) * frac);
+        int b = (int) ((c1       & 0xFF) + ((c2       & 0xFF) - (c1       & 0xFF)) * frac);
+
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    public static class Cells extends FilteredBlockCounter.Counts
+    {
+        private final Long2LongOpenHashMap cellCounts = new Long2LongOpenHashMap();
+
+        private Cells(int targetCount)
+        {
+            super(targetCount);
+        }
+    }
+}
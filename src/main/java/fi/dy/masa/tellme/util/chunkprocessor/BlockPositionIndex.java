@@ -0,0 +1,367 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+import javax.annotation.Nullable;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.nbt.ByteArrayTag;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntArrayTag;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.config.Configs;
+
+/**
+ * Indexes the positions of each block state within chunk sections, so that repeated locate block queries
+ * can be answered from the index, without decoding the block data of the sections again.
+ * The positions of each state in a section are stored as a compact 4096-bit set (see {@link PositionSet}).
+ * The index of a section is only used if the hash of the section's current block state data matches
+ * the one it was built from, so changes that don't fire any block events are never missed.
+ * The index is saved per world and dimension under config/tellme/block_position_index/.
+ */
+public class BlockPositionIndex extends SectionDataCache<BlockPositionIndex.SectionPositions>
+{
+    public static final BlockPositionIndex INSTANCE = new BlockPositionIndex();
+
+    private final FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(8192));
+    private final int[] indexBuffer = new int[SectionDataDecoder.SECTION_SIZE];
+
+    private BlockPositionIndex()
+    {
+        super("block_position_index", "block positions", 1);
+    }
+
+    public static boolean isEnabled()
+    {
+        return Configs.Generic.enableBlockPositionIndex;
+    }
+
+    /**
+     * Returns the block state positions of the given (non-empty) section. The section is re-indexed
+     * if its block state data has changed since it was indexed, so the returned positions are always current.
+     * This must be called on the server thread.
+     */
+    public SectionPositions getSectionPositions(LevelChunk chunk, int sectionIndex, LevelChunkSection section)
+    {
+        return this.getSectionData(chunk, sectionIndex, section);
+    }
+
+    @Override
+    protected SectionPositions createSectionData(LevelChunkSection section, int version)
+    {
+        SectionSnapshot snapshot = SectionSnapshot.of(section, this.buf);
+
+        if (snapshot.isSingleValue())
+        {
+            return new SectionPositions(version, new int[] { snapshot.getPaletteEntry(0) }, new PositionSet[] { PositionSet.ALL });
+        }
+
+        snapshot.decode(this.indexBuffer);
+
+        // Collect a bitmap of the positions for each distinct palette index (or state ID, with the global palette)
+        Int2IntOpenHashMap localIndices = new Int2IntOpenHashMap();
+        List<long[]> bitmaps = new ArrayList<>();
+        IntArrayList stateIds = new IntArrayList();
+        localIndices.defaultReturnValue(-1);
+
+        for (int i = 0; i < SectionDataDecoder.SECTION_SIZE; ++i)
+        {
+            final int value = this.indexBuffer[i];
+            int local = localIndices.get(value);
+
+            if (local == -1)
+            {
+                local = bitmaps.size();
+                localIndices.put(value, local);
+                bitmaps.add(new long[SectionDataDecoder.SECTION_SIZE / 64]);
+                stateIds.add(snapshot.getPaletteEntry(value));
+            }
+
+            bitmaps.get(local)[i >> 6] |= 1L << (i & 63);
+        }
+
+        PositionSet[] sets = new PositionSet[bitmaps.size()];
+
+        for (int i = 0; i < sets.length; ++i)
+        {
+            sets[i] = PositionSet.of(bitmaps.get(i));
+        }
+
+        return new SectionPositions(version, stateIds.toIntArray(), sets);
+    }
+
+    @Override
+    protected void writeSectionData(SectionPositions positions, CompoundTag tag, StateTable stateTable)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes))
+        {
+            for (PositionSet set : positions.sets)
+            {
+                set.write(out);
+            }
+        }
+        catch (IOException e)
+        {
+            TellMe.logger.warn("Failed to serialize the block position index", e);
+            return;
+        }
+
+        tag.put("states", new IntArrayTag(stateTable.getIndices(positions.stateIds)));
+        tag.put("positions", new ByteArrayTag(bytes.toByteArray()));
+    }
+
+    @Override
+    @Nullable
+    protected SectionPositions readSectionData(CompoundTag tag, int version, int[] stateIds)
+    {
+        int[] stateIndices = tag.getIntArray("states");
+        PositionSet[] sets = new PositionSet[stateIndices.length];
+        int[] sectionStates = new int[stateIndices.length];
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(tag.getByteArray("positions"))))
+        {
+            for (int i = 0; i < stateIndices.length; ++i)
+            {
+                sectionStates[i] = stateIds[stateIndices[i]];
+                sets[i] = PositionSet.read(in);
+            }
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+
+        return new SectionPositions(version, sectionStates, sets);
+    }
+
+    public static class SectionPositions extends SectionDataCache.SectionData
+    {
+        private final int[] stateIds;
+        private final PositionSet[] sets;
+
+        private SectionPositions(int version, int[] stateIds, PositionSet[] sets)
+        {
+            super(version);
+
+            this.stateIds = stateIds;
+            this.sets = sets;
+        }
+
+        public int getStateCount()
+        {
+            return this.stateIds.length;
+        }
+
+        /**
+         * @return the global state ID of the given state entry
+         */
+        public int getStateId(int index)
+        {
+            return this.stateIds[index];
+        }
+
+        public PositionSet getPositions(int index)
+        {
+            return this.sets[index];
+        }
+    }
+
+    /**
+     * An immutable set of positions (0 - 4095) within one section, in the y << 8 | z << 4 | x format.
+     * Depending on which one is the smallest, the set is stored either as a sorted array of the positions,
+     * as a list of runs of consecutive positions, or as a plain 4096-bit bitmap.
+     */
+    public static class PositionSet
+    {
+        private static final byte TYPE_ARRAY = 0;
+        private static final byte TYPE_RUNS = 1;
+        private static final byte TYPE_BITMAP = 2;
+        private static final int BITMAP_BYTES = SectionDataDecoder.SECTION_SIZE / 8;
+        public static final PositionSet ALL = new PositionSet(TYPE_RUNS, new short[] { 0, (short) SectionDataDecoder.SECTION_SIZE }, null);
+
+        private final byte type;
+        @Nullable private final short[] values;
+        @Nullable private final long[] bitmap;
+
+        private PositionSet(byte type, @Nullable short[] values, @Nullable long[] bitmap)
+        {
+            this.type = type;
+            this.values = values;
+            this.bitmap = bitmap;
+        }
+
+        public static PositionSet of(long[] bitmap)
+        {
+            int count = 0;
+            int runCount = 0;
+            long previous = 0;
+
+            for (long word : bitmap)
+            {
+                // The run starts are the set bits whose preceding bit isn't set
+                long starts = word & ~((word << 1) | (previous >>> 63));
+                count += Long.bitCount(word);
+                runCount += Long.bitCount(starts);
+                previous = word;
+            }
+
+            if (runCount * 4 <= count * 2 && runCount * 4 < BITMAP_BYTES)
+            {
+                return new PositionSet(TYPE_RUNS, toRuns(bitmap, runCount), null);
+            }
+            else if (count * 2 < BITMAP_BYTES)
+            {
+                return new PositionSet(TYPE_ARRAY, toArray(bitmap, count), null);
+            }
+
+            return new PositionSet(TYPE_BITMAP, null, bitmap.clone());
+        }
+
+        private static short[] toArray(long[] bitmap, int count)
+        {
+            short[] values = new short[count];
+            int index = 0;
+
+            for (int w = 0; w < bitmap.length; ++w)
+            {
+                long word = bitmap[w];
+
+                while (word != 0)
+                {
+                    values[index++] = (short) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+
+            return values;
+        }
+
+        private static short[] toRuns(long[] bitmap, int runCount)
+        {
+            short[] values = new short[runCount * 2];
+            int index = 0;
+            int runStart = -1;
+
+            for (int i = 0; i <= SectionDataDecoder.SECTION_SIZE; ++i)
+            {
+                boolean set = i < SectionDataDecoder.SECTION_SIZE && (bitmap[i >> 6] & (1L << (i & 63))) != 0;
+
+                if (set && runStart == -1)
+                {
+                    runStart = i;
+                }
+                else if (set == false && runStart != -1)
+                {
+                    values[index++] = (short) runStart;
+                    values[index++] = (short) (i - runStart);
+                    runStart = -1;
+                }
+            }
+
+            return values;
+        }
+
+        /**
+         * Passes each position in this set to the given consumer, in increasing order
+         */
+        public void forEach(IntConsumer consumer)
+        {
+            if (this.type == TYPE_ARRAY)
+            {
+                for (short value : this.values)
+                {
+                    consumer.accept(value);
+                }
+            }
+            else if (this.type == TYPE_RUNS)
+            {
+                for (int i = 0; i < this.values.length; i += 2)
+                {
+                    final int end = this.values[i] + this.values[i + 1];
+
+                    for (int pos = this.values[i]; pos < end; ++pos)
+                    {
+                        consumer.accept(pos);
+                    }
+                }
+            }
+            else
+            {
+                for (int w = 0; w < this.bitmap.length; ++w)
+                {
+                    long word = this.bitmap[w];
+
+                    while (word != 0)
+                    {
+                        consumer.accept((w << 6) | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+
+        private void write(DataOutputStream out) throws IOException
+        {
+            out.writeByte(this.type);
+
+            if (this.type == TYPE_BITMAP)
+            {
+                for (long word : this.bitmap)
+                {
+                    out.writeLong(word);
+                }
+            }
+            else
+            {
+                out.writeShort(this.values.length);
+
+                for (short value : this.values)
+                {
+                    out.writeShort(value);
+                }
+            }
+        }
+
+        private static PositionSet read(DataInputStream in) throws IOException
+        {
+            byte type = in.readByte();
+
+            if (type == TYPE_BITMAP)
+            {
+                long[] bitmap = new long[SectionDataDecoder.SECTION_SIZE / 64];
+
+                for (int i = 0; i < bitmap.length; ++i)
+                {
+                    bitmap[i] = in.readLong();
+                }
+
+                return new PositionSet(type, null, bitmap);
+            }
+            else if (type == TYPE_ARRAY || type == TYPE_RUNS)
+            {
+                short[] values = new short[in.readUnsignedShort()];
+
+                for (int i = 0; i < values.length; ++i)
+                {
+                    values[i] = in.readShort();
+                }
+
+                return new PositionSet(type, values, null);
+            }
+
+            throw new IOException("Invalid position set type " + type);
+        }
+    }
+}
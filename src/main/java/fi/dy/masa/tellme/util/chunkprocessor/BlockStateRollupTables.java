@@ -0,0 +1,228 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.annotation.Nullable;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.BlockTags;
+import net.minecraft.tags.Tag;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraftforge.event.TagsUpdatedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.registries.ForgeRegistries;
+import fi.dy.masa.tellme.TellMe;
+
+/**
+ * Lookup tables from the block state IDs to the mod namespaces and the block tags,
+ * so that the block counts can be rolled up per namespace or per tag with plain array sums.
+ * The tables are rebuilt on the first use after the tags have been reloaded.
+ * Air is not included in any namespace or tag.
+ */
+public class BlockStateRollupTables
+{
+    public static final BlockStateRollupTables INSTANCE = new BlockStateRollupTables();
+
+    private String[] namespaces = new String[0];
+    private ResourceLocation[] tags = new ResourceLocation[0];
+    // Indexed by the block state IDs, -1 for air and non-registered blocks
+    private int[] stateNamespaces = new int[0];
+    private int[] stateBlocks = new int[0];
+    // The tag bitsets of each block, with tagWords longs per block. The tags are on the blocks and not on the states.
+    private long[] blockTagBits = new long[0];
+    private int blockCount;
+    private int tagWords;
+    private boolean dirty = true;
+
+    @SubscribeEvent
+    public void onTagsUpdated(TagsUpdatedEvent event)
+    {
+        this.dirty = true;
+    }
+
+    private void updateTables()
+    {
+        if (this.dirty == false && this.stateNamespaces.length == Block.BLOCK_STATE_REGISTRY.size())
+        {
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        final int stateCount = Block.BLOCK_STATE_REGISTRY.size();
+        Object2IntOpenHashMap<String> namespaceIndices = new Object2IntOpenHashMap<>();
+        Reference2IntOpenHashMap<Block> blockIndices = new Reference2IntOpenHashMap<>();
+        List<String> namespaces = new ArrayList<>();
+        int[] stateNamespaces = new int[stateCount];
+        int[] stateBlocks = new int[stateCount];
+
+        for (int i = 0; i < stateCount; ++i)
+        {
+            BlockState state = Block.BLOCK_STATE_REGISTRY.byId(i);
+            ResourceLocation id = state != null && state.isAir() == false ? ForgeRegistries.BLOCKS.getKey(state.getBlock()) : null;
+
+            if (id == null)
+            {
+                stateNamespaces[i] = -1;
+                stateBlocks[i] = -1;
+                continue;
+            }
+
+            String namespace = id.getNamespace();
+
+            if (namespaceIndices.containsKey(namespace) == false)
+            {
+                namespaceIndices.put(namespace, namespaces.size());
+                namespaces.add(namespace);
+            }
+
+            stateNamespaces[i] = namespaceIndices.getInt(namespace);
+            blockIndices.putIfAbsent(state.getBlock(), blockIndices.size());
+            stateBlocks[i] = blockIndices.getInt(state.getBlock());
+        }
+
+        Map<ResourceLocation, Tag<Block>> tagMap = BlockTags.getAllTags().getAllTags();
+        ResourceLocation[] tags = tagMap.keySet().stream().sorted().toArray(ResourceLocation[]::new);
+        final int tagWords = (tags.length + 63) >> 6;
+        long[] blockTagBits = new long[blockIndices.size() * tagWords];
+
+        for (int tag = 0; tag < tags.length; ++tag)
+        {
+            for (Block block : tagMap.get(tags[tag]).getValues())
+            {
+                final int blockIndex = blockIndices.getOrDefault(block, -1);
+
+                if (blockIndex >= 0)
+                {
+                    blockTagBits[blockIndex * tagWords + (tag >> 6)] |= 1L << (tag & 63);
+                }
+            }
+        }
+
+        this.namespaces = namespaces.toArray(new String[0]);
+        this.tags = tags;
+        this.stateNamespaces = stateNamespaces;
+        this.stateBlocks = stateBlocks;
+        this.blockTagBits = blockTagBits;
+        this.blockCount = blockIndices.size();
+        this.tagWords = tagWords;
+        this.dirty = false;
+
+        TellMe.logger.info(String.format(Locale.US, "Built the block state rollup tables for %d states, %d namespaces and %d tags in %.3f ms",
+                                         stateCount, this.namespaces.length, tags.length, (System.nanoTime() - startTime) / 1000000D));
+    }
+
+    public String[] getNamespaces()
+    {
+        this.updateTables();
+        return this.namespaces;
+    }
+
+    public ResourceLocation[] getTags()
+    {
+        this.updateTables();
+        return this.tags;
+    }
+
+    /**
+     * Sums the given counts, indexed by the block state IDs, per namespace
+     * @param stateIds the state IDs to include, or null for all the states
+     * @return the sums, indexed the same as {@link #getNamespaces()}
+     */
+    public long[] sumByNamespace(long[] counts, @Nullable int[] stateIds)
+    {
+        this.updateTables();
+
+        final int[] stateNamespaces = this.stateNamespaces;
+        final int length = Math.min(counts.length, stateNamespaces.length);
+        long[] sums = new long[this.namespaces.length];
+
+        if (stateIds != null)
+        {
+            for (int i : stateIds)
+            {
+                if (i >= 0 && i < length && stateNamespaces[i] >= 0)
+                {
+                    sums[stateNamespaces[i]] += counts[i];
+                }
+            }
+        }
+        else
+        {
+            for (int i = 0; i < length; ++i)
+            {
+                if (counts[i] != 0 && stateNamespaces[i] >= 0)
+                {
+                    sums[stateNamespaces[i]] += counts[i];
+                }
+            }
+        }
+
+        return sums;
+    }
+
+    /**
+     * Sums the given counts, indexed by the block state IDs, per block tag.
+     * The counts are first summed per block, and then each block's sum is added to each of its tags.
+     * @param stateIds the state IDs to include, or null for all the states
+     * @return the sums, indexed the same as {@link #getTags()}
+     */
+    public long[] sumByTag(long[] counts, @Nullable int[] stateIds)
+    {
+        this.updateTables();
+
+        final int[] stateBlocks = this.stateBlocks;
+        final int length = Math.min(counts.length, stateBlocks.length);
+        final int tagWords = this.tagWords;
+        final long[] blockTagBits = this.blockTagBits;
+        long[] blockSums = new long[this.blockCount];
+        long[] sums = new long[this.tags.length];
+
+        if (stateIds != null)
+        {
+            for (int i : stateIds)
+            {
+                if (i >= 0 && i < length && stateBlocks[i] >= 0)
+                {
+                    blockSums[stateBlocks[i]] += counts[i];
+                }
+            }
+        }
+        else
+        {
+            for (int i = 0; i < length; ++i)
+            {
+                if (counts[i] != 0 && stateBlocks[i] >= 0)
+                {
+                    blockSums[stateBlocks[i]] += counts[i];
+                }
+            }
+        }
+
+        for (int block = 0; block < blockSums.length; ++block)
+        {
+            final long sum = blockSums[block];
+
+            if (sum == 0)
+            {
+                continue;
+            }
+
+            for (int word = 0; word < tagWords; ++word)
+            {
+                long bits = blockTagBits[block * tagWords + word];
+
+                while (bits != 0)
+                {
+                    sums[(word << 6) + Long.numberOfTrailingZeros(bits)] += sum;
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        return sums;
+    }
+}
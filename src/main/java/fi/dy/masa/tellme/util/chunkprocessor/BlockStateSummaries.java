@@ -0,0 +1,688 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongPredicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LevelAccessor;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.storage.LevelResource;
+import net.minecraftforge.registries.ForgeRegistries;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.config.Configs;
+import fi.dy.masa.tellme.util.WorldUtils;
+
+/**
+ * Keeps a small Bloom filter of the blocks contained in each region (32 x 32 chunks) of a dimension,
+ * and optionally also one per chunk. The filters are filled from the chunks that the scans process,
+ * including the saved region file scans, and the block change events add any newly placed blocks.
+ * A filtered scan can then skip the summarized chunks that can't contain any of the searched blocks,
+ * without loading or reading them. The block state properties are still matched by the scans themselves
+ * in the chunks that are not skipped.
+ * The filters are keyed by the blocks and not the states, because the property changes of an existing block
+ * (like crops growing) are usually done without any block update flags, and thus without any events.
+ * A Bloom filter can give false positives, but not false negatives, as long as all the placed blocks are seen.
+ * Blocks placed without the block update flag (by some mods, or by external world editors) are not tracked.
+ * The blocks are hashed by their registry names, so the filters survive registry ID changes.
+ * The summaries of each dimension are saved to a single file under config/tellme/block_state_summaries/,
+ * and the game time of the last world save to a small file next to it. The summaries are discarded
+ * if the world has been played since without updating the game time. The summaries are only rewritten
+ * if they have changed, and both files are written on the IO threads.
+ */
+public class BlockStateSummaries
+{
+    public static final BlockStateSummaries INSTANCE = new BlockStateSummaries();
+
+    private static final int FILE_VERSION = 3;
+    private static final int HASH_COUNT = 3;
+    private static final int REGION_FILTER_BITS = 8192;
+    private static final int CHUNK_FILTER_BITS = 1024;
+    private static final int CHUNK_FILTER_LONGS = CHUNK_FILTER_BITS / 64;
+    private static final Reference2LongOpenHashMap<Block> BLOCK_HASHES = new Reference2LongOpenHashMap<>();
+
+    private final Map<ResourceKey<Level>, DimensionSummaries> summaries = new HashMap<>();
+
+    private BlockStateSummaries()
+    {
+    }
+
+    public static boolean isEnabled()
+    {
+        return Configs.Generic.enableBlockStateSummaries;
+    }
+
+    /**
+     * Returns the summaries of the given dimension, reading them from the file if needed.
+     * This must be called on the server thread. The returned summaries are thread safe.
+     */
+    public synchronized DimensionSummaries getSummaries(Level world)
+    {
+        return this.summaries.computeIfAbsent(world.dimension(), (k) -> readFromFile(getFile(world), world.getGameTime()));
+    }
+
+    /**
+     * Adds the block states of the given chunk into the summaries, if they are enabled
+     */
+    public void addChunk(LevelChunk chunk)
+    {
+        if (isEnabled() && chunk.getLevel().isClientSide() == false)
+        {
+            this.getSummaries(chunk.getLevel()).addChunk(chunk);
+        }
+    }
+
+    /**
+     * Creates a filter for the chunks that can't contain any of the blocks of the given states, according to the summaries.
+     * The summaries don't know about the state properties, so the chunks that aren't skipped may still not have the exact states.
+     * This must be called on the server thread, but the returned filter can be used from any thread.
+     * @return the filter, which takes packed ChunkPos values, or null if the summaries are disabled or can't be used for the states
+     */
+    @Nullable
+    public LongPredicate createChunkSkipFilter(Level world, Collection<BlockState> states)
+    {
+        if (isEnabled() == false || world.isClientSide() || states.isEmpty())
+        {
+            return null;
+        }
+
+        Set<Block> blocks = new ReferenceOpenHashSet<>();
+
+        for (BlockState state : states)
+        {
+            // Air is also the implicit content of the empty sections, which are not summarized
+            if (state.isAir())
+            {
+                return null;
+            }
+
+            blocks.add(state.getBlock());
+        }
+
+        long[] hashes = new long[blocks.size()];
+        int index = 0;
+
+        for (Block block : blocks)
+        {
+            hashes[index++] = getBlockHash(block);
+        }
+
+        DimensionSummaries summaries = this.getSummaries(world);
+
+        return (chunkPos) -> summaries.mayContain(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos), hashes) == false;
+    }
+
+    public void onBlockPlaced(LevelAccessor world, BlockPos pos, BlockState state)
+    {
+        DimensionSummaries summaries = this.getLoadedSummaries(world);
+
+        if (summaries != null)
+        {
+            summaries.addBlock(pos.getX() >> 4, pos.getZ() >> 4, getBlockHash(state.getBlock()));
+        }
+    }
+
+    /**
+     * Reads the summaries already when the world loads, so that all the block changes get tracked
+     */
+    public void onWorldLoad(LevelAccessor world)
+    {
+        if (isEnabled() && world instanceof Level && world.isClientSide() == false)
+        {
+            this.getSummaries((Level) world);
+        }
+    }
+
+    public void onWorldSave(LevelAccessor world)
+    {
+        DimensionSummaries summaries = this.getLoadedSummaries(world);
+
+        // The game time is written even if nothing has changed
+        if (summaries != null)
+        {
+            summaries.writeToFile(((Level) world).getGameTime());
+        }
+    }
+
+    public synchronized void onServerStopped()
+    {
+        // Let the last saves finish before the next world could read the files
+        for (DimensionSummaries summaries : this.summaries.values())
+        {
+            summaries.getPendingWrite().join();
+        }
+
+        this.summaries.clear();
+    }
+
+    @Nullable
+    private synchronized DimensionSummaries getLoadedSummaries(LevelAccessor world)
+    {
+        if (this.summaries.isEmpty() || (world instanceof Level) == false || world.isClientSide())
+        {
+            return null;
+        }
+
+        return this.summaries.get(((Level) world).dimension());
+    }
+
+    private static File getFile(Level world)
+    {
+        MinecraftServer server = world.getServer();
+        String worldName = server != null ? server.getWorldPath(LevelResource.ROOT).toAbsolutePath().normalize().getFileName().toString() : "unknown";
+        String dimension = WorldUtils.getDimensionId(world).replace(':', '_');
+        File dir = new File(new File(Configs.dumpOutputDir, "block_state_summaries"), worldName);
+
+        return new File(dir, dimension + ".bin");
+    }
+
+    private static File getGameTimeFile(File file)
+    {
+        return new File(file.getParentFile(), file.getName().replace(".bin", ".time"));
+    }
+
+    private static synchronized long getBlockHash(Block block)
+    {
+        long hash = BLOCK_HASHES.getLong(block);
+
+        if (hash == 0L)
+        {
+            // The registry name is stable across game sessions, unlike the registry ID
+            hash = Hashing.murmur3_128().hashUnencodedChars(String.valueOf(ForgeRegistries.BLOCKS.getKey(block))).asLong();
+            BLOCK_HASHES.put(block, hash);
+        }
+
+        return hash;
+    }
+
+    /**
+     * @return true if any of the bits were not set before
+     */
+    private static boolean addToFilter(long[] filter, int offset, int bits, long hash)
+    {
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        boolean changed = false;
+
+        for (int i = 0; i < HASH_COUNT; ++i)
+        {
+            final int bit = (h1 + i * h2) & (bits - 1);
+            final long mask = 1L << (bit & 63);
+
+            changed |= (filter[offset + (bit >>> 6)] & mask) == 0;
+            filter[offset + (bit >>> 6)] |= mask;
+        }
+
+        return changed;
+    }
+
+    private static boolean mightContain(long[] filter, int offset, int bits, long hash)
+    {
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < HASH_COUNT; ++i)
+        {
+            final int bit = (h1 + i * h2) & (bits - 1);
+
+            if ((filter[offset + (bit >>> 6)] & (1L << (bit & 63))) == 0)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static DimensionSummaries readFromFile(File file, long gameTime)
+    {
+        DimensionSummaries summaries = new DimensionSummaries(file);
+        File timeFile = getGameTimeFile(file);
+
+        if (file.exists() == false || timeFile.exists() == false)
+        {
+            return summaries;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+             DataInputStream timeIn = new DataInputStream(new FileInputStream(timeFile)))
+        {
+            if (in.readInt() != FILE_VERSION || in.readInt() != REGION_FILTER_BITS ||
+                in.readInt() != CHUNK_FILTER_BITS || in.readInt() != HASH_COUNT)
+            {
+                return summaries;
+            }
+
+            // Any block changes made after the last save have not been tracked
+            if (timeIn.readLong() != gameTime)
+            {
+                TellMe.logger.info("Discarding the outdated block state summaries in '{}'", file.getAbsolutePath());
+                return summaries;
+            }
+
+            final int regionCount = in.readInt();
+
+            for (int i = 0; i < regionCount; ++i)
+            {
+                long regionPos = in.readLong();
+                RegionSummary region = RegionSummary.read(in);
+                summaries.regions.put(regionPos, region);
+            }
+
+            summaries.dirty = false;
+            TellMe.logger.info("Read the block state summaries of {} regions from '{}'", regionCount, file.getAbsolutePath());
+        }
+        catch (Exception e)
+        {
+            TellMe.logger.warn("Failed to read the block state summaries from '{}'", file.getAbsolutePath(), e);
+            summaries.regions.clear();
+        }
+
+        return summaries;
+    }
+
+    /**
+     * The summaries of one dimension. All the methods are synchronized, so that the saved region file scans
+     * can read and fill the summaries from the worker threads.
+     */
+    public static class DimensionSummaries
+    {
+        private final Long2ObjectOpenHashMap<RegionSummary> regions = new Long2ObjectOpenHashMap<>();
+        private final File file;
+        private CompletableFuture<Void> pendingWrite = CompletableFuture.completedFuture(null);
+        // Whether the summaries differ from the saved file. New summaries have to replace any outdated file.
+        private boolean dirty = true;
+
+        private DimensionSummaries(File file)
+        {
+            this.file = file;
+        }
+
+        private synchronized CompletableFuture<Void> getPendingWrite()
+        {
+            return this.pendingWrite;
+        }
+
+        /**
+         * Adds the blocks of the given chunk, and marks the chunk as summarized.
+         * This must be called on the server thread.
+         */
+        public void addChunk(LevelChunk chunk)
+        {
+            Set<Block> blocks = new ReferenceOpenHashSet<>();
+
+            for (LevelChunkSection section : chunk.getSections())
+            {
+                if (section == null || section.hasOnlyAir())
+                {
+                    continue;
+                }
+
+                PalettedContainer<BlockState> container = section.getStates();
+
+                // The predicate never matches, so this visits all the palette entries. Only the global palette returns true without visiting them.
+                if (container.maybeHas((state) -> { blocks.add(state.getBlock()); return false; }))
+                {
+                    container.count((state, count) -> blocks.add(state.getBlock()));
+                }
+            }
+
+            this.addChunkBlocks(chunk.getPos().x, chunk.getPos().z, blocks);
+        }
+
+        /**
+         * Adds the blocks of the given chunk snapshot, and marks the chunk as summarized
+         */
+        public void addChunk(ChunkSnapshot chunk)
+        {
+            Set<Block> blocks = new ReferenceOpenHashSet<>();
+
+            for (int i = 0; i < chunk.getSectionCount(); ++i)
+            {
+                SectionSnapshot section = chunk.getSection(chunk.getMinSection() + i);
+
+                // Sections without a palette would need to be fully decoded, so just leave the chunk unsummarized
+                if (section.hasPalette() == false)
+                {
+                    return;
+                }
+
+                for (int p = 0; p < section.getPaletteSize(); ++p)
+                {
+                    blocks.add(Block.BLOCK_STATE_REGISTRY.byId(section.getPaletteEntry(p)).getBlock());
+                }
+            }
+
+            this.addChunkBlocks(chunk.getPos().x, chunk.getPos().z, blocks);
+        }
+
+        private synchronized void addChunkBlocks(int chunkX, int chunkZ, Set<Block> blocks)
+        {
+            RegionSummary region = this.getOrCreateRegion(chunkX, chunkZ);
+            final int chunkIndex = getChunkIndex(chunkX, chunkZ);
+
+            for (Block block : blocks)
+            {
+                this.dirty |= region.add(chunkIndex, getBlockHash(block));
+            }
+
+            final long coveredBit = 1L << (chunkIndex & 63);
+
+            if ((region.covered[chunkIndex >> 6] & coveredBit) == 0)
+            {
+                region.covered[chunkIndex >> 6] |= coveredBit;
+                this.dirty = true;
+            }
+        }
+
+        private synchronized void addBlock(int chunkX, int chunkZ, long blockHash)
+        {
+            this.dirty |= this.getOrCreateRegion(chunkX, chunkZ).add(getChunkIndex(chunkX, chunkZ), blockHash);
+        }
+
+        /**
+         * @return false if the given chunk has been summarized, and it can't contain any of the given blocks
+         */
+        public synchronized boolean mayContain(int chunkX, int chunkZ, long[] blockHashes)
+        {
+            RegionSummary region = this.regions.get(ChunkPos.asLong(chunkX >> 5, chunkZ >> 5));
+            final int chunkIndex = getChunkIndex(chunkX, chunkZ);
+
+            if (region == null || (region.covered[chunkIndex >> 6] & (1L << (chunkIndex & 63))) == 0)
+            {
+                return true;
+            }
+
+            for (long hash : blockHashes)
+            {
+                if (region.mightContain(chunkIndex, hash))
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private RegionSummary getOrCreateRegion(int chunkX, int chunkZ)
+        {
+            long regionPos = ChunkPos.asLong(chunkX >> 5, chunkZ >> 5);
+            RegionSummary region = this.regions.get(regionPos);
+
+            if (region == null)
+            {
+                // The chunk filters are only used if they have existed since the region was created, so that they have seen all the changes
+                region = new RegionSummary(Configs.Generic.enableChunkBlockStateSummaries);
+                this.regions.put(regionPos, region);
+                this.dirty = true;
+            }
+
+            return region;
+        }
+
+        /**
+         * Writes the game time, and the summaries if they have changed, on the IO threads.
+         * The summaries are copied on the calling thread, so that they can keep changing meanwhile.
+         */
+        private synchronized void writeToFile(long gameTime)
+        {
+            final Long2ObjectOpenHashMap<RegionSummary> regions;
+
+            if (this.dirty)
+            {
+                regions = new Long2ObjectOpenHashMap<>(this.regions.size());
+
+                for (Long2ObjectMap.Entry<RegionSummary> entry : this.regions.long2ObjectEntrySet())
+                {
+                    regions.put(entry.getLongKey(), entry.getValue().copy());
+                }
+
+                this.dirty = false;
+            }
+            else
+            {
+                regions = null;
+            }
+
+            this.pendingWrite = this.pendingWrite.thenRunAsync(() -> {
+                // The game time is only updated after the summaries it applies to have been written
+                if (regions == null || this.writeRegions(regions))
+                {
+                    this.writeGameTime(gameTime);
+                }
+            }, Util.ioPool());
+        }
+
+        private boolean writeRegions(Long2ObjectOpenHashMap<RegionSummary> regions)
+        {
+            File dir = this.file.getParentFile();
+
+            if (dir.exists() == false && dir.mkdirs() == false)
+            {
+                TellMe.logger.warn("Failed to create the directory '{}'", dir.getAbsolutePath());
+                this.markDirty();
+                return false;
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(this.file)))))
+            {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(REGION_FILTER_BITS);
+                out.writeInt(CHUNK_FILTER_BITS);
+                out.writeInt(HASH_COUNT);
+                out.writeInt(regions.size());
+
+                for (Long2ObjectMap.Entry<RegionSummary> entry : regions.long2ObjectEntrySet())
+                {
+                    out.writeLong(entry.getLongKey());
+                    entry.getValue().write(out);
+                }
+
+                return true;
+            }
+            catch (IOException e)
+            {
+                TellMe.logger.warn("Failed to write the block state summaries to '{}'", this.file.getAbsolutePath(), e);
+                this.markDirty();
+                return false;
+            }
+        }
+
+        private void writeGameTime(long gameTime)
+        {
+            File file = getGameTimeFile(this.file);
+
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file)))
+            {
+                out.writeLong(gameTime);
+            }
+            catch (IOException e)
+            {
+                TellMe.logger.warn("Failed to write the block state summary game time to '{}'", file.getAbsolutePath(), e);
+            }
+        }
+
+        private synchronized void markDirty()
+        {
+            this.dirty = true;
+        }
+
+        private static int getChunkIndex(int chunkX, int chunkZ)
+        {
+            return ((chunkZ & 31) << 5) | (chunkX & 31);
+        }
+    }
+
+    private static class RegionSummary
+    {
+        private final long[] filter = new long[REGION_FILTER_BITS / 64];
+        // The chunks whose full contents have been added
+        private final long[] covered = new long[1024 / 64];
+        @Nullable private final long[] chunkFilters;
+
+        private RegionSummary(boolean useChunkFilters)
+        {
+            this.chunkFilters = useChunkFilters ? new long[1024 * CHUNK_FILTER_LONGS] : null;
+        }
+
+        /**
+         * @return true if any of the filter bits were not set before
+         */
+        private boolean add(int chunkIndex, long blockHash)
+        {
+            boolean changed = addToFilter(this.filter, 0, REGION_FILTER_BITS, blockHash);
+
+            if (this.chunkFilters != null)
+            {
+                changed |= addToFilter(this.chunkFilters, chunkIndex * CHUNK_FILTER_LONGS, CHUNK_FILTER_BITS, blockHash);
+            }
+
+            return changed;
+        }
+
+        private RegionSummary copy()
+        {
+            RegionSummary copy = new RegionSummary(this.chunkFilters != null);
+
+            System.arraycopy(this.filter, 0, copy.filter, 0, this.filter.length);
+            System.arraycopy(this.covered, 0, copy.covered, 0, this.covered.length);
+
+            if (this.chunkFilters != null)
+            {
+                System.arraycopy(this.chunkFilters, 0, copy.chunkFilters, 0, this.chunkFilters.length);
+            }
+
+            return copy;
+        }
+
+        private boolean mightContain(int chunkIndex, long blockHash)
+        {
+            if (mightContain(this.filter, 0, REGION_FILTER_BITS, blockHash) == false)
+            {
+                return false;
+            }
+
+            return this.chunkFilters == null || Configs.Generic.enableChunkBlockStateSummaries == false ||
+                   mightContain(this.chunkFilters, chunkIndex * CHUNK_FILTER_LONGS, CHUNK_FILTER_BITS, blockHash);
+        }
+
+        private void write(DataOutputStream out) throws IOException
+        {
+            writeLongs(out, this.filter, 0, this.filter.length);
+            writeLongs(out, this.covered, 0, this.covered.length);
+            out.writeBoolean(this.chunkFilters != null);
+
+            if (this.chunkFilters != null)
+            {
+                // Only the non-empty chunk filters are written, after a bit mask of them
+                long[] present = new long[1024 / 64];
+
+                for (int i = 0; i < 1024; ++i)
+                {
+                    if (isEmpty(this.chunkFilters, i * CHUNK_FILTER_LONGS, CHUNK_FILTER_LONGS) == false)
+                    {
+                        present[i >> 6] |= 1L << (i & 63);
+                    }
+                }
+
+                writeLongs(out, present, 0, present.length);
+
+                for (int i = 0; i < 1024; ++i)
+                {
+                    if ((present[i >> 6] & (1L << (i & 63))) != 0)
+                    {
+                        writeLongs(out, this.chunkFilters, i * CHUNK_FILTER_LONGS, CHUNK_FILTER_LONGS);
+                    }
+                }
+            }
+        }
+
+        private static RegionSummary read(DataInputStream in) throws IOException
+        {
+            long[] filter = readLongs(in, REGION_FILTER_BITS / 64);
+            long[] covered = readLongs(in, 1024 / 64);
+            RegionSummary region = new RegionSummary(in.readBoolean());
+
+            System.arraycopy(filter, 0, region.filter, 0, filter.length);
+            System.arraycopy(covered, 0, region.covered, 0, covered.length);
+
+            if (region.chunkFilters != null)
+            {
+                long[] present = readLongs(in, 1024 / 64);
+
+                for (int i = 0; i < 1024; ++i)
+                {
+                    if ((present[i >> 6] & (1L << (i & 63))) != 0)
+                    {
+                        for (int w = 0; w < CHUNK_FILTER_LONGS; ++w)
+                        {
+                            region.chunkFilters[i * CHUNK_FILTER_LONGS + w] = in.readLong();
+                        }
+                    }
+                }
+            }
+
+            return region;
+        }
+
+        private static boolean isEmpty(long[] arr, int offset, int length)
+        {
+            for (int i = offset; i < offset + length; ++i)
+            {
+                if (arr[i] != 0)
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static void writeLongs(DataOutputStream out, long[] arr, int offset, int length) throws IOException
+        {
+            for (int i = offset; i < offset + length; ++i)
+            {
+                out.writeLong(arr[i]);
+            }
+        }
+
+        private static long[] readLongs(DataInputStream in, int length) throws IOException
+        {
+            long[] arr = new long[length];
+
+            for (int i = 0; i < length; ++i)
+            {
+                arr[i] = in.readLong();
+            }
+
+            return arr;
+        }
+    }
+}
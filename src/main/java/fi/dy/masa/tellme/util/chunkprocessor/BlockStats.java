@@ -1,20 +1,21 @@
 package fi.dy.masa.tellme.util.chunkprocessor;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import javax.annotation.Nullable;
-import com.google.common.collect.ArrayListMultimap;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import net.minecraft.commands.arguments.blocks.BlockStateParser;
+import io.netty.buffer.Unpooled;
 import net.minecraft.core.BlockPos;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.chat.TextComponent;
 import net.minecraft.network.chat.TranslatableComponent;
 import net.minecraft.resources.ResourceLocation;
@@ -25,124 +26,599 @@ import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.block.state.properties.Property;
 import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
 import net.minecraftforge.registries.ForgeRegistries;
 import fi.dy.masa.tellme.TellMe;
 import fi.dy.masa.tellme.command.CommandUtils;
+import fi.dy.masa.tellme.config.Configs;
 import fi.dy.masa.tellme.util.BlockInfo;
 import fi.dy.masa.tellme.util.datadump.DataDump;
 import fi.dy.masa.tellme.util.datadump.DataDump.Alignment;
 import fi.dy.masa.tellme.util.datadump.DataDump.Format;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntLinkedOpenHashSet;
 
-public class BlockStats extends ChunkProcessorAllChunks
+public class BlockStats extends ChunkProcessorAllChunks implements ISnapshotChunkProcessor<BlockStats.SnapshotCounts>, IChunkScanStage
 {
-    private final HashMap<BlockState, BlockStateCount> blockStats = new HashMap<>();
+    private final int[] indexBuffer = new int[SectionDataDecoder.SECTION_SIZE];
+    private final FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(8192));
+    // The counts are indexed by the block state IDs from Block.BLOCK_STATE_REGISTRY
+    private long[] counts = new long[0];
+    private long[] scanCounts = new long[0];
+    // The state IDs with non-zero counts in scanCounts, only tracked in the approximate mode
+    private final IntArrayList scanTouchedStates = new IntArrayList();
+    // The results of the approximate counting, if the current results are approximate
+    @Nullable private FrequencySketch sketch;
+    @Nullable private FrequencySketch scanSketch;
+    private long scanBlockCount;
     private int chunkCount;
+    @Nullable private Heightmap.Types surfaceType;
+    private int surfaceDepth;
     private boolean append;
+    private boolean approximate;
 
     public void setAppend(boolean append)
     {
         this.append = append;
     }
 
+    /**
+     * Sets whether the following scans count the blocks into a fixed size {@link FrequencySketch}
+     * instead of the exact per-state counts. Only the most common states are then listed in the results.
+     */
+    public void setApproximate(boolean approximate)
+    {
+        this.approximate = approximate;
+    }
+
+    /**
+     * Sets the following scans to only count the top <b>depth</b> blocks of each column,
+     * down from the surface given by the heightmap, or to count the entire volume if the type is null
+     */
+    public void setSurface(@Nullable Heightmap.Types type, int depth)
+    {
+        this.surfaceType = type;
+        this.surfaceDepth = depth;
+    }
+
+    public boolean isApproximate()
+    {
+        return this.sketch != null;
+    }
+
+    private static FrequencySketch createSketch()
+    {
+        return new FrequencySketch(12, Configs.Generic.approximateCountTopSize);
+    }
+
+    /**
+     * @return the current counts, indexed by the block state IDs. The array may be empty or shorter than the registry.
+     */
+    long[] getCounts()
+    {
+        return this.counts;
+    }
+
+    public int getChunkCount()
+    {
+        return this.chunkCount;
+    }
+
+    @Override
+    protected void onScanStart()
+    {
+        this.scanCounts = getClearedCountArray(this.scanCounts);
+        this.scanSketch = this.approximate ? createSketch() : null;
+        this.scanTouchedStates.clear();
+        this.scanBlockCount = 0;
+    }
+
+    private static long[] getClearedCountArray(long[] counts)
+    {
+        final int size = Block.BLOCK_STATE_REGISTRY.size();
+
+        if (counts.length != size)
+        {
+            return new long[size];
+        }
+
+        Arrays.fill(counts, 0L);
+
+        return counts;
+    }
+
+    @Override
+    protected void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        // The counts array is only used for one chunk at a time in the approximate mode
+        final IntArrayList touchedStates = this.scanSketch != null ? this.scanTouchedStates : null;
+
+        if (this.surfaceType != null)
+        {
+            this.scanBlockCount += this.countChunkSurface(chunk, this.scanCounts, touchedStates, this.surfaceType, this.surfaceDepth, posMin, posMax);
+        }
+        else
+        {
+            this.scanBlockCount += this.countChunk(chunk, this.scanCounts, touchedStates, posMin, posMax);
+        }
+
+        if (touchedStates != null)
+        {
+            moveCountsToSketch(this.scanCounts, touchedStates, this.scanSketch);
+        }
+    }
+
+    @Override
+    public void beginScan()
+    {
+        this.onScanStart();
+    }
+
+    /**
+     * The exact counts are done one section at a time in a pipeline.
+     * The surface and approximate counts need the whole chunk at once.
+     */
+    @Override
+    public boolean wantsSections()
+    {
+        return this.surfaceType == null && this.approximate == false;
+    }
+
+    @Override
+    public void visitChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        if (this.wantsSections())
+        {
+            this.countAirAboveSections(chunk, this.scanCounts, null, posMin, posMax);
+        }
+        else
+        {
+            this.processChunk(chunk, posMin, posMax);
+        }
+    }
+
+    @Override
+    public void visitSection(LevelChunk chunk, @Nullable LevelChunkSection section, int sectionY, BlockPos posMin, BlockPos posMax)
+    {
+        this.scanBlockCount += this.countSection(chunk, section, sectionY, this.scanCounts, null, posMin, posMax);
+    }
+
     @Override
-    public void processChunks(Collection<LevelChunk> chunks, BlockPos posMin, BlockPos posMax)
+    public void endScan(int chunkCount, long durationNanos)
     {
-        final long timeBefore = System.nanoTime();
-        Object2LongOpenHashMap<BlockState> counts = new Object2LongOpenHashMap<>();
-        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
-        final BlockState air = Blocks.AIR.defaultBlockState();
-        int count = 0;
+        this.onScanEnd(chunkCount, durationNanos);
+    }
 
-        for (LevelChunk chunk : chunks)
+    /**
+     * Adds the counts of the touched states to the sketch, keyed by the block state IDs,
+     * and clears them from the array and the touched list
+     */
+    private static void moveCountsToSketch(long[] counts, IntArrayList touchedStates, FrequencySketch sketch)
+    {
+        for (int i = 0; i < touchedStates.size(); ++i)
+        {
+            final int id = touchedStates.getInt(i);
+
+            sketch.add(id, counts[id]);
+            counts[id] = 0;
+        }
+
+        touchedStates.clear();
+    }
+
+    /**
+     * Adds all the non-zero counts to the sketch, keyed by the block state IDs, and clears them from the array
+     */
+    private static void moveCountsToSketch(long[] counts, FrequencySketch sketch)
+    {
+        for (int i = 0; i < counts.length; ++i)
+        {
+            if (counts[i] != 0)
+            {
+                sketch.add(i, counts[i]);
+                counts[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Adds the block counts of the given chunk within the given volume into the given array, indexed by the block state IDs
+     * @param touchedStates if not null, the state IDs whose counts were zero before are added to this list
+     * @return the number of blocks counted from the chunk's sections
+     */
+    long countChunk(LevelChunk chunk, final long[] counts, @Nullable IntArrayList touchedStates, BlockPos posMin, BlockPos posMax)
+    {
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int yMax = Math.min(chunk.getHighestSectionPosition() + 15, posMax.getY());
+        LevelChunkSection[] sections = chunk.getSections();
+        long blockCount = 0;
+
+        for (int sectionY = yMin >> 4; yMin <= yMax && sectionY <= (yMax >> 4); ++sectionY)
+        {
+            blockCount += this.countSection(chunk, sections[chunk.getSectionIndexFromSectionY(sectionY)], sectionY, counts, touchedStates, posMin, posMax);
+        }
+
+        this.countAirAboveSections(chunk, counts, touchedStates, posMin, posMax);
+
+        return blockCount;
+    }
+
+    /**
+     * Adds the block counts of one section of the given chunk within the given volume into the given array
+     * @param section the section, which may be null or only contain air
+     * @return the number of blocks counted from the section
+     */
+    private long countSection(LevelChunk chunk, @Nullable LevelChunkSection section, int sectionY, final long[] counts,
+                              @Nullable IntArrayList touchedStates, BlockPos posMin, BlockPos posMax)
+    {
+        ChunkPos chunkPos = chunk.getPos();
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        final int sectionMinY = sectionY << 4;
+        final int y1 = Math.max(Math.max(chunk.getMinBuildHeight(), posMin.getY()), sectionMinY);
+        final int y2 = Math.min(Math.min(chunk.getHighestSectionPosition() + 15, posMax.getY()), sectionMinY + 15);
+        final boolean fullColumns = xMin == (chunkPos.x << 4) && xMax == (chunkPos.x << 4) + 15 &&
+                                    zMin == (chunkPos.z << 4) && zMax == (chunkPos.z << 4) + 15;
+        final int volume = (xMax - xMin + 1) * (zMax - zMin + 1) * (y2 - y1 + 1);
+
+        // Empty sections read as plain air via LevelChunk#getBlockState(), so count them the same way
+        if (section == null || section.hasOnlyAir())
+        {
+            SectionSnapshot.addCount(counts, touchedStates, Block.BLOCK_STATE_REGISTRY.getId(Blocks.AIR.defaultBlockState()), volume);
+        }
+        // The query box covers the entire section, count it directly from the palette.
+        // Single-value palettes get counted once, others get a histogram of the palette indices.
+        else if (fullColumns && y1 == sectionMinY && y2 == sectionMinY + 15)
+        {
+            if (BlockCountCache.isEnabled())
+            {
+                BlockCountCache.INSTANCE.getSectionCounts(chunk, chunk.getSectionIndexFromSectionY(sectionY), section).addTo(counts, touchedStates);
+            }
+            else
+            {
+                section.getStates().count((state, count) -> SectionSnapshot.addCount(counts, touchedStates, Block.BLOCK_STATE_REGISTRY.getId(state), count));
+            }
+        }
+        // The section is only partially inside the query box, fall back to reading the individual blocks
+        else
+        {
+            countBlocksInSection(SectionSnapshot.of(section, this.buf), counts, touchedStates, this.indexBuffer, xMin, y1, zMin, xMax, y2, zMax);
+        }
+
+        return volume;
+    }
+
+    /**
+     * Adds the amount of air that would be in the non-existing chunk sections above the highest section, within the given volume
+     */
+    private void countAirAboveSections(LevelChunk chunk, final long[] counts, @Nullable IntArrayList touchedStates, BlockPos posMin, BlockPos posMax)
+    {
+        final int topY = chunk.getHighestSectionPosition() + 15;
+
+        if (topY < posMax.getY())
         {
             ChunkPos chunkPos = chunk.getPos();
             final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
             final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
             final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
             final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
-            final int topY = chunk.getHighestSectionPosition() + 15;
-            final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
-            final int yMax = Math.min(topY, posMax.getY());
+            final int airId = Block.BLOCK_STATE_REGISTRY.getId(Blocks.AIR.defaultBlockState());
 
-            for (int y = yMin; y <= yMax; ++y)
+            SectionSnapshot.addCount(counts, touchedStates, airId, (long) (posMax.getY() - Math.max(topY, posMin.getY() - 1)) * (xMax - xMin + 1) * (zMax - zMin + 1));
+        }
+    }
+
+    /**
+     * Counts the top <b>depth</b> blocks of each column within the given volume, down from the top block given by the heightmap.
+     * Only the blocks under the surface are read, so the cost per column doesn't depend on the height of the world.
+     * @return the number of blocks counted
+     */
+    long countChunkSurface(LevelChunk chunk, final long[] counts, @Nullable IntArrayList touchedStates, Heightmap.Types type, int depth, BlockPos posMin, BlockPos posMax)
+    {
+        final int airId = Block.BLOCK_STATE_REGISTRY.getId(Blocks.AIR.defaultBlockState());
+        ChunkPos chunkPos = chunk.getPos();
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        final int minBuildY = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        LevelChunkSection[] sections = chunk.getSections();
+        long blockCount = 0;
+
+        for (int z = zMin; z <= zMax; ++z)
+        {
+            for (int x = xMin; x <= xMax; ++x)
             {
-                for (int z = zMin; z <= zMax; ++z)
+                // The heightmap value is the y-coordinate of the top block of the column
+                final int yTop = Math.min(chunk.getHeight(type, x & 15, z & 15), posMax.getY());
+                final int yBottom = Math.max(yTop - depth + 1, minBuildY);
+
+                for (int y = yTop; y >= yBottom; --y)
                 {
-                    for (int x = xMin; x <= xMax; ++x)
-                    {
-                        pos.set(x, y, z);
-                        BlockState state = chunk.getBlockState(pos);
+                    LevelChunkSection section = sections[chunk.getSectionIndex(y)];
 
-                        counts.addTo(state, 1);
-                        count++;
+                    if (section == null || section.hasOnlyAir())
+                    {
+                        SectionSnapshot.addCount(counts, touchedStates, airId, 1);
+                    }
+                    else
+                    {
+                        SectionSnapshot.addCount(counts, touchedStates, Block.BLOCK_STATE_REGISTRY.getId(section.getBlockState(x & 15, y & 15, z & 15)), 1);
                     }
                 }
+
+                blockCount += Math.max(yTop - yBottom + 1, 0);
             }
+        }
+
+        return blockCount;
+    }
+
+    @Override
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
+        this.chunkCount = this.append ? this.chunkCount + chunkCount : chunkCount;
+
+        TellMe.logger.info(String.format(Locale.US, "Counted %d blocks in %d chunks in %.4f seconds.",
+                this.scanBlockCount, chunkCount, durationNanos / 1000000000D));
 
-            // Add the amount of air that would be in non-existing chunk sections within the given volume
-            if (topY < posMax.getY())
+        if (this.scanSketch != null)
+        {
+            this.addScanSketch(this.scanSketch);
+            this.scanSketch = null;
+        }
+        else
+        {
+            this.addScanCounts(this.scanCounts);
+        }
+    }
+
+    /**
+     * Counts the blocks within the given range inside one section, by decoding all the palette indices of the section at once
+     */
+    private static void countBlocksInSection(SectionSnapshot section, long[] counts, @Nullable IntArrayList touchedStates, int[] indexBuffer,
+                                             int xMin, int yMin, int zMin, int xMax, int yMax, int zMax)
+    {
+        section.decode(indexBuffer);
+
+        for (int y = yMin; y <= yMax; ++y)
+        {
+            for (int z = zMin; z <= zMax; ++z)
             {
-                counts.addTo(air, (long) (posMax.getY() - Math.max(topY, posMin.getY() - 1)) * (xMax - xMin + 1) * (zMax - zMin + 1));
+                for (int x = xMin; x <= xMax; ++x)
+                {
+                    SectionSnapshot.addCount(counts, touchedStates, section.getPaletteEntry(indexBuffer[SectionSnapshot.getIndex(x & 15, y & 15, z & 15)]), 1);
+                }
             }
         }
+    }
 
-        this.chunkCount = this.append ? this.chunkCount + chunks.size() : chunks.size();
+    /**
+     * The chunk snapshots don't include the heightmaps, so the surface counts are only done on the server thread
+     */
+    @Override
+    protected boolean canProcessOnWorkerThreads()
+    {
+        return this.surfaceType == null;
+    }
 
-        TellMe.logger.info(String.format(Locale.US, "Counted %d blocks in %d chunks in %.4f seconds.",
-                count, chunks.size(), (System.nanoTime() - timeBefore) / 1000000000D));
+    @Override
+    public SnapshotCounts createWorker()
+    {
+        return new SnapshotCounts(this.approximate ? createSketch() : null);
+    }
+
+    @Override
+    public void processChunk(SnapshotCounts worker, ChunkSnapshot chunk, BlockPos posMin, BlockPos posMax)
+    {
+        ChunkPos chunkPos = chunk.getPos();
+        final long[] counts = worker.counts;
+        final IntArrayList touchedStates = worker.touchedStates;
+        final int airId = Block.BLOCK_STATE_REGISTRY.getId(Blocks.AIR.defaultBlockState());
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        final int topY = chunk.getTopY();
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int yMax = Math.min(topY, posMax.getY());
+        final boolean fullColumns = xMin == (chunkPos.x << 4) && xMax == (chunkPos.x << 4) + 15 &&
+                                    zMin == (chunkPos.z << 4) && zMax == (chunkPos.z << 4) + 15;
+        final int columns = (xMax - xMin + 1) * (zMax - zMin + 1);
+
+        for (int sectionY = yMin >> 4; yMin <= yMax && sectionY <= (yMax >> 4); ++sectionY)
+        {
+            SectionSnapshot section = chunk.getSection(sectionY);
+            final int sectionMinY = sectionY << 4;
+            final int y1 = Math.max(yMin, sectionMinY);
+            final int y2 = Math.min(yMax, sectionMinY + 15);
+            final int volume = columns * (y2 - y1 + 1);
+
+            if (section.isSingleValue())
+            {
+                SectionSnapshot.addCount(counts, touchedStates, section.getPaletteEntry(0), volume);
+            }
+            else if (fullColumns && y1 == sectionMinY && y2 == sectionMinY + 15)
+            {
+                section.countStates(counts, worker.indexBuffer, touchedStates);
+            }
+            else
+            {
+                countBlocksInSection(section, counts, touchedStates, worker.indexBuffer, xMin, y1, zMin, xMax, y2, zMax);
+            }
+
+            worker.blockCount += volume;
+        }
+
+        if (topY < posMax.getY())
+        {
+            SectionSnapshot.addCount(counts, touchedStates, airId, (long) (posMax.getY() - Math.max(topY, posMin.getY() - 1)) * (xMax - xMin + 1) * (zMax - zMin + 1));
+        }
+
+        // The counts array is only used for one chunk at a time in the approximate mode
+        if (worker.sketch != null)
+        {
+            moveCountsToSketch(counts, touchedStates, worker.sketch);
+        }
+    }
+
+    @Override
+    public void mergeWorkers(SnapshotCounts into, SnapshotCounts from)
+    {
+        if (into.sketch != null && from.sketch != null)
+        {
+            into.sketch.merge(from.sketch);
+        }
+        else
+        {
+            final long[] countsInto = into.counts;
+            final long[] countsFrom = from.counts;
 
-        this.addParsedData(counts);
+            for (int i = 0; i < countsInto.length; ++i)
+            {
+                countsInto[i] += countsFrom[i];
+            }
+        }
+
+        into.blockCount += from.blockCount;
     }
 
-    private void addParsedData(Object2LongOpenHashMap<BlockState> counts)
+    @Override
+    public void onScanFinished(SnapshotCounts results, int chunkCount, long durationNanos)
     {
-        if (this.append == false)
+        this.chunkCount = this.append ? this.chunkCount + chunkCount : chunkCount;
+
+        TellMe.logger.info(String.format(Locale.US, "Counted %d blocks in %d chunks in %.4f seconds (using %d threads).",
+                results.blockCount, chunkCount, durationNanos / 1000000000D, ParallelChunkScanner.getThreadCount()));
+
+        if (results.sketch != null)
+        {
+            this.addScanSketch(results.sketch);
+        }
+        else
+        {
+            this.addScanCounts(results.counts);
+        }
+    }
+
+    private void addScanSketch(FrequencySketch scanSketch)
+    {
+        if (this.append && this.sketch != null && this.sketch.getCapacity() == scanSketch.getCapacity())
+        {
+            this.sketch.merge(scanSketch);
+        }
+        else
         {
-            this.blockStats.clear();
+            // Appending to exact results turns them into approximate results
+            if (this.append)
+            {
+                moveCountsToSketch(this.counts, scanSketch);
+            }
+
+            this.sketch = scanSketch;
         }
 
-        for (final BlockState state : counts.keySet())
+        Arrays.fill(this.counts, 0L);
+    }
+
+    private void addScanCounts(long[] scanCounts)
+    {
+        if (this.sketch != null)
         {
-            try
+            // Appending exact counts to approximate results keeps the results approximate
+            if (this.append)
             {
-                final Block block = state.getBlock();
-                final ResourceLocation id = ForgeRegistries.BLOCKS.getKey(block);
-                final long amount = counts.getLong(state);
+                moveCountsToSketch(scanCounts, this.sketch);
+                return;
+            }
 
-                if (id == null)
-                {
-                    TellMe.logger.warn("Non-registered block: class = {}, state = {}", block.getClass().getName(), state);
-                }
+            this.sketch = null;
+        }
 
-                BlockStateCount info = this.blockStats.computeIfAbsent(state, (s) -> new BlockStateCount(state, id, 0));
+        if (this.append && this.counts.length == scanCounts.length)
+        {
+            final long[] counts = this.counts;
 
-                if (this.append)
-                {
-                    info.addToCount(amount);
-                }
-                else
+            for (int i = 0; i < counts.length; ++i)
+            {
+                counts[i] += scanCounts[i];
+            }
+        }
+        // Swap the arrays, so that the old results array gets reused for the next scan
+        else if (scanCounts == this.scanCounts)
+        {
+            this.scanCounts = this.counts;
+            this.counts = scanCounts;
+        }
+        else
+        {
+            this.counts = scanCounts;
+        }
+    }
+
+    /**
+     * Creates the result entries for the given state IDs, skipping the states that weren't found
+     */
+    private List<BlockStateCount> getCountsForStates(IntCollection stateIds)
+    {
+        List<BlockStateCount> list = new ArrayList<>();
+        final long[] counts = this.counts;
+
+        for (IntIterator it = stateIds.iterator(); it.hasNext(); )
+        {
+            int stateId = it.nextInt();
+
+            if (stateId >= 0 && stateId < counts.length && counts[stateId] != 0)
+            {
+                BlockState state = Block.BLOCK_STATE_REGISTRY.byId(stateId);
+                ResourceLocation id = state != null ? ForgeRegistries.BLOCKS.getKey(state.getBlock()) : null;
+
+                if (id == null)
                 {
-                    info.setCount(amount);
+                    TellMe.logger.warn("Non-registered block: state = {}", state);
+                    continue;
                 }
+
+                list.add(new BlockStateCount(state, id, counts[stateId]));
             }
-            catch (Exception e)
+        }
+
+        return list;
+    }
+
+    private IntCollection getAllCountedStateIds()
+    {
+        IntArrayList list = new IntArrayList();
+        final long[] counts = this.counts;
+
+        for (int i = 0; i < counts.length; ++i)
+        {
+            if (counts[i] != 0)
             {
-                TellMe.logger.error("Caught an exception while getting block names", e);
+                list.add(i);
             }
         }
+
+        return list;
     }
 
     private List<BlockStateCount> getFilteredData(List<String> filters) throws CommandSyntaxException
     {
-        ArrayList<BlockStateCount> list = new ArrayList<>();
-        ArrayListMultimap<Block, BlockStateCount> infoByBlock = ArrayListMultimap.create();
-        DynamicCommandExceptionType exception = new DynamicCommandExceptionType((type) -> new TextComponent("Invalid block state filter: '" + type + "'"));
+        return this.getCountsForStates(getStateIdsForFilters(filters));
+    }
 
-        for (BlockStateCount info : this.blockStats.values())
-        {
-            infoByBlock.put(info.state.getBlock(), info);
-        }
+    /**
+     * Parses the given block or block state filters into the matching block state IDs
+     */
+    static IntLinkedOpenHashSet getStateIdsForFilters(List<String> filters) throws CommandSyntaxException
+    {
+        IntLinkedOpenHashSet stateIds = new IntLinkedOpenHashSet();
+        DynamicCommandExceptionType exception = new DynamicCommandExceptionType((type) -> new TextComponent("Invalid block state filter: '" + type + "'"));
 
         for (String filter : filters)
         {
@@ -161,35 +637,31 @@ public class BlockStats extends ChunkProcessorAllChunks
             // No block state properties specified, get all states for this block
             if (parsedProperties.size() == 0)
             {
-                list.addAll(infoByBlock.get(block));
+                for (BlockState s : block.getStateDefinition().getPossibleStates())
+                {
+                    stateIds.add(Block.BLOCK_STATE_REGISTRY.getId(s));
+                }
             }
             // Exact state specified, only add that state
             else if (parsedProperties.size() == state.getValues().size())
             {
-                BlockStateCount info = this.blockStats.get(state);
-
-                if (info != null)
-                {
-                    list.add(info);
-                }
+                stateIds.add(Block.BLOCK_STATE_REGISTRY.getId(state));
             }
             // Some properties specified, filter by those
             else
             {
-                List<BlockStateCount> listIn = infoByBlock.get(block);
-
                 // Accept states whose properties are not being filtered, or the value matches the filter
-                for (BlockStateCount info : listIn)
+                for (BlockState s : block.getStateDefinition().getPossibleStates())
                 {
-                    if (BlockInfo.statePassesFilter(info.state, parsedProperties))
+                    if (BlockInfo.statePassesFilter(s, parsedProperties))
                     {
-                        list.add(info);
+                        stateIds.add(Block.BLOCK_STATE_REGISTRY.getId(s));
                     }
                 }
             }
         }
 
-        return list;
+        return stateIds;
     }
 
     public List<String> queryAll(Format format, CommandUtils.BlockStateGrouping grouping, boolean sortByCount) throws CommandSyntaxException
@@ -199,6 +671,16 @@ public class BlockStats extends ChunkProcessorAllChunks
 
     public List<String> query(Format format, CommandUtils.BlockStateGrouping grouping, boolean sortByCount, @Nullable List<String> filters) throws CommandSyntaxException
     {
+        if (grouping.isRollup())
+        {
+            return this.queryRollup(format, grouping, sortByCount, filters);
+        }
+
+        if (this.sketch != null)
+        {
+            return this.queryApproximate(this.sketch, format, grouping, sortByCount, filters);
+        }
+
         DataDump dump = new DataDump(3, format);
         List<BlockStateCount> list = new ArrayList<>();
 
@@ -208,7 +690,7 @@ public class BlockStats extends ChunkProcessorAllChunks
         }
         else
         {
-            list.addAll(this.blockStats.values());
+            list.addAll(this.getCountsForStates(this.getAllCountedStateIds()));
         }
 
         if (grouping == CommandUtils.BlockStateGrouping.BY_BLOCK)
@@ -232,11 +714,11 @@ public class BlockStats extends ChunkProcessorAllChunks
         {
             if (grouping == CommandUtils.BlockStateGrouping.BY_STATE)
             {
-                dump.addData(BlockInfo.blockStateToString(info.state), info.displayName, String.valueOf(info.count));
+                dump.addData(BlockInfo.blockStateToString(info.state), info.getDisplayName(), String.valueOf(info.count));
             }
             else
             {
-                dump.addData(info.registryName, info.displayName, String.valueOf(info.count));
+                dump.addData(info.registryName, info.getDisplayName(), String.valueOf(info.count));
             }
 
             boolean isAir = info.state.isAir();
@@ -257,35 +739,191 @@ public class BlockStats extends ChunkProcessorAllChunks
         return dump.getLines();
     }
 
-    private static class BlockStateCount
+    /**
+     * Lists the total non-air block counts per mod namespace or per block tag.
+     * The counts are summed via the precomputed {@link BlockStateRollupTables}, without looking up the tags of each counted state.
+     */
+    private List<String> queryRollup(Format format, CommandUtils.BlockStateGrouping grouping, boolean sortByCount, @Nullable List<String> filters) throws CommandSyntaxException
+    {
+        if (this.sketch != null)
+        {
+            throw (new SimpleCommandExceptionType(new TextComponent("The by-mod and by-tag groupings need the exact results from the count command"))).create();
+        }
+
+        DataDump dump = new DataDump(2, format);
+        BlockStateRollupTables tables = BlockStateRollupTables.INSTANCE;
+        final boolean byTag = grouping == CommandUtils.BlockStateGrouping.BY_TAG;
+        int[] stateIds = filters != null ? getStateIdsForFilters(filters).toIntArray() : null;
+        long[] sums = byTag ? tables.sumByTag(this.counts, stateIds) : tables.sumByNamespace(this.counts, stateIds);
+        ResourceLocation[] tags = tables.getTags();
+        String[] namespaces = tables.getNamespaces();
+
+        if (sortByCount)
+        {
+            dump.setSortColumn(1).setSortReverse(true);
+        }
+
+        for (int i = 0; i < sums.length; ++i)
+        {
+            if (sums[i] != 0)
+            {
+                dump.addData(byTag ? "#" + tags[i] : namespaces[i], String.valueOf(sums[i]));
+            }
+        }
+
+        dump.addTitle(byTag ? "Block tag" : "Mod", "Count");
+        dump.addFooter(String.format("Block stats from an area touching %d chunks", this.chunkCount));
+
+        if (byTag)
+        {
+            dump.addFooter("The blocks with several tags are counted in each of them");
+        }
+
+        dump.setColumnProperties(1, Alignment.RIGHT, true); // count
+
+        return dump.getLines();
+    }
+
+    /**
+     * Lists the most common block states from the approximate results, or the given filtered states,
+     * with the upper estimate and a guaranteed lower bound of each count
+     */
+    private List<String> queryApproximate(FrequencySketch sketch, Format format, CommandUtils.BlockStateGrouping grouping,
+                                          boolean sortByCount, @Nullable List<String> filters) throws CommandSyntaxException
+    {
+        DataDump dump = new DataDump(4, format);
+        List<BlockStateCount> estimates = new ArrayList<>();
+        List<BlockStateCount> lowerBounds = new ArrayList<>();
+        Map<Block, Integer> blockRows = new IdentityHashMap<>();
+
+        if (sortByCount)
+        {
+            dump.setSortColumn(2).setSortReverse(true);
+        }
+
+        if (filters != null)
+        {
+            for (IntIterator it = getStateIdsForFilters(filters).iterator(); it.hasNext(); )
+            {
+                final int stateId = it.nextInt();
+                addApproximateCount(stateId, sketch.estimateCount(stateId), sketch.getLowerBound(stateId), grouping, estimates, lowerBounds, blockRows);
+            }
+        }
+        else
+        {
+            for (long stateId : sketch.getHeavyHitters())
+            {
+                addApproximateCount((int) stateId, sketch.estimateCount(stateId), sketch.getLowerBound(stateId), grouping, estimates, lowerBounds, blockRows);
+            }
+        }
+
+        long total = 0L;
+        long totalLower = 0L;
+
+        for (int i = 0; i < estimates.size(); ++i)
+        {
+            BlockStateCount info = estimates.get(i);
+            final long lower = lowerBounds.get(i).count;
+            String name = grouping == CommandUtils.BlockStateGrouping.BY_STATE ? BlockInfo.blockStateToString(info.state) : info.registryName;
+
+            dump.addData(name, info.getDisplayName(), String.valueOf(info.count), String.valueOf(lower));
+
+            if (info.state.isAir() == false)
+            {
+                total += info.count;
+                totalLower += lower;
+            }
+        }
+
+        dump.addTitle("Registry name", "Display name", "Estimate", "At least");
+        dump.addFooter(String.format("Approximate block stats from an area touching %d chunks, tracking the %d most common block states", this.chunkCount, sketch.getCapacity()));
+        dump.addFooter(String.format(Locale.US, "The estimates are never too low, and are at most %d too high with a %.1f%% probability",
+                                     sketch.getEstimateErrorBound(), sketch.getErrorBoundProbability() * 100.0));
+        dump.addFooter("The \"At least\" counts are always correct lower bounds, and 0 for the states outside the tracked ones");
+        dump.addFooter(String.format("The listed output contains %d - %d non-air blocks", totalLower, total));
+
+        dump.setColumnProperties(2, Alignment.RIGHT, true); // estimate
+        dump.setColumnProperties(3, Alignment.RIGHT, true); // lower bound
+
+        return dump.getLines();
+    }
+
+    private static void addApproximateCount(int stateId, long estimate, long lowerBound, CommandUtils.BlockStateGrouping grouping,
+                                            List<BlockStateCount> estimates, List<BlockStateCount> lowerBounds, Map<Block, Integer> blockRows)
+    {
+        BlockState state = estimate != 0 ? Block.BLOCK_STATE_REGISTRY.byId(stateId) : null;
+        ResourceLocation id = state != null ? ForgeRegistries.BLOCKS.getKey(state.getBlock()) : null;
+
+        if (id == null)
+        {
+            return;
+        }
+
+        if (grouping == CommandUtils.BlockStateGrouping.BY_BLOCK)
+        {
+            Integer row = blockRows.get(state.getBlock());
+
+            if (row != null)
+            {
+                estimates.get(row).addToCount(estimate);
+                lowerBounds.get(row).addToCount(lowerBound);
+                return;
+            }
+
+            blockRows.put(state.getBlock(), estimates.size());
+        }
+
+        estimates.add(new BlockStateCount(state, id, estimate));
+        lowerBounds.add(new BlockStateCount(state, id, lowerBound));
+    }
+
+    public static class SnapshotCounts
+    {
+        private final long[] counts = new long[Block.BLOCK_STATE_REGISTRY.size()];
+        private final int[] indexBuffer = new int[SectionDataDecoder.SECTION_SIZE];
+        @Nullable private final FrequencySketch sketch;
+        // The state IDs with non-zero counts, only tracked when using the sketch
+        @Nullable private final IntArrayList touchedStates;
+        private long blockCount;
+
+        public SnapshotCounts(@Nullable FrequencySketch sketch)
+        {
+            this.sketch = sketch;
+            this.touchedStates = sketch != null ? new IntArrayList() : null;
+        }
+    }
+
+    static class BlockStateCount
     {
         public final BlockState state;
         public final ResourceLocation id;
         public final String registryName;
-        public final String displayName;
+        @Nullable private String displayName;
         public long count;
 
         public BlockStateCount(BlockState state, ResourceLocation id, long count)
         {
-            Block block = state.getBlock();
-            ItemStack stack = new ItemStack(block);
-            String displayName = stack.isEmpty() == false ? stack.getHoverName().getString() : (new TranslatableComponent(block.getDescriptionId())).getString();
-
             this.state = state;
             this.id = id;
             this.registryName = id.toString();
-            this.displayName = displayName;
             this.count = count;
         }
 
-        public void addToCount(long amount)
+        public String getDisplayName()
         {
-            this.count += amount;
+            if (this.displayName == null)
+            {
+                Block block = this.state.getBlock();
+                ItemStack stack = new ItemStack(block);
+                this.displayName = stack.isEmpty() == false ? stack.getHoverName().getString() : (new TranslatableComponent(block.getDescriptionId())).getString();
+            }
+
+            return this.displayName;
         }
 
-        public void setCount(long amount)
+        public void addToCount(long amount)
         {
-            this.count = amount;
+            this.count += amount;
         }
 
         public String getRegistryName()
@@ -0,0 +1,477 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraftforge.registries.ForgeRegistries;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.command.CommandUtils;
+import fi.dy.masa.tellme.util.BlockInfo;
+import fi.dy.masa.tellme.util.datadump.DataDump;
+import fi.dy.masa.tellme.util.datadump.DataDump.Alignment;
+import fi.dy.masa.tellme.util.datadump.DataDump.Format;
+
+/**
+ * Counts the blocks separately on each y-level, for example for looking at the vertical distribution of ores.
+ * The counts are stored as a dense matrix with one row per y-level, and one column per block state.
+ * The columns are only assigned to the states as they are found, so that the rows stay small,
+ * even though the total number of block states can be very large.
+ */
+public class BlockStatsByY extends ChunkProcessorAllChunks implements ISnapshotChunkProcessor<BlockStatsByY.LayerCounts>
+{
+    private final FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(8192));
+    private LayerCounts counts = new LayerCounts();
+    private LayerCounts scanCounts = new LayerCounts();
+    private int chunkCount;
+    private boolean append;
+
+    public void setAppend(boolean append)
+    {
+        this.append = append;
+    }
+
+    @Override
+    protected void onScanStart()
+    {
+        this.scanCounts = new LayerCounts();
+    }
+
+    @Override
+    protected void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        this.processChunk(this.scanCounts, ChunkSnapshot.of(chunk, this.buf), posMin, posMax);
+    }
+
+    @Override
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
+        this.chunkCount = this.append ? this.chunkCount + chunkCount : chunkCount;
+
+        TellMe.logger.info(String.format(Locale.US, "Counted %d blocks by y-level in %d chunks in %.4f seconds.",
+                this.scanCounts.blockCount, chunkCount, durationNanos / 1000000000D));
+
+        this.addScanCounts(this.scanCounts);
+    }
+
+    @Override
+    public LayerCounts createWorker()
+    {
+        return new LayerCounts();
+    }
+
+    @Override
+    public void processChunk(LayerCounts counts, ChunkSnapshot chunk, BlockPos posMin, BlockPos posMax)
+    {
+        ChunkPos chunkPos = chunk.getPos();
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        final int topY = chunk.getTopY();
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int yMax = Math.min(topY, posMax.getY());
+        final int yMaxTotal = Math.min(chunk.getMaxBuildHeight() - 1, posMax.getY());
+        final boolean fullColumns = xMin == (chunkPos.x << 4) && xMax == (chunkPos.x << 4) + 15 &&
+                                    zMin == (chunkPos.z << 4) && zMax == (chunkPos.z << 4) + 15;
+        final int columns = (xMax - xMin + 1) * (zMax - zMin + 1);
+
+        if (yMin > yMaxTotal)
+        {
+            return;
+        }
+
+        counts.ensureRange(yMin, yMaxTotal);
+
+        for (int sectionY = yMin >> 4; yMin <= yMax && sectionY <= (yMax >> 4); ++sectionY)
+        {
+            final int sectionMinY = sectionY << 4;
+            final int y1 = Math.max(yMin, sectionMinY);
+            final int y2 = Math.min(yMax, sectionMinY + 15);
+
+            counts.countSection(chunk.getSection(sectionY), fullColumns, xMin, y1, zMin, xMax, y2, zMax);
+        }
+
+        // Add the air in the non-existing chunk sections above the highest section, within the given volume
+        if (yMax < yMaxTotal)
+        {
+            final int airColumn = counts.getColumn(Block.BLOCK_STATE_REGISTRY.getId(Blocks.AIR.defaultBlockState()));
+
+            for (int y = Math.max(yMax + 1, yMin); y <= yMaxTotal; ++y)
+            {
+                counts.getRow(y)[airColumn] += columns;
+            }
+        }
+
+        counts.blockCount += (long) columns * (yMaxTotal - yMin + 1);
+    }
+
+    @Override
+    public void mergeWorkers(LayerCounts into, LayerCounts from)
+    {
+        into.addAll(from);
+    }
+
+    @Override
+    public void onScanFinished(LayerCounts results, int chunkCount, long durationNanos)
+    {
+        this.chunkCount = this.append ? this.chunkCount + chunkCount : chunkCount;
+
+        TellMe.logger.info(String.format(Locale.US, "Counted %d blocks by y-level in %d chunks in %.4f seconds (using %d threads).",
+                results.blockCount, chunkCount, durationNanos / 1000000000D, ParallelChunkScanner.getThreadCount()));
+
+        this.addScanCounts(results);
+    }
+
+    private void addScanCounts(LayerCounts scanCounts)
+    {
+        if (this.append)
+        {
+            this.counts.addAll(scanCounts);
+        }
+        else
+        {
+            this.counts = scanCounts;
+        }
+
+        this.scanCounts = new LayerCounts();
+    }
+
+    /**
+     * Creates the output of the stored counts.
+     * @param rowsPerState if true, then each block (state) is on its own row, with one column per y-level (or y-range).
+     * Otherwise each y-level (or y-range) is on its own row, with one column per block (state).
+     * @param bucketSize the number of y-levels to combine into one y-range
+     */
+    public List<String> query(Format format, CommandUtils.BlockStateGrouping grouping, boolean rowsPerState,
+                              int bucketSize, @Nullable List<String> filters) throws CommandSyntaxException
+    {
+        final LayerCounts counts = this.counts;
+        IntSet filterStateIds = filters != null && filters.isEmpty() == false ? BlockStats.getStateIdsForFilters(filters) : null;
+        Map<String, IntArrayList> entries = new TreeMap<>();
+
+        // Group the count columns by the output name
+        for (int column = 0; column < counts.stateOfColumn.size(); ++column)
+        {
+            final int stateId = counts.stateOfColumn.getInt(column);
+
+            if (filterStateIds != null && filterStateIds.contains(stateId) == false)
+            {
+                continue;
+            }
+
+            BlockState state = Block.BLOCK_STATE_REGISTRY.byId(stateId);
+            ResourceLocation id = state != null ? ForgeRegistries.BLOCKS.getKey(state.getBlock()) : null;
+
+            if (id == null)
+            {
+                TellMe.logger.warn("Non-registered block: state = {}", state);
+                continue;
+            }
+
+            String name = grouping == CommandUtils.BlockStateGrouping.BY_STATE ? BlockInfo.blockStateToString(state) : id.toString();
+            entries.computeIfAbsent(name, (n) -> new IntArrayList()).add(column);
+        }
+
+        final int minY = counts.minY;
+        final int maxY = counts.minY + counts.rows.length - 1;
+        final int firstBucket = Math.floorDiv(minY, bucketSize) * bucketSize;
+        final int bucketCount = counts.rows.length > 0 ? (maxY - firstBucket) / bucketSize + 1 : 0;
+        List<String> names = new ArrayList<>(entries.keySet());
+        int[][] entryColumns = new int[names.size()][];
+        String[] bucketLabels = new String[bucketCount];
+        long[][] values = new long[names.size()][bucketCount];
+
+        for (int i = 0; i < names.size(); ++i)
+        {
+            entryColumns[i] = entries.get(names.get(i)).toIntArray();
+        }
+
+        for (int bucket = 0; bucket < bucketCount; ++bucket)
+        {
+            final int y1 = Math.max(minY, firstBucket + bucket * bucketSize);
+            final int y2 = Math.min(maxY, firstBucket + (bucket + 1) * bucketSize - 1);
+            bucketLabels[bucket] = y1 == y2 ? String.valueOf(y1) : y1 + ".." + y2;
+
+            for (int y = y1; y <= y2; ++y)
+            {
+                final long[] row = counts.getRow(y);
+
+                for (int i = 0; i < names.size(); ++i)
+                {
+                    for (int column : entryColumns[i])
+                    {
+                        values[i][bucket] += row[column];
+                    }
+                }
+            }
+        }
+
+        String nameTitle = grouping == CommandUtils.BlockStateGrouping.BY_STATE ? "Block state" : "Registry name";
+        DataDump dump;
+
+        if (rowsPerState)
+        {
+            dump = new DataDump(bucketCount + 1, format);
+
+            for (int i = 0; i < names.size(); ++i)
+            {
+                String[] data = new String[bucketCount + 1];
+                data[0] = names.get(i);
+
+                for (int bucket = 0; bucket < bucketCount; ++bucket)
+                {
+                    data[bucket + 1] = String.valueOf(values[i][bucket]);
+                }
+
+                dump.addData(data);
+            }
+
+            String[] title = new String[bucketCount + 1];
+            title[0] = nameTitle;
+            System.arraycopy(bucketLabels, 0, title, 1, bucketCount);
+            dump.addTitle(title);
+
+            for (int bucket = 0; bucket < bucketCount; ++bucket)
+            {
+                dump.setColumnProperties(bucket + 1, Alignment.RIGHT, true);
+            }
+        }
+        else
+        {
+            dump = new DataDump(names.size() + 1, format);
+
+            // Top y-level first, like in the world
+            for (int bucket = bucketCount - 1; bucket >= 0; --bucket)
+            {
+                String[] data = new String[names.size() + 1];
+                data[0] = bucketLabels[bucket];
+
+                for (int i = 0; i < names.size(); ++i)
+                {
+                    data[i + 1] = String.valueOf(values[i][bucket]);
+                }
+
+                dump.addData(data);
+            }
+
+            String[] title = new String[names.size() + 1];
+            title[0] = "Y";
+
+            for (int i = 0; i < names.size(); ++i)
+            {
+                title[i + 1] = names.get(i);
+                dump.setColumnProperties(i + 1, Alignment.RIGHT, true);
+            }
+
+            dump.addTitle(title);
+            dump.setColumnProperties(0, Alignment.RIGHT, bucketSize == 1);
+        }
+
+        dump.addFooter(String.format("Block stats by y-level from an area touching %d chunks", this.chunkCount));
+        dump.setSort(false);
+
+        return dump.getLines();
+    }
+
+    /**
+     * The per-y-level block counts. The rows are indexed by the y-level (starting from minY),
+     * and the columns by the column IDs assigned to the block states.
+     */
+    public static class LayerCounts
+    {
+        private final int[] columnOfState = new int[Block.BLOCK_STATE_REGISTRY.size()];
+        private final IntArrayList stateOfColumn = new IntArrayList();
+        private final int[] indexBuffer = new int[SectionDataDecoder.SECTION_SIZE];
+        private int[] paletteColumns = new int[256];
+        private long[][] rows = new long[0][];
+        private int columnCapacity = 64;
+        private int minY;
+        private long blockCount;
+
+        public LayerCounts()
+        {
+            Arrays.fill(this.columnOfState, -1);
+        }
+
+        private int getColumn(int stateId)
+        {
+            int column = this.columnOfState[stateId];
+
+            if (column == -1)
+            {
+                column = this.stateOfColumn.size();
+                this.stateOfColumn.add(stateId);
+                this.columnOfState[stateId] = column;
+
+                if (column >= this.columnCapacity)
+                {
+                    this.columnCapacity *= 2;
+
+                    for (int i = 0; i < this.rows.length; ++i)
+                    {
+                        this.rows[i] = Arrays.copyOf(this.rows[i], this.columnCapacity);
+                    }
+                }
+            }
+
+            return column;
+        }
+
+        /**
+         * Makes sure that the rows for the given y-range exist
+         */
+        private void ensureRange(int yMin, int yMax)
+        {
+            final int oldMaxY = this.minY + this.rows.length - 1;
+
+            if (this.rows.length > 0 && yMin >= this.minY && yMax <= oldMaxY)
+            {
+                return;
+            }
+
+            final int newMinY = this.rows.length > 0 ? Math.min(yMin, this.minY) : yMin;
+            final int newMaxY = this.rows.length > 0 ? Math.max(yMax, oldMaxY) : yMax;
+            long[][] newRows = new long[newMaxY - newMinY + 1][];
+
+            System.arraycopy(this.rows, 0, newRows, this.minY - newMinY, this.rows.length);
+
+            for (int i = 0; i < newRows.length; ++i)
+            {
+                if (newRows[i] == null)
+                {
+                    newRows[i] = new long[this.columnCapacity];
+                }
+            }
+
+            this.rows = newRows;
+            this.minY = newMinY;
+        }
+
+        private long[] getRow(int y)
+        {
+            return this.rows[y - this.minY];
+        }
+
+        /**
+         * Counts the blocks within the given range inside one section. The rows for the range must already exist.
+         */
+        private void countSection(SectionSnapshot section, boolean fullColumns, int xMin, int yMin, int zMin, int xMax, int yMax, int zMax)
+        {
+            if (section.isSingleValue())
+            {
+                final int column = this.getColumn(section.getPaletteEntry(0));
+                final int perLayer = (xMax - xMin + 1) * (zMax - zMin + 1);
+
+                for (int y = yMin; y <= yMax; ++y)
+                {
+                    this.getRow(y)[column] += perLayer;
+                }
+
+                return;
+            }
+
+            // Convert the decoded palette indices (or state IDs) into the count columns first,
+            // so that the rows don't get re-allocated by new columns in the middle of the counting
+            final int[] columns = this.indexBuffer;
+            section.decode(columns);
+
+            if (section.hasPalette())
+            {
+                final int size = section.getPaletteSize();
+
+                if (this.paletteColumns.length < size)
+                {
+                    this.paletteColumns = new int[size];
+                }
+
+                for (int i = 0; i < size; ++i)
+                {
+                    this.paletteColumns[i] = this.getColumn(section.getPaletteEntry(i));
+                }
+
+                for (int i = 0; i < columns.length; ++i)
+                {
+                    columns[i] = this.paletteColumns[columns[i]];
+                }
+            }
+            else
+            {
+                for (int i = 0; i < columns.length; ++i)
+                {
+                    columns[i] = this.getColumn(columns[i]);
+                }
+            }
+
+            for (int y = yMin; y <= yMax; ++y)
+            {
+                final long[] row = this.getRow(y);
+
+                if (fullColumns)
+                {
+                    final int start = (y & 15) << 8;
+                    final int end = start + 256;
+
+                    for (int i = start; i < end; ++i)
+                    {
+                        ++row[columns[i]];
+                    }
+                }
+                else
+                {
+                    for (int z = zMin; z <= zMax; ++z)
+                    {
+                        for (int x = xMin; x <= xMax; ++x)
+                        {
+                            ++row[columns[SectionSnapshot.getIndex(x & 15, y & 15, z & 15)]];
+                        }
+                    }
+                }
+            }
+        }
+
+        private void addAll(LayerCounts other)
+        {
+            final int columnCount = other.stateOfColumn.size();
+            int[] columnMap = new int[columnCount];
+
+            for (int column = 0; column < columnCount; ++column)
+            {
+                columnMap[column] = this.getColumn(other.stateOfColumn.getInt(column));
+            }
+
+            if (other.rows.length > 0)
+            {
+                this.ensureRange(other.minY, other.minY + other.rows.length - 1);
+
+                for (int i = 0; i < other.rows.length; ++i)
+                {
+                    final long[] rowFrom = other.rows[i];
+                    final long[] rowInto = this.getRow(other.minY + i);
+
+                    for (int column = 0; column < columnCount; ++column)
+                    {
+                        rowInto[columnMap[column]] += rowFrom[column];
+                    }
+                }
+            }
+
+            this.blockCount += other.blockCount;
+        }
+    }
+}
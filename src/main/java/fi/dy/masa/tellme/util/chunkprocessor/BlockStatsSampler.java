@@ -0,0 +1,391 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.Nullable;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraftforge.registries.ForgeRegistries;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.command.CommandUtils;
+import fi.dy.masa.tellme.config.Configs;
+import fi.dy.masa.tellme.util.BlockInfo;
+import fi.dy.masa.tellme.util.datadump.DataDump;
+import fi.dy.masa.tellme.util.datadump.DataDump.Alignment;
+
+/**
+ * Estimates the block counts of a large area from a random sample of its chunks.
+ * The sampled chunks are counted exactly, using the same counting loop as {@link BlockStats},
+ * and the totals are extrapolated from the mean count per chunk. The 95% confidence intervals
+ * come from the variation of the counts between the sampled chunks.
+ * The sample is either a fixed fraction of the chunks in the area, or it grows until
+ * the estimates reach the given relative margin of error.
+ */
+public class BlockStatsSampler extends ChunkProcessorAllChunks
+{
+    private static final double Z_95 = 1.959964;
+    private static final int MIN_SAMPLES_FOR_TARGET_ERROR = 30;
+    // Without any filters, only the states (or blocks) with at least this share of the volume need to reach the target error
+    private static final double MIN_SHARE_FOR_TARGET_ERROR = 0.01;
+
+    private final BlockStats counter = new BlockStats();
+    private final DataDump.Format format;
+    private final CommandUtils.BlockStateGrouping grouping;
+    private final boolean filtered;
+    private final double fraction;
+    private final double targetError;
+    private final long seed;
+    // The result key of each block state ID, which is the ID of the block's default state when grouping by block, or -1 if not counted
+    private final int[] keyOfState;
+    private final long[] chunkStateCounts;
+    private final long[] chunkKeyCounts;
+    private final IntArrayList chunkKeys = new IntArrayList();
+    // The state IDs with non-zero counts in chunkStateCounts
+    private final IntArrayList chunkStates = new IntArrayList();
+    private final long[] sums;
+    private final double[] sumSquares;
+    private int totalChunks;
+    private int sampledChunks;
+    private int checkedSampleCount;
+    private long sampledVolume;
+
+    /**
+     * @param fraction the fraction of the chunks to sample, used if the target error is not set
+     * @param targetError the target relative margin of error of the 95% confidence intervals, or 0 to sample the given fraction instead
+     * @param filters the block (state) filters, or null to estimate all the block states
+     */
+    public BlockStatsSampler(DataDump.Format format, CommandUtils.BlockStateGrouping grouping, double fraction, double targetError,
+                             @Nullable List<String> filters) throws CommandSyntaxException
+    {
+        final int stateCount = Block.BLOCK_STATE_REGISTRY.size();
+
+        this.format = format;
+        this.grouping = grouping;
+        this.filtered = filters != null;
+        this.fraction = fraction;
+        this.targetError = targetError;
+        this.seed = (new Random()).nextLong();
+        this.keyOfState = new int[stateCount];
+        this.chunkStateCounts = new long[stateCount];
+        this.chunkKeyCounts = new long[stateCount];
+        this.sums = new long[stateCount];
+        this.sumSquares = new double[stateCount];
+
+        if (filters != null)
+        {
+            Arrays.fill(this.keyOfState, -1);
+
+            for (int stateId : BlockStats.getStateIdsForFilters(filters))
+            {
+                this.keyOfState[stateId] = this.getKey(stateId);
+            }
+        }
+        else
+        {
+            for (int stateId = 0; stateId < stateCount; ++stateId)
+            {
+                this.keyOfState[stateId] = this.getKey(stateId);
+            }
+        }
+    }
+
+    private int getKey(int stateId)
+    {
+        BlockState state = Block.BLOCK_STATE_REGISTRY.byId(stateId);
+
+        if (state != null && this.grouping == CommandUtils.BlockStateGrouping.BY_BLOCK)
+        {
+            return Block.BLOCK_STATE_REGISTRY.getId(state.getBlock().defaultBlockState());
+        }
+
+        return stateId;
+    }
+
+    /**
+     * Samples the chunks of the given area. The sampled chunks are loaded through a {@link ChunkStreamer} in a random order.
+     * The returned future completes on the server thread once the sampling has finished.
+     */
+    public CompletableFuture<Void> sampleAsync(ServerLevel world, BlockPos posMin, BlockPos posMax) throws CommandSyntaxException
+    {
+        this.validateCoordinates(world, posMin, posMax);
+
+        ChunkPos chunkPosMin = new ChunkPos(posMin.getX() >> 4, posMin.getZ() >> 4);
+        ChunkPos chunkPosMax = new ChunkPos(posMax.getX() >> 4, posMax.getZ() >> 4);
+        final SampledChunkStreamer streamer = new SampledChunkStreamer(world.getChunkSource(), chunkPosMin, chunkPosMax,
+                                                                       Configs.Generic.scanChunkWindowSize, this.seed);
+        this.totalChunks = streamer.getChunkCount();
+        final int sampleCount = this.targetError > 0 ? this.totalChunks : Math.max(1, (int) Math.ceil(this.totalChunks * this.fraction));
+
+        this.onScanStart();
+
+        return ChunkScanScheduler.scheduleStreaming(this.getClass().getSimpleName(), sampleCount,
+                                                    (i) -> streamer.processNext((chunk) -> this.processAndSummarizeChunk(chunk, posMin, posMax)),
+                                                    this::hasReachedTargetError,
+                                                    (duration) -> this.onScanEnd(this.sampledChunks, duration),
+                                                    this.progressListener)
+                                 .whenComplete((v, e) -> streamer.release());
+    }
+
+    @Override
+    protected boolean canProcessOnWorkerThreads()
+    {
+        return false;
+    }
+
+    @Override
+    protected void onScanStart()
+    {
+        Arrays.fill(this.sums, 0L);
+        Arrays.fill(this.sumSquares, 0.0);
+        this.sampledChunks = 0;
+        this.checkedSampleCount = 0;
+        this.sampledVolume = 0;
+    }
+
+    @Override
+    protected void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        final long[] stateCounts = this.chunkStateCounts;
+        final long[] keyCounts = this.chunkKeyCounts;
+        ChunkPos chunkPos = chunk.getPos();
+
+        this.counter.countChunk(chunk, stateCounts, this.chunkStates, posMin, posMax);
+
+        // Combine the state counts of the chunk into the result keys, and clear the state counts for the next chunk
+        for (int i = 0; i < this.chunkStates.size(); ++i)
+        {
+            final int stateId = this.chunkStates.getInt(i);
+            final int key = this.keyOfState[stateId];
+
+            if (key != -1)
+            {
+                if (keyCounts[key] == 0)
+                {
+                    this.chunkKeys.add(key);
+                }
+
+                keyCounts[key] += stateCounts[stateId];
+            }
+
+            stateCounts[stateId] = 0;
+        }
+
+        this.chunkStates.clear();
+
+        for (int i = 0; i < this.chunkKeys.size(); ++i)
+        {
+            final int key = this.chunkKeys.getInt(i);
+            final long count = keyCounts[key];
+
+            this.sums[key] += count;
+            this.sumSquares[key] += (double) count * count;
+            keyCounts[key] = 0;
+        }
+
+        this.chunkKeys.clear();
+
+        final long columns = (long) (Math.min((chunkPos.x << 4) + 15, posMax.getX()) - Math.max(chunkPos.x << 4, posMin.getX()) + 1) *
+                                   (Math.min((chunkPos.z << 4) + 15, posMax.getZ()) - Math.max(chunkPos.z << 4, posMin.getZ()) + 1);
+        this.sampledVolume += columns * (posMax.getY() - posMin.getY() + 1);
+        ++this.sampledChunks;
+    }
+
+    @Override
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
+        TellMe.logger.info(String.format(Locale.US, "Sampled %d out of %d chunks in %.4f seconds.",
+                                         chunkCount, this.totalChunks, durationNanos / 1000000000D));
+    }
+
+    private double getEstimate(int key)
+    {
+        return this.sampledChunks > 0 ? (double) this.sums[key] / this.sampledChunks * this.totalChunks : 0.0;
+    }
+
+    /**
+     * @return the margin of error of the 95% confidence interval of the estimated total for the given key
+     */
+    private double getMarginOfError(int key)
+    {
+        final int n = this.sampledChunks;
+
+        // All the chunks were counted, so the totals are exact
+        if (n >= this.totalChunks)
+        {
+            return 0.0;
+        }
+
+        if (n < 2)
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        final double mean = (double) this.sums[key] / n;
+        final double variance = Math.max(0.0, (this.sumSquares[key] - n * mean * mean) / (n - 1));
+        final double finitePopulationCorrection = 1.0 - (double) n / this.totalChunks;
+
+        return Z_95 * this.totalChunks * Math.sqrt(finitePopulationCorrection * variance / n);
+    }
+
+    /**
+     * @return true if all the estimates that need to be checked are within the target error.
+     * The states that haven't been found at all in the sample can't be estimated, and are ignored.
+     */
+    private boolean hasReachedTargetError()
+    {
+        final int n = this.sampledChunks;
+
+        // Only check every 16 chunks, as this goes through all the keys
+        if (this.targetError <= 0 || n < MIN_SAMPLES_FOR_TARGET_ERROR || n == this.checkedSampleCount || (n & 15) != 0)
+        {
+            return false;
+        }
+
+        this.checkedSampleCount = n;
+
+        for (int key = 0; key < this.sums.length; ++key)
+        {
+            final long sum = this.sums[key];
+
+            if (sum == 0 || (this.filtered == false && (double) sum / this.sampledVolume < MIN_SHARE_FOR_TARGET_ERROR))
+            {
+                continue;
+            }
+
+            if (this.getMarginOfError(key) > this.targetError * this.getEstimate(key))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public List<String> getLines()
+    {
+        DataDump dump = new DataDump(7, this.format);
+        long totalChunks = this.totalChunks;
+
+        dump.setSortColumn(2).setSortReverse(true);
+
+        for (int key = 0; key < this.sums.length; ++key)
+        {
+            if (this.sums[key] == 0)
+            {
+                continue;
+            }
+
+            BlockState state = Block.BLOCK_STATE_REGISTRY.byId(key);
+            ResourceLocation id = state != null ? ForgeRegistries.BLOCKS.getKey(state.getBlock()) : null;
+
+            if (id == null)
+            {
+                continue;
+            }
+
+            BlockStats.BlockStateCount info = new BlockStats.BlockStateCount(state, id, this.sums[key]);
+            String name = this.grouping == CommandUtils.BlockStateGrouping.BY_STATE ? BlockInfo.blockStateToString(state) : info.registryName;
+            final double estimate = this.getEstimate(key);
+            final double margin = this.getMarginOfError(key);
+            // The sampled chunks were counted exactly, so the total can't be lower than their count
+            final double low = Math.max(this.sums[key], estimate - margin);
+
+            dump.addData(name, info.getDisplayName(),
+                         String.valueOf(Math.round(estimate)),
+                         String.valueOf(Math.round(margin)),
+                         String.valueOf(Math.round(low)),
+                         String.valueOf(Math.round(estimate + margin)),
+                         String.format(Locale.US, "%.4f", (double) this.sums[key] / this.sampledVolume * 100.0));
+        }
+
+        dump.addTitle("Registry name", "Display name", "Estimate", "+/- 95%", "Low", "High", "Share %");
+        dump.addFooter(String.format(Locale.US, "Sampled %d out of %d chunks (%.2f %%), with the random seed %d",
+                                     this.sampledChunks, totalChunks, totalChunks > 0 ? this.sampledChunks * 100.0 / totalChunks : 0.0, this.seed));
+        dump.addFooter("The estimates have 95% confidence intervals, based on the variation between the sampled chunks");
+
+        for (int column = 2; column <= 6; ++column)
+        {
+            dump.setColumnProperties(column, Alignment.RIGHT, true);
+        }
+
+        return dump.getLines();
+    }
+
+    /**
+     * A {@link ChunkStreamer} that visits the chunks of the area in a pseudo-random order,
+     * so that any number of the first chunks are a random sample of the area.
+     * The order is a keyed bijection over the chunk indices, so it needs no memory per chunk.
+     */
+    private static class SampledChunkStreamer extends ChunkStreamer
+    {
+        private final int minX;
+        private final int minZ;
+        private final int width;
+        private final long count;
+        private final long mask;
+        private final int shift;
+        private final long[] keys = new long[4];
+        private long nextIndex;
+
+        private SampledChunkStreamer(ServerChunkCache chunkSource, ChunkPos posMin, ChunkPos posMax, int windowSize, long seed)
+        {
+            super(chunkSource, posMin, posMax, windowSize);
+
+            this.minX = Math.min(posMin.x, posMax.x);
+            this.minZ = Math.min(posMin.z, posMax.z);
+            this.width = Math.max(posMin.x, posMax.x) - this.minX + 1;
+            this.count = this.getChunkCount();
+
+            final int bits = Math.max(1, 64 - Long.numberOfLeadingZeros(this.count - 1));
+            this.mask = bits >= 64 ? -1L : (1L << bits) - 1;
+            this.shift = (bits + 1) / 2;
+
+            Random rand = new Random(seed);
+
+            for (int i = 0; i < this.keys.length; ++i)
+            {
+                this.keys[i] = rand.nextLong() & this.mask;
+            }
+        }
+
+        @Override
+        protected ChunkPos getNextPosition()
+        {
+            long index = this.nextIndex++;
+
+            // Cycle-walking: the permutation is over the next power of two, so repeat it until the index is inside the area
+            do
+            {
+                index = this.permute(index);
+            }
+            while (index >= this.count);
+
+            return new ChunkPos(this.minX + (int) (index % this.width), this.minZ + (int) (index / this.width));
+        }
+
+        private long permute(long index)
+        {
+            long x = index;
+
+            // Each step is a bijection within the mask: xor with a key, multiplication by an odd number, and a xorshift
+            for (long key : this.keys)
+            {
+                x = ((x ^ key) * 0x9E3779B97F4A7C15L) & this.mask;
+                x ^= x >>> this.shift;
+            }
+
+            return x;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+import com.mojang.brigadier.StringReader;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.commands.arguments.blocks.BlockStateParser;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraftforge.registries.ForgeRegistries;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.command.CommandUtils;
+import fi.dy.masa.tellme.config.Configs;
+import fi.dy.masa.tellme.util.BlockInfo;
+import fi.dy.masa.tellme.util.datadump.DataDump;
+import fi.dy.masa.tellme.util.datadump.DataDump.Alignment;
+import fi.dy.masa.tellme.util.datadump.DataDump.Format;
+
+/**
+ * A saved copy of the counts of a {@link BlockStats} result, for comparing the results from different points in time.
+ * The files have a table of the block registry names, and the non-zero counts keyed by the index
+ * in that table and the block state properties. The states are resolved to the current
+ * block state IDs when the file is read, so the snapshots stay valid across game sessions.
+ */
+public class BlockStatsSnapshot
+{
+    public static final String CURRENT_DATA = "current";
+    private static final String FILE_EXTENSION = ".bin";
+    private static final int FILE_VERSION = 1;
+
+    private final String name;
+    // The counts are indexed by the block state IDs from Block.BLOCK_STATE_REGISTRY
+    private final long[] counts;
+    private final int chunkCount;
+    private final long timestamp;
+
+    private BlockStatsSnapshot(String name, long[] counts, int chunkCount, long timestamp)
+    {
+        this.name = name;
+        this.counts = counts;
+        this.chunkCount = chunkCount;
+        this.timestamp = timestamp;
+    }
+
+    public static BlockStatsSnapshot of(String name, BlockStats stats)
+    {
+        long[] counts = Arrays.copyOf(stats.getCounts(), Block.BLOCK_STATE_REGISTRY.size());
+        return new BlockStatsSnapshot(name, counts, stats.getChunkCount(), System.currentTimeMillis());
+    }
+
+    public static File getSnapshotFile(String name)
+    {
+        return new File(new File(Configs.dumpOutputDir, "block_stats_snapshots"), name + FILE_EXTENSION);
+    }
+
+    public static List<String> getSnapshotNames()
+    {
+        File[] files = getSnapshotFile(CURRENT_DATA).getParentFile().listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        List<String> names = new ArrayList<>();
+
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                String fileName = file.getName();
+                names.add(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()));
+            }
+        }
+
+        return names;
+    }
+
+    public void write(File file) throws IOException
+    {
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(8192));
+        Reference2IntOpenHashMap<Block> blockIndices = new Reference2IntOpenHashMap<>();
+        List<BlockState> states = new ArrayList<>();
+
+        for (int i = 0; i < this.counts.length; ++i)
+        {
+            BlockState state = this.counts[i] != 0 ? Block.BLOCK_STATE_REGISTRY.byId(i) : null;
+
+            if (state != null && ForgeRegistries.BLOCKS.getKey(state.getBlock()) != null)
+            {
+                blockIndices.putIfAbsent(state.getBlock(), blockIndices.size());
+                states.add(state);
+            }
+        }
+
+        Block[] blocks = new Block[blockIndices.size()];
+        blockIndices.forEach((block, index) -> blocks[index] = block);
+
+        buf.writeInt(FILE_VERSION);
+        buf.writeLong(this.timestamp);
+        buf.writeVarInt(this.chunkCount);
+        buf.writeVarInt(blocks.length);
+
+        for (Block block : blocks)
+        {
+            buf.writeUtf(ForgeRegistries.BLOCKS.getKey(block).toString());
+        }
+
+        buf.writeVarInt(states.size());
+
+        for (BlockState state : states)
+        {
+            buf.writeVarInt(blockIndices.getInt(state.getBlock()));
+            buf.writeUtf(state.getValues().entrySet().stream().map(BlockInfo.PROPERTY_MAP_PRINTER).collect(Collectors.joining(",")));
+            buf.writeVarLong(this.counts[Block.BLOCK_STATE_REGISTRY.getId(state)]);
+        }
+
+        file.getParentFile().mkdirs();
+
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            buf.readBytes(out, buf.readableBytes());
+        }
+    }
+
+    public static BlockStatsSnapshot read(String name, File file) throws IOException
+    {
+        FriendlyByteBuf buf;
+
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            buf = new FriendlyByteBuf(Unpooled.wrappedBuffer(in.readAllBytes()));
+        }
+
+        if (buf.readInt() != FILE_VERSION)
+        {
+            throw new IOException("Unsupported snapshot file version");
+        }
+
+        final long timestamp = buf.readLong();
+        final int chunkCount = buf.readVarInt();
+        String[] blockNames = new String[buf.readVarInt()];
+        long[] counts = new long[Block.BLOCK_STATE_REGISTRY.size()];
+        int missing = 0;
+
+        for (int i = 0; i < blockNames.length; ++i)
+        {
+            blockNames[i] = buf.readUtf();
+        }
+
+        final int stateCount = buf.readVarInt();
+
+        for (int i = 0; i < stateCount; ++i)
+        {
+            String blockName = blockNames[buf.readVarInt()];
+            String properties = buf.readUtf();
+            long count = buf.readVarLong();
+            BlockState state = getState(properties.isEmpty() ? blockName : blockName + "[" + properties + "]");
+
+            if (state != null)
+            {
+                counts[Block.BLOCK_STATE_REGISTRY.getId(state)] += count;
+            }
+            else
+            {
+                ++missing;
+            }
+        }
+
+        if (missing > 0)
+        {
+            TellMe.logger.warn("Skipped {} block states that no longer exist, from the block stats snapshot '{}'", missing, file.getAbsolutePath());
+        }
+
+        return new BlockStatsSnapshot(name, counts, chunkCount, timestamp);
+    }
+
+    @Nullable
+    private static BlockState getState(String stateString)
+    {
+        ResourceLocation id = ResourceLocation.tryParse(stateString.indexOf('[') >= 0 ? stateString.substring(0, stateString.indexOf('[')) : stateString);
+
+        if (id == null || ForgeRegistries.BLOCKS.containsKey(id) == false)
+        {
+            return null;
+        }
+
+        try
+        {
+            return (new BlockStateParser(new StringReader(stateString), false)).parse(false).getState();
+        }
+        catch (CommandSyntaxException e)
+        {
+            return null;
+        }
+    }
+
+    private String getDescription()
+    {
+        String date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(this.timestamp));
+        return String.format("'%s' (%s, %d chunks)", this.name, date, this.chunkCount);
+    }
+
+    /**
+     * Compares the counts of the two snapshots. Both count arrays are walked once, so the diff
+     * takes linear time in the number of block states, regardless of how many states were counted.
+     * @param filters the block (state) filters to include in the output, or null for all the changed states
+     */
+    public static List<String> diff(BlockStatsSnapshot from, BlockStatsSnapshot to, Format format, CommandUtils.BlockStateGrouping grouping,
+                                    boolean sortByChange, @Nullable List<String> filters) throws CommandSyntaxException
+    {
+        DataDump dump = new DataDump(5, format);
+        IntCollection stateIds = filters != null ? BlockStats.getStateIdsForFilters(filters) : null;
+        List<BlockStats.BlockStateCount> before = new ArrayList<>();
+        List<BlockStats.BlockStateCount> after = new ArrayList<>();
+        Map<Block, Integer> blockRows = new IdentityHashMap<>();
+
+        if (sortByChange)
+        {
+            dump.setSortColumn(4).setSortReverse(true);
+        }
+
+        if (stateIds != null)
+        {
+            for (IntIterator it = stateIds.iterator(); it.hasNext(); )
+            {
+                addChange(it.nextInt(), from.counts, to.counts, grouping, before, after, blockRows);
+            }
+        }
+        else
+        {
+            for (int i = 0; i < from.counts.length; ++i)
+            {
+                addChange(i, from.counts, to.counts, grouping, before, after, blockRows);
+            }
+        }
+
+        long totalChange = 0;
+
+        for (int i = 0; i < before.size(); ++i)
+        {
+            BlockStats.BlockStateCount countBefore = before.get(i);
+            final long change = after.get(i).count - countBefore.count;
+
+            if (change == 0)
+            {
+                continue;
+            }
+
+            String name = grouping == CommandUtils.BlockStateGrouping.BY_STATE ? BlockInfo.blockStateToString(countBefore.state) : countBefore.registryName;
+            dump.addData(name, countBefore.getDisplayName(), String.valueOf(countBefore.count), String.valueOf(after.get(i).count), String.format("%+d", change));
+
+            if (countBefore.state.isAir() == false)
+            {
+                totalChange += change;
+            }
+        }
+
+        dump.addTitle("Registry name", "Display name", "Before", "After", "Change");
+        dump.addFooter(String.format("Before: %s", from.getDescription()));
+        dump.addFooter(String.format("After: %s", to.getDescription()));
+        dump.addFooter(String.format("The listed output has a total change of %+d non-air blocks", totalChange));
+
+        dump.setColumnProperties(2, Alignment.RIGHT, true); // before
+        dump.setColumnProperties(3, Alignment.RIGHT, true); // after
+        dump.setColumnProperties(4, Alignment.RIGHT, true); // change
+
+        return dump.getLines();
+    }
+
+    private static void addChange(int stateId, long[] countsFrom, long[] countsTo, CommandUtils.BlockStateGrouping grouping,
+                                  List<BlockStats.BlockStateCount> before, List<BlockStats.BlockStateCount> after, Map<Block, Integer> blockRows)
+    {
+        if (stateId < 0 || stateId >= countsFrom.length || (countsFrom[stateId] == 0 && countsTo[stateId] == 0))
+        {
+            return;
+        }
+
+        BlockState state = Block.BLOCK_STATE_REGISTRY.byId(stateId);
+        ResourceLocation id = state != null ? ForgeRegistries.BLOCKS.getKey(state.getBlock()) : null;
+
+        if (id == null)
+        {
+            return;
+        }
+
+        if (grouping == CommandUtils.BlockStateGrouping.BY_BLOCK)
+        {
+            Integer row = blockRows.get(state.getBlock());
+
+            if (row != null)
+            {
+                before.get(row).addToCount(countsFrom[stateId]);
+                after.get(row).addToCount(countsTo[stateId]);
+                return;
+            }
+
+            blockRows.put(state.getBlock(), before.size());
+        }
+
+        before.add(new BlockStats.BlockStateCount(state, id, countsFrom[stateId]));
+        after.add(new BlockStats.BlockStateCount(state, id, countsTo[stateId]));
+    }
+}
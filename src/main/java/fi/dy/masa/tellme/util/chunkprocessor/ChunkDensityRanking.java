@@ -0,0 +1,299 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.minecraft.world.level.ChunkPos;
+import fi.dy.masa.tellme.util.datadump.DataDump;
+import fi.dy.masa.tellme.util.datadump.DataDump.Alignment;
+import fi.dy.masa.tellme.util.datadump.DataDump.Format;
+
+/**
+ * Finds the chunks with the most blocks matching each of the given block (state) filters.
+ * Only the given number of the densest chunks are kept per filter, in a bounded min-heap,
+ * so the memory use doesn't depend on the size of the scanned area.
+ */
+public class ChunkDensityRanking extends FilteredBlockCounter<ChunkDensityRanking.Rankings>
+{
+    private final LocationDataStore.StringTable dimensions = new LocationDataStore.StringTable(256);
+    private final DataDump.Format format;
+    private final int topCount;
+    private Rankings results;
+    private boolean printDimension;
+
+    public ChunkDensityRanking(DataDump.Format format, int topCount, List<String> filterStrings) throws CommandSyntaxException
+    {
+        super(filterStrings);
+
+        this.format = format;
+        this.topCount = topCount;
+        this.results = this.createWorker();
+    }
+
+    public ChunkDensityRanking setPrintDimension(boolean printDimension)
+    {
+        this.printDimension = printDimension;
+        return this;
+    }
+
+    @Override
+    public Rankings createWorker()
+    {
+        return new Rankings(this.getFilterCount(), this.getTargetCount(), this.topCount);
+    }
+
+    @Override
+    protected void onChunkCounted(Rankings counts, ChunkPos chunkPos, Supplier<String> dimension)
+    {
+        int dimensionId = -1;
+
+        for (int i = 0; i < counts.heaps.length; ++i)
+        {
+            final long total = this.getFilterTotal(counts, i);
+            ChunkHeap heap = counts.heaps[i];
+
+            if (total > 0 && heap.accepts(total))
+            {
+                if (dimensionId == -1)
+                {
+                    dimensionId = this.dimensions.getId(dimension.get());
+                }
+
+                heap.offer(chunkPos.toLong(), dimensionId, total);
+            }
+        }
+    }
+
+    @Override
+    public void mergeWorkers(Rankings into, Rankings from)
+    {
+        for (int i = 0; i < into.heaps.length; ++i)
+        {
+            ChunkHeap heap = from.heaps[i];
+
+            for (int j = 0; j < heap.size; ++j)
+            {
+                into.heaps[i].offer(heap.chunks[j], heap.dimensionIds[j], heap.counts[j]);
+            }
+        }
+    }
+
+    @Override
+    protected void onScanResults(Rankings results)
+    {
+        this.results = results;
+    }
+
+    public List<String> getLines()
+    {
+        final boolean csv = this.format == Format.CSV;
+        int columnCount = csv ? 7 : 5;
+
+        if (this.printDimension)
+        {
+            columnCount += 1;
+        }
+
+        DataDump dump = new DataDump(columnCount, this.format);
+        List<String> row = new ArrayList<>();
+
+        for (int i = 0; i < this.filterStrings.size(); ++i)
+        {
+            final String filter = this.filterStrings.get(i);
+            final ChunkHeap heap = this.results.heaps[i];
+            final int[] order = heap.getDescendingOrder();
+
+            for (int rank = 0; rank < order.length; ++rank)
+            {
+                final int index = order[rank];
+                final int cx = ChunkPos.getX(heap.chunks[index]);
+                final int cz = ChunkPos.getZ(heap.chunks[index]);
+
+                row.clear();
+                row.add(filter);
+                row.add(String.valueOf(rank + 1));
+
+                if (this.printDimension)
+                {
+                    row.add(this.dimensions.get(heap.dimensionIds[index]));
+                }
+
+                if (csv)
+                {
+                    row.add(String.valueOf(cx >> 5));
+                    row.add(String.valueOf(cz >> 5));
+                    row.add(String.valueOf(cx));
+                    row.add(String.valueOf(cz));
+                }
+                else
+                {
+                    row.add(String.format(LocateBase.FMT_REGION, cx >> 5, cz >> 5));
+                    row.add(String.format(this.format == Format.ASCII ? LocateBase.FMT_CHUNK_5 : LocateBase.FMT_CHUNK, cx, cz));
+                }
+
+                row.add(String.valueOf(heap.counts[index]));
+                dump.addData(row.toArray(new String[0]));
+            }
+        }
+
+        if (csv)
+        {
+            if (this.printDimension)
+            {
+                dump.addTitle("Filter", "Rank", "Dim", "RX", "RZ", "CX", "CZ", "Count");
+            }
+            else
+            {
+                dump.addTitle("Filter", "Rank", "RX", "RZ", "CX", "CZ", "Count");
+            }
+        }
+        else
+        {
+            if (this.printDimension)
+            {
+                dump.addTitle("Filter", "Rank", "Dim", "Region", "Chunk", "Count");
+            }
+            else
+            {
+                dump.addTitle("Filter", "Rank", "Region", "Chunk", "Count");
+            }
+        }
+
+        dump.setColumnProperties(1, Alignment.RIGHT, true); // rank
+        dump.setColumnProperties(columnCount - 1, Alignment.RIGHT, true); // count
+        dump.addFooter(String.format("The %d densest chunks per filter, out of %d scanned chunks", this.topCount, this.chunkCount));
+        dump.setSort(false);
+
+        return dump.getLines();
+    }
+
+    public static class Rankings extends FilteredBlockCounter.Counts
+    {
+        private final ChunkHeap[] heaps;
+
+        private Rankings(int filterCount, int targetCount, int topCount)
+        {
+            super(targetCount);
+
+            this.heaps = new ChunkHeap[filterCount];
+
+            for (int i = 0; i < filterCount; ++i)
+            {
+                this.heaps[i] = new ChunkHeap(topCount);
+            }
+        }
+    }
+
+    /**
+     * A bounded min-heap of the chunks with the highest counts, stored in primitive arrays.
+     * The chunk with the lowest count is at the root, so it's the one that gets replaced by a denser chunk.
+     */
+    private static class ChunkHeap
+    {
+        private final long[] chunks;
+        private final long[] counts;
+        private final int[] dimensionIds;
+        private int size;
+
+        private ChunkHeap(int capacity)
+        {
+            this.chunks = new long[capacity];
+            this.counts = new long[capacity];
+            this.dimensionIds = new int[capacity];
+        }
+
+        private boolean accepts(long count)
+        {
+            return this.size < this.counts.length || count > this.counts[0];
+        }
+
+        private void offer(long chunk, int dimensionId, long count)
+        {
+            if (this.size < this.counts.length)
+            {
+                int index = this.size++;
+                this.set(index, chunk, dimensionId, count);
+
+                // Sift up
+                while (index > 0)
+                {
+                    final int parent = (index - 1) >> 1;
+
+                    if (this.counts[parent] <= this.counts[index])
+                    {
+                        break;
+                    }
+
+                    this.swap(index, parent);
+                    index = parent;
+                }
+            }
+            else if (count > this.counts[0])
+            {
+                int index = 0;
+                this.set(index, chunk, dimensionId, count);
+
+                // Sift down
+                while (true)
+                {
+                    final int left = (index << 1) + 1;
+                    int smallest = index;
+
+                    if (left < this.size && this.counts[left] < this.counts[smallest])
+                    {
+                        smallest = left;
+                    }
+
+                    if (left + 1 < this.size && this.counts[left + 1] < this.counts[smallest])
+                    {
+                        smallest = left + 1;
+                    }
+
+                    if (smallest == index)
+                    {
+                        break;
+                    }
+
+                    this.swap(index, smallest);
+                    index = smallest;
+                }
+            }
+        }
+
+        private void set(int index, long chunk, int dimensionId, long count)
+        {
+            this.chunks[index] = chunk;
+            this.dimensionIds[index] = dimensionId;
+            this.counts[index] = count;
+        }
+
+        private void swap(int index1, int index2)
+        {
+            final long chunk = this.chunks[index1];
+            final int dimensionId = this.dimensionIds[index1];
+            final long count = this.counts[index1];
+
+            this.set(index1, this.chunks[index2], this.dimensionIds[index2], this.counts[index2]);
+            this.set(index2, chunk, dimensionId, count);
+        }
+
+        /**
+         * @return the indices of the entries, ordered by the count from highest to lowest
+         */
+        private int[] getDescendingOrder()
+        {
+            int[] order = new int[this.size];
+
+            for (int i = 0; i < order.length; ++i)
+            {
+                order[i] = i;
+            }
+
+            IntArrays.quickSort(order, (i1, i2) -> Long.compare(this.counts[i2], this.counts[i1]));
+
+            return order;
+        }
+    }
+}
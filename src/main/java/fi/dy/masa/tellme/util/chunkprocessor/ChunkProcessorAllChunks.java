@@ -1,18 +1,33 @@
 package fi.dy.masa.tellme.util.chunkprocessor;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+import javax.annotation.Nullable;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.TranslatableComponent;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.chunk.LevelChunk;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.config.Configs;
 import fi.dy.masa.tellme.util.WorldUtils;
 
 public abstract class ChunkProcessorAllChunks
 {
+    @Nullable protected Consumer<String> progressListener;
+    private boolean scanInProgress;
+    private int skippedSavedChunkCount;
+
     private boolean areCoordinatesValid(BlockPos pos1, BlockPos pos2, Level world) throws CommandSyntaxException
     {
         int minY = world.getMinBuildHeight();
@@ -41,27 +56,282 @@ public abstract class ChunkProcessorAllChunks
         return true;
     }
 
-    public void processChunks(Level world, BlockPos posMin, BlockPos posMax) throws CommandSyntaxException
+    public ChunkProcessorAllChunks setProgressListener(@Nullable Consumer<String> progressListener)
+    {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    public boolean isScanInProgress()
+    {
+        return this.scanInProgress;
+    }
+
+    protected void setScanInProgress(boolean scanInProgress)
+    {
+        this.scanInProgress = scanInProgress;
+    }
+
+    /**
+     * @return the number of chunks that the last saved region scan skipped, because they were saved in the pre-1.18 chunk format
+     */
+    public int getSkippedSavedChunkCount()
+    {
+        return this.skippedSavedChunkCount;
+    }
+
+    /**
+     * Processes the chunks in the given area.
+     * The chunks are loaded through a bounded sliding window (see {@link ChunkStreamer}),
+     * so that the number of chunks kept loaded by the scan doesn't grow with the area size.
+     * The chunks matched by {@link #getChunkSkipFilter(Level)} are not loaded at all.
+     * If parallel scanning is enabled in the configs and this processor supports it,
+     * then the chunks will be processed on worker threads as they get loaded.
+     * Otherwise the chunks are processed one by one on the server thread,
+     * limited by the scan tick time budget in the configs.
+     * The returned future completes on the server thread once the scan has finished.
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Void> processChunksAsync(Level world, BlockPos posMin, BlockPos posMax) throws CommandSyntaxException
+    {
+        this.validateCoordinates(world, posMin, posMax);
+
+        if ((world.getChunkSource() instanceof ServerChunkCache) == false)
+        {
+            return this.processChunksAsync(this.loadChunks(world, posMin, posMax), posMin, posMax);
+        }
+
+        ChunkPos chunkPosMin = new ChunkPos(posMin.getX() >> 4, posMin.getZ() >> 4);
+        ChunkPos chunkPosMax = new ChunkPos(posMax.getX() >> 4, posMax.getZ() >> 4);
+        final ChunkStreamer streamer = new ChunkStreamer((ServerChunkCache) world.getChunkSource(), chunkPosMin, chunkPosMax,
+                                                         Configs.Generic.scanChunkWindowSize);
+        streamer.setSkipFilter(this.getChunkSkipFilter(world));
+        final int chunkCount = streamer.getChunkCount();
+        final String name = this.getClass().getSimpleName();
+        CompletableFuture<Void> future;
+
+        this.setScanInProgress(true);
+
+        if (this.canProcessInParallel())
+        {
+            final ParallelChunkScanner.StreamedScan<Object> scan =
+                    ParallelChunkScanner.createStreamedScan((ISnapshotChunkProcessor<Object>) this, posMin, posMax);
+
+            final Consumer<LevelChunk> chunkConsumer = (chunk) -> {
+                BlockStateSummaries.INSTANCE.addChunk(chunk);
+                scan.addChunk(chunk);
+            };
+
+            future = ChunkScanScheduler.scheduleStreaming(name, chunkCount, (i) -> scan.canAcceptChunks() && streamer.processNext(chunkConsumer),
+                                                          (duration) -> {}, this.progressListener)
+                                       .thenCompose((v) -> scan.finish())
+                                       .whenComplete((v, e) -> scan.release());
+        }
+        else
+        {
+            this.onScanStart();
+
+            future = ChunkScanScheduler.scheduleStreaming(name, chunkCount, (i) -> streamer.processNext((chunk) -> this.processAndSummarizeChunk(chunk, posMin, posMax)),
+                                                          (duration) -> this.onScanEnd(chunkCount, duration), this.progressListener);
+        }
+
+        return future.whenComplete((v, e) -> {
+            streamer.release();
+            this.setScanInProgress(false);
+        });
+    }
+
+    public CompletableFuture<Void> processChunksAsync(Collection<LevelChunk> chunks, Level world)
+    {
+        return this.processChunksAsync(chunks, getWorldMinPos(world), getWorldMaxPos(world));
+    }
+
+    public CompletableFuture<Void> processChunksAsync(Collection<LevelChunk> chunks, BlockPos posMin, BlockPos posMax)
+    {
+        final List<LevelChunk> list = chunks instanceof List ? (List<LevelChunk>) chunks : new ArrayList<>(chunks);
+
+        if (this.canProcessInParallel())
+        {
+            return this.scanOnWorkerThreads(list, posMin, posMax);
+        }
+
+        return this.scheduleScan(list.size(), (i) -> this.processAndSummarizeChunk(list.get(i), posMin, posMax));
+    }
+
+    /**
+     * Processes the given chunks, which may be from several different worlds, as one scan with merged results.
+     * Each chunk is processed over the full height of its own world.
+     * If this processor supports it, then snapshots of the chunks are taken on the server thread
+     * in tick-budgeted batches, and they are processed on the worker threads as they get taken,
+     * regardless of the parallel scanning config.
+     * Otherwise the chunks are processed on the server thread, limited by the scan tick time budget.
+     * The returned future completes on the server thread once the scan has finished.
+     */
+    public CompletableFuture<Void> processChunksAcrossWorldsAsync(Collection<LevelChunk> chunks)
+    {
+        final List<LevelChunk> list = chunks instanceof List ? (List<LevelChunk>) chunks : new ArrayList<>(chunks);
+
+        if (this.canProcessOnWorkerThreads())
+        {
+            return this.scanOnWorkerThreads(list, null, null);
+        }
+
+        return this.scheduleScan(list.size(), (i) -> {
+            LevelChunk chunk = list.get(i);
+            this.processAndSummarizeChunk(chunk, getWorldMinPos(chunk.getLevel()), getWorldMaxPos(chunk.getLevel()));
+        });
+    }
+
+    /**
+     * Processes all the chunks within the given area that have been saved to the world's region files,
+     * by reading them directly from disk on the worker threads (see {@link RegionFileScanner}).
+     * No chunks are loaded into the world. Only processors that support snapshot processing can do this.
+     * The returned future completes on the server thread once the scan has finished.
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Void> processSavedChunksAsync(ServerLevel world, BlockPos posMin, BlockPos posMax) throws CommandSyntaxException
+    {
+        if ((this instanceof ISnapshotChunkProcessor) == false || this.canProcessOnWorkerThreads() == false)
+        {
+            throw (new SimpleCommandExceptionType(new TranslatableComponent("This scan type can't read the saved region files"))).create();
+        }
+
+        try
+        {
+            this.setScanInProgress(true);
+            this.skippedSavedChunkCount = 0;
+
+            return RegionFileScanner.scan((ISnapshotChunkProcessor<Object>) this, world, posMin, posMax, this.getChunkSkipFilter(world))
+                                    .thenAccept((skippedCount) -> this.skippedSavedChunkCount = skippedCount)
+                                    .whenComplete((v, e) -> this.setScanInProgress(false));
+        }
+        catch (IOException e)
+        {
+            this.setScanInProgress(false);
+            TellMe.logger.warn("Failed to list the region files", e);
+            throw (new SimpleCommandExceptionType(new TranslatableComponent("Failed to list the region files: " + e.getMessage()))).create();
+        }
+    }
+
+    protected boolean canProcessInParallel()
+    {
+        return Configs.Generic.enableParallelScanning && this.canProcessOnWorkerThreads();
+    }
+
+    /**
+     * @return true if this processor can process chunk snapshots on the worker threads
+     */
+    protected boolean canProcessOnWorkerThreads()
+    {
+        return this instanceof ISnapshotChunkProcessor;
+    }
+
+    /**
+     * Returns a filter for the chunks that are known to not contain anything that this processor is looking for.
+     * Those chunks are then not loaded or read at all.
+     * @return the filter, which takes packed ChunkPos values, or null if all the chunks must be processed
+     */
+    @Nullable
+    protected LongPredicate getChunkSkipFilter(Level world)
+    {
+        return null;
+    }
+
+    /**
+     * Processes the given chunk, and adds its block states to the block state summaries (if enabled)
+     */
+    protected void processAndSummarizeChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        BlockStateSummaries.INSTANCE.addChunk(chunk);
+        this.processChunk(chunk, posMin, posMax);
+    }
+
+    /**
+     * Takes snapshots of the given already loaded chunks on the server thread, limited by the scan tick time budget,
+     * and processes the snapshots on the worker threads in small batches as they get taken.
+     * If the area corners are null, then each chunk is processed over the full height of its own world.
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Void> scanOnWorkerThreads(final List<LevelChunk> chunks, @Nullable BlockPos posMin, @Nullable BlockPos posMax)
+    {
+        final ParallelChunkScanner.StreamedScan<Object> scan =
+                ParallelChunkScanner.createStreamedScan((ISnapshotChunkProcessor<Object>) this, posMin, posMax);
+
+        this.setScanInProgress(true);
+
+        return ChunkScanScheduler.scheduleStreaming(this.getClass().getSimpleName(), chunks.size(), (i) -> {
+                                     // The worker threads are falling behind, continue on the next tick
+                                     if (scan.canAcceptChunks() == false)
+                                     {
+                                         return false;
+                                     }
+
+                                     LevelChunk chunk = chunks.get(i);
+                                     BlockStateSummaries.INSTANCE.addChunk(chunk);
+                                     scan.addChunk(chunk);
+                                     return true;
+                                 }, (duration) -> {}, this.progressListener)
+                                 .thenCompose((v) -> scan.finish())
+                                 .whenComplete((v, e) -> {
+                                     scan.release();
+                                     this.setScanInProgress(false);
+                                 });
+    }
+
+    protected CompletableFuture<Void> scheduleScan(final int chunkCount, IntConsumer chunkProcessor)
+    {
+        this.setScanInProgress(true);
+        this.onScanStart();
+
+        return ChunkScanScheduler.schedule(this.getClass().getSimpleName(), chunkCount, chunkProcessor,
+                                           (duration) -> this.onScanEnd(chunkCount, duration), this.progressListener)
+                                 .whenComplete((v, e) -> this.setScanInProgress(false));
+    }
+
+    protected void validateCoordinates(Level world, BlockPos posMin, BlockPos posMax) throws CommandSyntaxException
     {
         if (this.areCoordinatesValid(posMin, posMax, world) == false)
         {
             throw (new SimpleCommandExceptionType(new TranslatableComponent("Invalid coordinate(s) in the range, aborting"))).create();
         }
+    }
+
+    protected List<LevelChunk> loadChunks(Level world, BlockPos posMin, BlockPos posMax) throws CommandSyntaxException
+    {
+        this.validateCoordinates(world, posMin, posMax);
 
         ChunkPos chunkPosMin = new ChunkPos(posMin.getX() >> 4, posMin.getZ() >> 4);
         ChunkPos chunkPosMax = new ChunkPos(posMax.getX() >> 4, posMax.getZ() >> 4);
 
-        List<LevelChunk> chunks = WorldUtils.loadAndGetChunks(world, chunkPosMin, chunkPosMax);
+        return WorldUtils.loadAndGetChunks(world, chunkPosMin, chunkPosMax);
+    }
 
-        this.processChunks(chunks, posMin, posMax);
+    public static BlockPos getWorldMinPos(Level world)
+    {
+        return new BlockPos(-30000000, world.getMinBuildHeight(), -30000000);
     }
 
-    public void processChunks(Collection<LevelChunk> chunks, Level world)
+    public static BlockPos getWorldMaxPos(Level world)
     {
-        int minY = world.getMinBuildHeight();
-        int maxY = world.getMaxBuildHeight() - 1;
-        this.processChunks(chunks, new BlockPos(-30000000, minY, -30000000), new BlockPos(30000000, maxY, 30000000));
+        return new BlockPos(30000000, world.getMaxBuildHeight() - 1, 30000000);
     }
 
-    public abstract void processChunks(Collection<LevelChunk> chunks, BlockPos posMin, BlockPos posMax);
+    /**
+     * Called before the first chunk of a scan gets processed
+     */
+    protected void onScanStart()
+    {
+    }
+
+    /**
+     * Processes one chunk of a scan. The results should be accumulated into the processor's own result holders.
+     */
+    protected abstract void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax);
+
+    /**
+     * Called after the last chunk of a scan has been processed
+     */
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
+    }
 }
@@ -1,6 +1,10 @@
 package fi.dy.masa.tellme.util.chunkprocessor;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.level.ChunkPos;
@@ -51,11 +55,36 @@ public abstract class ChunkProcessorBase
     {
         for (LevelChunk chunk : chunks)
         {
-            this.processChunk(chunk);
-            ++this.loadedChunks;
+            this.processLoadedChunk(chunk);
         }
     }
 
+    /**
+     * Processes the given chunks one by one on the server thread, spread over multiple ticks
+     * if the scan tick time budget is enabled in the configs.
+     * The returned future completes on the server thread once all the chunks have been processed.
+     */
+    public CompletableFuture<Void> processChunksAsync(Collection<LevelChunk> chunks, @Nullable Consumer<String> progressListener)
+    {
+        final List<LevelChunk> list = new ArrayList<>(chunks);
+
+        return ChunkScanScheduler.schedule(this.getClass().getSimpleName(), list.size(), (i) -> this.processLoadedChunk(list.get(i)),
+                                           (duration) -> {}, progressListener);
+    }
+
+    public CompletableFuture<Void> processChunksInAreaAsync(Level world, ChunkPos pos1, ChunkPos pos2, @Nullable Consumer<String> progressListener)
+    {
+        ChunkSource provider = world.getChunkSource();
+        final int minCX = Math.min(pos1.x, pos2.x);
+        final int minCZ = Math.min(pos1.z, pos2.z);
+        final int width = Math.max(pos1.x, pos2.x) - minCX + 1;
+        final int length = Math.max(pos1.z, pos2.z) - minCZ + 1;
+
+        return ChunkScanScheduler.schedule(this.getClass().getSimpleName(), width * length,
+                                           (i) -> this.processChunkIfLoaded(provider, minCX + (i % width), minCZ + (i / width)),
+                                           (duration) -> {}, progressListener);
+    }
+
     public void processChunksInArea(Level world, ChunkPos pos1, ChunkPos pos2)
     {
         ChunkSource provider = world.getChunkSource();
@@ -68,21 +97,34 @@ public abstract class ChunkProcessorBase
         {
             for (int cx = minCX; cx <= maxCX; ++cx)
             {
-                LevelChunk chunk = provider.getChunk(cx, cz, false);
-
-                if (chunk != null)
-                {
-                    this.processChunk(chunk);
-                    ++this.loadedChunks;
-                }
-                else
-                {
-                    ++this.unloadedChunks;
-                }
+                this.processChunkIfLoaded(provider, cx, cz);
             }
         }
     }
 
+    protected void processChunkIfLoaded(ChunkSource provider, int chunkX, int chunkZ)
+    {
+        LevelChunk chunk = provider.getChunk(chunkX, chunkZ, false);
+
+        if (chunk != null)
+        {
+            this.processLoadedChunk(chunk);
+        }
+        else
+        {
+            ++this.unloadedChunks;
+        }
+    }
+
+    /**
+     * Processes the given chunk and adds it to the loaded chunk count
+     */
+    void processLoadedChunk(LevelChunk chunk)
+    {
+        this.processChunk(chunk);
+        ++this.loadedChunks;
+    }
+
     protected abstract void processChunk(LevelChunk chunk);
 
     public abstract DataDump getDump();
@@ -0,0 +1,192 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import fi.dy.masa.tellme.TellMe;
+
+/**
+ * Runs several processors in one scan, so that each chunk is only loaded or visited once.
+ * Each chunk is passed to all the stages, and the sections and block entities of the chunk
+ * are iterated once for all the stages that want them (see {@link IChunkScanStage}).
+ * The existing processors of both processor hierarchies can be added as whole-chunk stages,
+ * unless they are stages themselves (like {@link BlockStats}, which counts the sections it's given).
+ * The block entities can only be accessed on the server thread, so the pipeline never
+ * runs on the worker threads, and it can't read the saved region files.
+ */
+public class ChunkScanPipeline extends ChunkProcessorAllChunks
+{
+    private final List<IChunkScanStage> stages = new ArrayList<>();
+    // The processors of the stages, which are marked as being in a scan while the pipeline runs
+    private final List<ChunkProcessorAllChunks> processors = new ArrayList<>();
+    private IChunkScanStage[] sectionStages = new IChunkScanStage[0];
+    private IChunkScanStage[] blockEntityStages = new IChunkScanStage[0];
+
+    public ChunkScanPipeline addStage(IChunkScanStage stage)
+    {
+        this.stages.add(stage);
+
+        if (stage instanceof ChunkProcessorAllChunks)
+        {
+            this.processors.add((ChunkProcessorAllChunks) stage);
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds the given processor as a stage. Processors that are stages themselves are added as they are,
+     * others process each chunk as a whole.
+     */
+    public ChunkScanPipeline addProcessor(final ChunkProcessorAllChunks processor)
+    {
+        if (processor instanceof IChunkScanStage)
+        {
+            return this.addStage((IChunkScanStage) processor);
+        }
+
+        this.processors.add(processor);
+
+        return this.addStage(new IChunkScanStage()
+        {
+            @Override
+            public void beginScan()
+            {
+                processor.onScanStart();
+            }
+
+            @Override
+            public void visitChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+            {
+                processor.processChunk(chunk, posMin, posMax);
+            }
+
+            @Override
+            public void endScan(int chunkCount, long durationNanos)
+            {
+                processor.onScanEnd(chunkCount, durationNanos);
+            }
+        });
+    }
+
+    /**
+     * Adds the given processor as a stage. These processors always process the entire chunk, regardless of the scanned volume.
+     */
+    public ChunkScanPipeline addProcessor(final ChunkProcessorBase processor)
+    {
+        return this.addStage(new IChunkScanStage()
+        {
+            @Override
+            public void visitChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+            {
+                processor.processLoadedChunk(chunk);
+            }
+        });
+    }
+
+    /**
+     * Also marks the processors of the stages, so that they can't be used for other scans while the pipeline is running
+     */
+    @Override
+    protected void setScanInProgress(boolean scanInProgress)
+    {
+        super.setScanInProgress(scanInProgress);
+
+        for (ChunkProcessorAllChunks processor : this.processors)
+        {
+            processor.setScanInProgress(scanInProgress);
+        }
+    }
+
+    @Override
+    protected boolean canProcessOnWorkerThreads()
+    {
+        return false;
+    }
+
+    @Override
+    protected void onScanStart()
+    {
+        for (IChunkScanStage stage : this.stages)
+        {
+            stage.beginScan();
+        }
+
+        this.sectionStages = this.stages.stream().filter(IChunkScanStage::wantsSections).toArray(IChunkScanStage[]::new);
+        this.blockEntityStages = this.stages.stream().filter(IChunkScanStage::wantsBlockEntities).toArray(IChunkScanStage[]::new);
+    }
+
+    @Override
+    protected void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        for (IChunkScanStage stage : this.stages)
+        {
+            stage.visitChunk(chunk, posMin, posMax);
+        }
+
+        if (this.sectionStages.length > 0)
+        {
+            this.visitSections(chunk, posMin, posMax);
+        }
+
+        if (this.blockEntityStages.length > 0)
+        {
+            this.visitBlockEntities(chunk, posMin, posMax);
+        }
+    }
+
+    private void visitSections(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        final IChunkScanStage[] stages = this.sectionStages;
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int yMax = Math.min(chunk.getHighestSectionPosition() + 15, posMax.getY());
+        LevelChunkSection[] sections = chunk.getSections();
+
+        for (int sectionY = yMin >> 4; yMin <= yMax && sectionY <= (yMax >> 4); ++sectionY)
+        {
+            LevelChunkSection section = sections[chunk.getSectionIndexFromSectionY(sectionY)];
+
+            for (IChunkScanStage stage : stages)
+            {
+                stage.visitSection(chunk, section, sectionY, posMin, posMax);
+            }
+        }
+    }
+
+    private void visitBlockEntities(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        final IChunkScanStage[] stages = this.blockEntityStages;
+
+        for (BlockEntity be : chunk.getBlockEntities().values())
+        {
+            BlockPos pos = be.getBlockPos();
+
+            if (pos.getX() < posMin.getX() || pos.getY() < posMin.getY() || pos.getZ() < posMin.getZ() ||
+                pos.getX() > posMax.getX() || pos.getY() > posMax.getY() || pos.getZ() > posMax.getZ())
+            {
+                continue;
+            }
+
+            for (IChunkScanStage stage : stages)
+            {
+                stage.visitBlockEntity(chunk, be);
+            }
+        }
+    }
+
+    @Override
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
+        TellMe.logger.info(String.format(Locale.US, "Ran %d scan stages over %d chunks in %.4f seconds.",
+                                         this.stages.size(), chunkCount, durationNanos / 1000000000D));
+
+        for (IChunkScanStage stage : this.stages)
+        {
+            stage.endScan(chunkCount, durationNanos);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
+import javax.annotation.Nullable;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.config.Configs;
+
+/**
+ * Runs chunk scans as a sequence of work units (usually one chunk per unit),
+ * spread over multiple server ticks so that at most the configured amount
+ * of time is spent on the scans per tick.
+ */
+public class ChunkScanScheduler
+{
+    public static final ChunkScanScheduler INSTANCE = new ChunkScanScheduler();
+    private static final long PROGRESS_MESSAGE_INTERVAL = 5000000000L;
+
+    private final List<ScanTask> tasks = new ArrayList<>();
+
+    /**
+     * Schedules a new scan. If the tick time budget is disabled in the configs, then the scan is run
+     * to completion immediately. Otherwise the first slice of the scan is run immediately, and the rest
+     * on the following server ticks.
+     * @param name the name of the scan, used in the progress messages
+     * @param unitCount the number of work units in the scan
+     * @param unitProcessor processes the work unit by the given index
+     * @param onFinished called on the server thread with the total duration of the scan in nanoseconds, once all the units have been processed
+     * @param feedback optional receiver of the progress messages
+     * @return a future that completes on the server thread once the scan has finished
+     */
+    public static CompletableFuture<Void> schedule(String name, int unitCount, IntConsumer unitProcessor,
+                                                   LongConsumer onFinished, @Nullable Consumer<String> feedback)
+    {
+        return scheduleStreaming(name, unitCount, (i) -> { unitProcessor.accept(i); return true; }, onFinished, feedback);
+    }
+
+    /**
+     * Schedules a new scan, where the work units may not be ready to be processed yet
+     * (for example because the chunk is still being loaded). The unit processor returns false
+     * if the unit wasn't ready, in which case the scan continues from the same unit on the next tick.
+     * Such scans are always spread over multiple ticks when needed, even if the tick time budget is disabled.
+     * @see #schedule(String, int, IntConsumer, LongConsumer, Consumer)
+     */
+    public static CompletableFuture<Void> scheduleStreaming(String name, int unitCount, IntPredicate unitProcessor,
+                                                            LongConsumer onFinished, @Nullable Consumer<String> feedback)
+    {
+        return scheduleStreaming(name, unitCount, unitProcessor, () -> false, onFinished, feedback);
+    }
+
+    /**
+     * Schedules a new streaming scan, which can also finish before all the units have been processed.
+     * @param isDone checked before each unit, the scan finishes early once this returns true
+     * @see #scheduleStreaming(String, int, IntPredicate, LongConsumer, Consumer)
+     */
+    public static CompletableFuture<Void> scheduleStreaming(String name, int unitCount, IntPredicate unitProcessor, BooleanSupplier isDone,
+                                                            LongConsumer onFinished, @Nullable Consumer<String> feedback)
+    {
+        ScanTask task = new ScanTask(name, unitCount, unitProcessor, isDone, onFinished, feedback);
+        long budget = getTickBudget();
+
+        if (task.run(budget > 0 ? budget : Long.MAX_VALUE) == false)
+        {
+            task.sendMessage(String.format(Locale.US, "%s: Scanning %d chunks over multiple ticks (max %d ms per tick)...",
+                                           name, unitCount, Configs.Generic.scanTickBudgetMs));
+            INSTANCE.tasks.add(task);
+        }
+
+        return task.future;
+    }
+
+    public static long getTickBudget()
+    {
+        return Configs.Generic.scanTickBudgetMs * 1000000L;
+    }
+
+    public boolean hasRunningScans()
+    {
+        return this.tasks.isEmpty() == false;
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END || this.tasks.isEmpty())
+        {
+            return;
+        }
+
+        // Split the budget evenly between all the running scans
+        final long tickBudget = getTickBudget();
+        final long budget = tickBudget > 0 ? Math.max(tickBudget / this.tasks.size(), 1000000L) : Long.MAX_VALUE;
+
+        // Iterate over a copy, as the completion callbacks may schedule new scans
+        for (ScanTask task : new ArrayList<>(this.tasks))
+        {
+            if (task.run(budget))
+            {
+                this.tasks.remove(task);
+            }
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerStopping(ServerStoppingEvent event)
+    {
+        for (ScanTask task : this.tasks)
+        {
+            task.future.completeExceptionally(new CancellationException("The server is stopping"));
+        }
+
+        this.tasks.clear();
+    }
+
+    private static class ScanTask
+    {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final String name;
+        private final int unitCount;
+        private final IntPredicate unitProcessor;
+        private final BooleanSupplier isDone;
+        private final LongConsumer onFinished;
+        @Nullable private final Consumer<String> feedback;
+        private final long startTime;
+        private long lastMessageTime;
+        private long processingTime;
+        private int nextUnit;
+        private int tickCount;
+
+        private ScanTask(String name, int unitCount, IntPredicate unitProcessor, BooleanSupplier isDone,
+                         LongConsumer onFinished, @Nullable Consumer<String> feedback)
+        {
+            this.name = name;
+            this.unitCount = unitCount;
+            this.unitProcessor = unitProcessor;
+            this.isDone = isDone;
+            this.onFinished = onFinished;
+            this.feedback = feedback;
+            this.startTime = System.nanoTime();
+            this.lastMessageTime = this.startTime;
+        }
+
+        /**
+         * Processes work units until the given time budget runs out.
+         * @return true if the task has finished (or failed)
+         */
+        private boolean run(long budgetNanos)
+        {
+            final long timeBefore = System.nanoTime();
+            long now = timeBefore;
+            ++this.tickCount;
+
+            try
+            {
+                boolean done = this.nextUnit >= this.unitCount || this.isDone.getAsBoolean();
+
+                while (done == false && now - timeBefore < budgetNanos)
+                {
+                    boolean processed = this.unitProcessor.test(this.nextUnit);
+                    now = System.nanoTime();
+
+                    // The unit isn't ready yet, continue from it on the next tick
+                    if (processed == false)
+                    {
+                        break;
+                    }
+
+                    ++this.nextUnit;
+                    done = this.nextUnit >= this.unitCount || this.isDone.getAsBoolean();
+                }
+
+                this.processingTime += now - timeBefore;
+
+                if (done)
+                {
+                    this.onFinished.accept(now - this.startTime);
+
+                    if (this.tickCount > 1)
+                    {
+                        this.sendMessage(String.format(Locale.US, "%s: Finished %d chunks in %.3f seconds (%.3f seconds of processing over %d ticks)",
+                                                       this.name, this.nextUnit, (now - this.startTime) / 1000000000D,
+                                                       this.processingTime / 1000000000D, this.tickCount));
+                    }
+
+                    this.future.complete(null);
+                    return true;
+                }
+            }
+            catch (Exception e)
+            {
+                TellMe.logger.error("Exception while running the chunk scan '{}'", this.name, e);
+                this.future.completeExceptionally(e);
+                return true;
+            }
+
+            if (now - this.lastMessageTime >= PROGRESS_MESSAGE_INTERVAL)
+            {
+                this.sendMessage(String.format(Locale.US, "%s: Processed %d / %d chunks (%.1f %%)",
+                                               this.name, this.nextUnit, this.unitCount, this.nextUnit * 100.0 / this.unitCount));
+                this.lastMessageTime = now;
+            }
+
+            return false;
+        }
+
+        private void sendMessage(String message)
+        {
+            if (this.feedback != null)
+            {
+                this.feedback.accept(message);
+            }
+            else
+            {
+                TellMe.logger.info(message);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import fi.dy.masa.tellme.util.WorldUtils;
+
+/**
+ * An immutable copy of the block state data of one chunk,
+ * which can be processed on other threads than the server thread.
+ */
+public class ChunkSnapshot
+{
+    private final ChunkPos pos;
+    private final String dimension;
+    private final int minSectionY;
+    private final int topY;
+    private final SectionSnapshot[] sections;
+
+    public ChunkSnapshot(ChunkPos pos, String dimension, int minSectionY, int topY, SectionSnapshot[] sections)
+    {
+        this.pos = pos;
+        this.dimension = dimension;
+        this.minSectionY = minSectionY;
+        this.topY = topY;
+        this.sections = sections;
+    }
+
+    public static ChunkSnapshot of(LevelChunk chunk, FriendlyByteBuf buf)
+    {
+        LevelChunkSection[] sectionsIn = chunk.getSections();
+        SectionSnapshot[] sections = new SectionSnapshot[sectionsIn.length];
+
+        for (int i = 0; i < sectionsIn.length; ++i)
+        {
+            LevelChunkSection section = sectionsIn[i];
+            sections[i] = section != null ? SectionSnapshot.of(section, buf) : SectionSnapshot.EMPTY;
+        }
+
+        return new ChunkSnapshot(chunk.getPos(), WorldUtils.getDimensionId(chunk.getLevel()),
+                                 chunk.getMinSection(), chunk.getHighestSectionPosition() + 15, sections);
+    }
+
+    public ChunkPos getPos()
+    {
+        return this.pos;
+    }
+
+    public String getDimension()
+    {
+        return this.dimension;
+    }
+
+    public int getMinBuildHeight()
+    {
+        return this.minSectionY << 4;
+    }
+
+    public int getMinSection()
+    {
+        return this.minSectionY;
+    }
+
+    /**
+     * @return the build height limit of the chunk's world (exclusive), the equivalent of Level#getMaxBuildHeight()
+     */
+    public int getMaxBuildHeight()
+    {
+        return (this.minSectionY + this.sections.length) << 4;
+    }
+
+    /**
+     * @return the top y-coordinate of the highest non-empty section
+     * (the equivalent of LevelChunk#getHighestSectionPosition() + 15)
+     */
+    public int getTopY()
+    {
+        return this.topY;
+    }
+
+    public int getSectionCount()
+    {
+        return this.sections.length;
+    }
+
+    /**
+     * @return the section snapshot for the given section y-coordinate.
+     * Sections outside of the chunk's height range are returned as empty sections.
+     */
+    public SectionSnapshot getSection(int sectionY)
+    {
+        int index = sectionY - this.minSectionY;
+        return index >= 0 && index < this.sections.length ? this.sections[index] : SectionSnapshot.EMPTY;
+    }
+}
@@ -0,0 +1,193 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+import javax.annotation.Nullable;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+/**
+ * Loads the chunks of an area through a bounded sliding window of chunk tickets,
+ * so that only a limited number of chunks are kept loaded by a scan at any one time.
+ * Each chunk's ticket is removed right after the chunk has been processed,
+ * which allows the chunk to unload again before the rest of the area gets loaded.
+ * The chunks are visited one region (32 x 32 chunks) at a time, to keep the region file reads mostly sequential.
+ * An optional skip filter can exclude chunks that are known to not be needed, so that they won't get loaded at all.
+ * This must only be used from the server thread.
+ */
+public class ChunkStreamer
+{
+    private static final TicketType<ChunkPos> TICKET_TYPE = TicketType.create("tellme_scan", Comparator.comparingLong(ChunkPos::toLong));
+
+    private final ServerChunkCache chunkSource;
+    private final ArrayDeque<ChunkPos> window = new ArrayDeque<>();
+    // The positions in the window that are skipped, and thus don't have a ticket
+    private final LongOpenHashSet skippedPositions = new LongOpenHashSet();
+    private final int windowSize;
+    private final int minX;
+    private final int minZ;
+    private final int maxX;
+    private final int maxZ;
+    private final int chunkCount;
+    private int requestedCount;
+    private int processedCount;
+    @Nullable private LongPredicate skipFilter;
+    private int regionX;
+    private int regionZ;
+    private int nextX;
+    private int nextZ;
+
+    public ChunkStreamer(ServerChunkCache chunkSource, ChunkPos posMin, ChunkPos posMax, int windowSize)
+    {
+        this.chunkSource = chunkSource;
+        this.windowSize = Math.max(1, windowSize);
+        this.minX = Math.min(posMin.x, posMax.x);
+        this.minZ = Math.min(posMin.z, posMax.z);
+        this.maxX = Math.max(posMin.x, posMax.x);
+        this.maxZ = Math.max(posMin.z, posMax.z);
+        this.chunkCount = (this.maxX - this.minX + 1) * (this.maxZ - this.minZ + 1);
+        this.regionX = this.minX >> 5;
+        this.regionZ = this.minZ >> 5;
+        this.nextX = this.minX;
+        this.nextZ = this.minZ;
+    }
+
+    public int getChunkCount()
+    {
+        return this.chunkCount;
+    }
+
+    /**
+     * @return the number of chunks that have been processed or skipped so far
+     */
+    public int getProcessedCount()
+    {
+        return this.processedCount;
+    }
+
+    /**
+     * Sets a filter for the chunks that don't need to be processed.
+     * The filter is given the packed ChunkPos values, and the chunks that it matches are not loaded.
+     */
+    public ChunkStreamer setSkipFilter(@Nullable LongPredicate skipFilter)
+    {
+        this.skipFilter = skipFilter;
+        return this;
+    }
+
+    /**
+     * Passes the next chunk in the area to the given consumer, if it has finished loading.
+     * Skipped chunks are not passed to the consumer.
+     * @return true if the chunk was processed or skipped, false if it is still loading and this should be called again later
+     */
+    public boolean processNext(Consumer<LevelChunk> consumer)
+    {
+        this.fillWindow();
+
+        ChunkPos pos = this.window.peekFirst();
+
+        if (pos == null)
+        {
+            return true;
+        }
+
+        if (this.skippedPositions.remove(pos.toLong()))
+        {
+            this.window.pollFirst();
+            ++this.processedCount;
+            return true;
+        }
+
+        LevelChunk chunk = this.chunkSource.getChunkNow(pos.x, pos.z);
+
+        if (chunk == null)
+        {
+            return false;
+        }
+
+        this.window.pollFirst();
+        ++this.processedCount;
+
+        try
+        {
+            consumer.accept(chunk);
+        }
+        finally
+        {
+            this.chunkSource.removeRegionTicket(TICKET_TYPE, pos, 0, pos);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the tickets of all the chunks that have been requested but not yet processed.
+     * This must be called when the scan ends, whether it finished or not.
+     */
+    public void release()
+    {
+        for (ChunkPos pos : this.window)
+        {
+            if (this.skippedPositions.contains(pos.toLong()) == false)
+            {
+                this.chunkSource.removeRegionTicket(TICKET_TYPE, pos, 0, pos);
+            }
+        }
+
+        this.window.clear();
+        this.skippedPositions.clear();
+    }
+
+    private void fillWindow()
+    {
+        while (this.window.size() < this.windowSize && this.requestedCount < this.chunkCount)
+        {
+            ChunkPos pos = this.getNextPosition();
+
+            // The skipped positions are kept in the window, so that the chunks still get handled in order
+            if (this.skipFilter != null && this.skipFilter.test(pos.toLong()))
+            {
+                this.skippedPositions.add(pos.toLong());
+            }
+            else
+            {
+                this.chunkSource.addRegionTicket(TICKET_TYPE, pos, 0, pos);
+            }
+
+            this.window.addLast(pos);
+            ++this.requestedCount;
+        }
+    }
+
+    /**
+     * @return the position of the next chunk to load. This is called exactly once for each chunk in the area.
+     */
+    protected ChunkPos getNextPosition()
+    {
+        ChunkPos pos = new ChunkPos(this.nextX, this.nextZ);
+
+        if (++this.nextX > Math.min(this.maxX, (this.regionX << 5) | 31))
+        {
+            this.nextX = Math.max(this.minX, this.regionX << 5);
+
+            if (++this.nextZ > Math.min(this.maxZ, (this.regionZ << 5) | 31))
+            {
+                if (++this.regionX > (this.maxX >> 5))
+                {
+                    this.regionX = this.minX >> 5;
+                    ++this.regionZ;
+                }
+
+                this.nextX = Math.max(this.minX, this.regionX << 5);
+                this.nextZ = Math.max(this.minZ, this.regionZ << 5);
+            }
+        }
+
+        return pos;
+    }
+}
@@ -0,0 +1,326 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import com.google.common.collect.Sets;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.util.WorldUtils;
+
+/**
+ * A base class for processors that count the blocks matching a set of block (state) filters per chunk.
+ * Only the sections that can contain any of the filtered states are decoded.
+ * After each chunk has been counted, the per-chunk counts are passed to {@link #onChunkCounted}.
+ * @param <W> the type of the per-worker counts and results
+ */
+public abstract class FilteredBlockCounter<W extends FilteredBlockCounter.Counts> extends ChunkProcessorAllChunks implements ISnapshotChunkProcessor<W>
+{
+    private final FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(8192));
+    protected final List<String> filterStrings;
+    // The index of each filtered state in the per-chunk counts, or -1 for states that aren't counted
+    private final int[] targetOfState;
+    private final int[] targetStates;
+    // The targets (ie. filtered states) matched by each filter
+    private final int[][] filterTargets;
+    private final int airTarget;
+    private W scanCounts;
+    protected int chunkCount;
+
+    protected FilteredBlockCounter(List<String> filterStrings) throws CommandSyntaxException
+    {
+        this.filterStrings = filterStrings;
+        this.targetOfState = new int[Block.BLOCK_STATE_REGISTRY.size()];
+        this.filterTargets = new int[filterStrings.size()][];
+
+        IntArrayList targets = new IntArrayList();
+        Arrays.fill(this.targetOfState, -1);
+
+        for (int i = 0; i < filterStrings.size(); ++i)
+        {
+            IntSet stateIds = BlockStats.getStateIdsForFilters(Collections.singletonList(filterStrings.get(i)));
+            IntArrayList filterTargets = new IntArrayList();
+
+            for (int stateId : stateIds)
+            {
+                if (this.targetOfState[stateId] == -1)
+                {
+                    this.targetOfState[stateId] = targets.size();
+                    targets.add(stateId);
+                }
+
+                filterTargets.add(this.targetOfState[stateId]);
+            }
+
+            this.filterTargets[i] = filterTargets.toIntArray();
+        }
+
+        this.targetStates = targets.toIntArray();
+        this.airTarget = this.targetOfState[Block.BLOCK_STATE_REGISTRY.getId(Blocks.AIR.defaultBlockState())];
+    }
+
+    protected int getFilterCount()
+    {
+        return this.filterTargets.length;
+    }
+
+    protected int getTargetCount()
+    {
+        return this.targetStates.length;
+    }
+
+    /**
+     * @return the number of blocks in the current chunk matching the given filter
+     */
+    protected long getFilterTotal(W counts, int filterIndex)
+    {
+        long total = 0;
+
+        for (int target : this.filterTargets[filterIndex])
+        {
+            total += counts.targetCounts[target];
+        }
+
+        return total;
+    }
+
+    /**
+     * @return the number of blocks in the current chunk matching any of the filters
+     */
+    protected long getTotal(W counts)
+    {
+        long total = 0;
+
+        for (long count : counts.targetCounts)
+        {
+            total += count;
+        }
+
+        return total;
+    }
+
+    /**
+     * Called after each chunk has been counted, with the per-chunk counts in the given worker.
+     * Called from the worker threads for the snapshot scans.
+     * @param dimension supplies the dimension ID of the chunk, for when it's needed
+     */
+    protected abstract void onChunkCounted(W counts, ChunkPos chunkPos, Supplier<String> dimension);
+
+    /**
+     * Called on the server thread with the final results of a scan
+     */
+    protected abstract void onScanResults(W results);
+
+    @Override
+    @Nullable
+    protected LongPredicate getChunkSkipFilter(Level world)
+    {
+        Set<BlockState> states = Sets.newIdentityHashSet();
+
+        for (int stateId : this.targetStates)
+        {
+            states.add(Block.BLOCK_STATE_REGISTRY.byId(stateId));
+        }
+
+        return BlockStateSummaries.INSTANCE.createChunkSkipFilter(world, states);
+    }
+
+    @Override
+    protected void onScanStart()
+    {
+        this.scanCounts = this.createWorker();
+    }
+
+    @Override
+    protected void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        final W counts = this.scanCounts;
+        ChunkPos chunkPos = chunk.getPos();
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        final int topY = chunk.getHighestSectionPosition() + 15;
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int yMax = Math.min(topY, posMax.getY());
+        LevelChunkSection[] sections = chunk.getSections();
+
+        for (int sectionY = yMin >> 4; yMin <= yMax && sectionY <= (yMax >> 4); ++sectionY)
+        {
+            LevelChunkSection section = sections[chunk.getSectionIndexFromSectionY(sectionY)];
+            final int sectionMinY = sectionY << 4;
+            final int y1 = Math.max(yMin, sectionMinY);
+            final int y2 = Math.min(yMax, sectionMinY + 15);
+
+            // Only sections that may contain any of the counted states need to be copied and decoded
+            if (section == null || section.hasOnlyAir())
+            {
+                this.countSection(counts, SectionSnapshot.EMPTY, xMin, y1, zMin, xMax, y2, zMax);
+            }
+            else if (section.getStates().maybeHas((state) -> this.targetOfState[Block.BLOCK_STATE_REGISTRY.getId(state)] != -1))
+            {
+                this.countSection(counts, SectionSnapshot.of(section, this.buf), xMin, y1, zMin, xMax, y2, zMax);
+            }
+        }
+
+        this.finishChunk(counts, chunkPos, topY, posMin, posMax, xMin, zMin, xMax, zMax, () -> WorldUtils.getDimensionId(chunk.getLevel()));
+    }
+
+    @Override
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
+        this.chunkCount = chunkCount;
+
+        TellMe.logger.info(String.format(Locale.US, "Counted the filtered blocks in %d chunks in %.4f seconds.", chunkCount, durationNanos / 1000000000D));
+
+        this.onScanResults(this.scanCounts);
+    }
+
+    @Override
+    public void processChunk(W counts, ChunkSnapshot chunk, BlockPos posMin, BlockPos posMax)
+    {
+        ChunkPos chunkPos = chunk.getPos();
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        final int topY = chunk.getTopY();
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int yMax = Math.min(topY, posMax.getY());
+
+        for (int sectionY = yMin >> 4; yMin <= yMax && sectionY <= (yMax >> 4); ++sectionY)
+        {
+            final int sectionMinY = sectionY << 4;
+            final int y1 = Math.max(yMin, sectionMinY);
+            final int y2 = Math.min(yMax, sectionMinY + 15);
+
+            this.countSection(counts, chunk.getSection(sectionY), xMin, y1, zMin, xMax, y2, zMax);
+        }
+
+        this.finishChunk(counts, chunkPos, topY, posMin, posMax, xMin, zMin, xMax, zMax, chunk::getDimension);
+    }
+
+    @Override
+    public void onScanFinished(W results, int chunkCount, long durationNanos)
+    {
+        this.chunkCount = chunkCount;
+
+        TellMe.logger.info(String.format(Locale.US, "Counted the filtered blocks in %d chunks in %.4f seconds (using %d threads).",
+                chunkCount, durationNanos / 1000000000D, ParallelChunkScanner.getThreadCount()));
+
+        this.onScanResults(results);
+    }
+
+    /**
+     * Adds the counted states within the given range inside one section to the per-chunk counts
+     */
+    private void countSection(W counts, SectionSnapshot section, int xMin, int yMin, int zMin, int xMax, int yMax, int zMax)
+    {
+        final long[] targetCounts = counts.targetCounts;
+
+        if (section.isSingleValue())
+        {
+            final int target = this.targetOfState[section.getPaletteEntry(0)];
+
+            if (target != -1)
+            {
+                targetCounts[target] += (long) (xMax - xMin + 1) * (yMax - yMin + 1) * (zMax - zMin + 1);
+            }
+
+            return;
+        }
+
+        final int[] indices = counts.indexBuffer;
+        int[] valueTargets = this.targetOfState;
+
+        // Map the palette entries to the targets first, so that sections without any counted states don't need to be decoded
+        if (section.hasPalette())
+        {
+            final int size = section.getPaletteSize();
+            boolean hasTargets = false;
+
+            if (counts.paletteTargets.length < size)
+            {
+                counts.paletteTargets = new int[size];
+            }
+
+            for (int i = 0; i < size; ++i)
+            {
+                final int target = this.targetOfState[section.getPaletteEntry(i)];
+                counts.paletteTargets[i] = target;
+                hasTargets |= target != -1;
+            }
+
+            if (hasTargets == false)
+            {
+                return;
+            }
+
+            valueTargets = counts.paletteTargets;
+        }
+
+        section.decode(indices);
+
+        for (int y = yMin; y <= yMax; ++y)
+        {
+            for (int z = zMin; z <= zMax; ++z)
+            {
+                for (int x = xMin; x <= xMax; ++x)
+                {
+                    final int target = valueTargets[indices[SectionSnapshot.getIndex(x & 15, y & 15, z & 15)]];
+
+                    if (target != -1)
+                    {
+                        ++targetCounts[target];
+                    }
+                }
+            }
+        }
+    }
+
+    private void finishChunk(W counts, ChunkPos chunkPos, int topY, BlockPos posMin, BlockPos posMax,
+                             int xMin, int zMin, int xMax, int zMax, Supplier<String> dimension)
+    {
+        // Add the air that would be in non-existing chunk sections within the given volume
+        if (this.airTarget != -1 && topY < posMax.getY())
+        {
+            counts.targetCounts[this.airTarget] += (long) (posMax.getY() - Math.max(topY, posMin.getY() - 1)) * (xMax - xMin + 1) * (zMax - zMin + 1);
+        }
+
+        this.onChunkCounted(counts, chunkPos, dimension);
+
+        Arrays.fill(counts.targetCounts, 0L);
+    }
+
+    /**
+     * The per-worker temporary counts of the current chunk. The subclasses add their own results.
+     */
+    public static class Counts
+    {
+        private final long[] targetCounts;
+        private final int[] indexBuffer = new int[SectionDataDecoder.SECTION_SIZE];
+        private int[] paletteTargets = new int[256];
+
+        protected Counts(int targetCount)
+        {
+            this.targetCounts = new long[targetCount];
+        }
+    }
+}
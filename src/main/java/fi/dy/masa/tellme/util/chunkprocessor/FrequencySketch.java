@@ -0,0 +1,295 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * Approximate counts of long keys in a fixed amount of memory, regardless of the number of distinct keys.
+ * A Count-Min sketch gives an upper bound estimate for the count of any key, and a Space-Saving summary
+ * keeps the heaviest keys (the heavy hitters) with a guaranteed lower and upper bound for their counts.
+ * The Count-Min error bound on the other hand only holds with a high probability.
+ * Two sketches with the same size can be merged, so each worker thread can fill its own sketch.
+ * This class is not thread safe.
+ */
+public class FrequencySketch
+{
+    private static final int DEPTH = 4;
+    private static final long[] ROW_SEEDS = new long[] { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L };
+
+    private final int width;
+    private final long[] table;
+    private final int capacity;
+    // The Space-Saving summary, as a min-heap by the count, so that the root is the entry to replace
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Long2IntOpenHashMap heapIndices;
+    private int size;
+    private long totalCount;
+
+    /**
+     * @param widthBits the base-2 logarithm of the number of counters per Count-Min row
+     * @param capacity the number of heavy hitter keys to keep
+     */
+    public FrequencySketch(int widthBits, int capacity)
+    {
+        this.width = 1 << widthBits;
+        this.table = new long[DEPTH * this.width];
+        this.capacity = capacity;
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heapIndices = new Long2IntOpenHashMap(capacity);
+        this.heapIndices.defaultReturnValue(-1);
+    }
+
+    public long getTotalCount()
+    {
+        return this.totalCount;
+    }
+
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    /**
+     * @return the maximum amount by which the Count-Min estimates may exceed the true counts,
+     * which holds with the probability of {@link #getErrorBoundProbability()}
+     */
+    public long getEstimateErrorBound()
+    {
+        return (long) Math.ceil(Math.E / this.width * this.totalCount);
+    }
+
+    public double getErrorBoundProbability()
+    {
+        return 1.0 - Math.exp(-DEPTH);
+    }
+
+    public void add(long key, long count)
+    {
+        if (count <= 0)
+        {
+            return;
+        }
+
+        this.totalCount += count;
+
+        for (int row = 0; row < DEPTH; ++row)
+        {
+            this.table[this.getTableIndex(row, key)] += count;
+        }
+
+        int index = this.heapIndices.get(key);
+
+        if (index >= 0)
+        {
+            this.counts[index] += count;
+            this.siftDown(index);
+        }
+        else if (this.size < this.capacity)
+        {
+            index = this.size++;
+            this.setEntry(index, key, count, 0);
+            this.siftUp(index);
+        }
+        // Replace the key with the smallest count. Its count is an upper bound for the new key's earlier occurrences.
+        else
+        {
+            final long minCount = this.counts[0];
+
+            this.heapIndices.remove(this.keys[0]);
+            this.setEntry(0, key, minCount + count, minCount);
+            this.siftDown(0);
+        }
+    }
+
+    /**
+     * @return the Count-Min estimate of the count of the given key, which is never less than the true count
+     */
+    public long estimateCount(long key)
+    {
+        long min = Long.MAX_VALUE;
+
+        for (int row = 0; row < DEPTH; ++row)
+        {
+            min = Math.min(min, this.table[this.getTableIndex(row, key)]);
+        }
+
+        // The Space-Saving count is also an upper bound, if the key is tracked
+        final int index = this.heapIndices.get(key);
+
+        return index >= 0 ? Math.min(min, this.counts[index]) : min;
+    }
+
+    /**
+     * @return a guaranteed lower bound for the count of the given key, from the Space-Saving summary.
+     * This is 0 for the keys that are not tracked in the summary.
+     */
+    public long getLowerBound(long key)
+    {
+        final int index = this.heapIndices.get(key);
+
+        return index >= 0 ? this.counts[index] - this.errors[index] : 0;
+    }
+
+    /**
+     * @return the tracked heavy hitter keys, ordered by their counts from highest to lowest
+     */
+    public long[] getHeavyHitters()
+    {
+        int[] order = new int[this.size];
+
+        for (int i = 0; i < order.length; ++i)
+        {
+            order[i] = i;
+        }
+
+        IntArrays.quickSort(order, (i1, i2) -> Long.compare(this.counts[i2], this.counts[i1]));
+
+        long[] keys = new long[order.length];
+
+        for (int i = 0; i < order.length; ++i)
+        {
+            keys[i] = this.keys[order[i]];
+        }
+
+        return keys;
+    }
+
+    /**
+     * Merges the counts from the other sketch into this one. The sketches must have the same size.
+     * The heavy hitter summaries are combined as in the mergeable Space-Saving summaries:
+     * a key missing from a full summary may have had up to that summary's minimum count.
+     */
+    public void merge(FrequencySketch other)
+    {
+        if (other.width != this.width || other.capacity != this.capacity)
+        {
+            throw new IllegalArgumentException("Can't merge sketches of different sizes");
+        }
+
+        for (int i = 0; i < this.table.length; ++i)
+        {
+            this.table[i] += other.table[i];
+        }
+
+        this.totalCount += other.totalCount;
+
+        final long thisMin = this.size >= this.capacity ? this.counts[0] : 0;
+        final long otherMin = other.size >= other.capacity ? other.counts[0] : 0;
+        final int maxSize = this.size + other.size;
+        long[] mergedKeys = new long[maxSize];
+        long[] mergedCounts = new long[maxSize];
+        long[] mergedErrors = new long[maxSize];
+        int mergedSize = 0;
+
+        for (int i = 0; i < this.size; ++i)
+        {
+            final int otherIndex = other.heapIndices.get(this.keys[i]);
+            mergedKeys[mergedSize] = this.keys[i];
+            mergedCounts[mergedSize] = this.counts[i] + (otherIndex >= 0 ? other.counts[otherIndex] : otherMin);
+            mergedErrors[mergedSize] = this.errors[i] + (otherIndex >= 0 ? other.errors[otherIndex] : otherMin);
+            ++mergedSize;
+        }
+
+        for (int i = 0; i < other.size; ++i)
+        {
+            if (this.heapIndices.containsKey(other.keys[i]) == false)
+            {
+                mergedKeys[mergedSize] = other.keys[i];
+                mergedCounts[mergedSize] = other.counts[i] + thisMin;
+                mergedErrors[mergedSize] = other.errors[i] + thisMin;
+                ++mergedSize;
+            }
+        }
+
+        // Keep the entries with the highest counts
+        int[] order = new int[mergedSize];
+
+        for (int i = 0; i < mergedSize; ++i)
+        {
+            order[i] = i;
+        }
+
+        IntArrays.quickSort(order, (i1, i2) -> Long.compare(mergedCounts[i2], mergedCounts[i1]));
+
+        this.heapIndices.clear();
+        this.size = 0;
+
+        for (int i = 0; i < Math.min(mergedSize, this.capacity); ++i)
+        {
+            final int index = this.size++;
+            this.setEntry(index, mergedKeys[order[i]], mergedCounts[order[i]], mergedErrors[order[i]]);
+            this.siftUp(index);
+        }
+    }
+
+    private int getTableIndex(int row, long key)
+    {
+        return row * this.width + ((int) HashCommon.mix(key ^ ROW_SEEDS[row]) & (this.width - 1));
+    }
+
+    private void setEntry(int index, long key, long count, long error)
+    {
+        this.keys[index] = key;
+        this.counts[index] = count;
+        this.errors[index] = error;
+        this.heapIndices.put(key, index);
+    }
+
+    private void swap(int index1, int index2)
+    {
+        final long key = this.keys[index1];
+        final long count = this.counts[index1];
+        final long error = this.errors[index1];
+
+        this.setEntry(index1, this.keys[index2], this.counts[index2], this.errors[index2]);
+        this.setEntry(index2, key, count, error);
+    }
+
+    private void siftUp(int index)
+    {
+        while (index > 0)
+        {
+            final int parent = (index - 1) >> 1;
+
+            if (this.counts[parent] <= this.counts[index])
+            {
+                break;
+            }
+
+            this.swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index)
+    {
+        while (true)
+        {
+            final int left = (index << 1) + 1;
+            int smallest = index;
+
+            if (left < this.size && this.counts[left] < this.counts[smallest])
+            {
+                smallest = left;
+            }
+
+            if (left + 1 < this.size && this.counts[left + 1] < this.counts[smallest])
+            {
+                smallest = left + 1;
+            }
+
+            if (smallest == index)
+            {
+                break;
+            }
+
+            this.swap(index, smallest);
+            index = smallest;
+        }
+    }
+}
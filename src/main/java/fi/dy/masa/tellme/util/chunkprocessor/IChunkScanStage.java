@@ -0,0 +1,66 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import javax.annotation.Nullable;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+/**
+ * One of the processors in a {@link ChunkScanPipeline}. All the stages of a pipeline
+ * get the chunks from the same single pass over the scanned area.
+ * For each chunk, {@link #visitChunk} is called first, then {@link #visitSection} for each section
+ * and {@link #visitBlockEntity} for each block entity, if the stage wants them.
+ * All the callbacks are called on the server thread.
+ */
+public interface IChunkScanStage
+{
+    /**
+     * Called before the first chunk of a scan
+     */
+    default void beginScan()
+    {
+    }
+
+    default void visitChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+    }
+
+    /**
+     * @return true if this stage wants the {@link #visitSection} callbacks. This is checked at the start of each scan.
+     */
+    default boolean wantsSections()
+    {
+        return false;
+    }
+
+    /**
+     * Called for each section of the chunk that is at least partially inside the scanned volume,
+     * up to the highest non-empty section. The section is null or only has air, if it's empty.
+     */
+    default void visitSection(LevelChunk chunk, @Nullable LevelChunkSection section, int sectionY, BlockPos posMin, BlockPos posMax)
+    {
+    }
+
+    /**
+     * @return true if this stage wants the {@link #visitBlockEntity} callbacks. This is checked at the start of each scan.
+     */
+    default boolean wantsBlockEntities()
+    {
+        return false;
+    }
+
+    /**
+     * Called for each block entity of the chunk that is inside the scanned volume
+     */
+    default void visitBlockEntity(LevelChunk chunk, BlockEntity blockEntity)
+    {
+    }
+
+    /**
+     * Called after the last chunk of a scan
+     */
+    default void endScan(int chunkCount, long durationNanos)
+    {
+    }
+}
@@ -0,0 +1,33 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import net.minecraft.core.BlockPos;
+
+/**
+ * A chunk processor that can process immutable chunk snapshots on worker threads.
+ * Each worker thread accumulates its results into its own worker object,
+ * and the worker objects are then merged together at the end of the scan.
+ * @param <W> the type of the per-worker result holder
+ */
+public interface ISnapshotChunkProcessor<W>
+{
+    /**
+     * Creates a new, empty per-worker result holder. Called from the worker threads.
+     */
+    W createWorker();
+
+    /**
+     * Processes the given chunk snapshot into the given worker's results. Called from the worker threads.
+     */
+    void processChunk(W worker, ChunkSnapshot chunk, BlockPos posMin, BlockPos posMax);
+
+    /**
+     * Merges the results from the worker <b>from</b> into the worker <b>into</b>. Called from the worker threads.
+     */
+    void mergeWorkers(W into, W from);
+
+    /**
+     * Called on the server thread once all the chunks have been processed,
+     * with the merged results of all the workers.
+     */
+    void onScanFinished(W results, int chunkCount, long durationNanos);
+}
@@ -1,14 +1,26 @@
 package fi.dy.masa.tellme.util.chunkprocessor;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
+import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.TextComponent;
+import net.minecraft.network.chat.TranslatableComponent;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.phys.Vec3;
 import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.IForgeRegistry;
+import fi.dy.masa.tellme.config.Configs;
 import fi.dy.masa.tellme.util.datadump.DataDump;
 import fi.dy.masa.tellme.util.datadump.DataDump.Format;
 
@@ -22,13 +34,28 @@ public abstract class LocateBase extends ChunkProcessorAllChunks
     protected static final String FMT_COORDS_8 = "x = %8.2f, y = %5.2f, z = %8.2f";
     protected static final DynamicCommandExceptionType INVALID_NAME_EXCEPTION = new DynamicCommandExceptionType((v) -> new TextComponent("Invalid name: " + v));
 
-    protected final List<LocationData> data = new ArrayList<>();
+    protected final LocationDataStore.StringTable names = new LocationDataStore.StringTable(Integer.MAX_VALUE);
+    protected final LocationDataStore.StringTable dimensions = new LocationDataStore.StringTable(256);
+    protected final LocationDataStore data;
     protected final DataDump.Format format;
+    protected final boolean precisePositions;
     protected boolean printDimension;
+    protected boolean sortByDistance;
+    protected int scanStartCount;
 
-    protected LocateBase(DataDump.Format format)
+    /**
+     * @param precisePositions if true, then the exact coordinates of the results are stored, instead of block positions
+     */
+    protected LocateBase(DataDump.Format format, boolean precisePositions)
     {
         this.format = format;
+        this.precisePositions = precisePositions;
+        this.data = this.createResultStore();
+    }
+
+    protected LocationDataStore createResultStore()
+    {
+        return new LocationDataStore(Configs.Generic.locateResultMemoryLimit, this.names, this.dimensions, this.precisePositions);
     }
 
     public LocateBase setPrintDimension(boolean printDimension)
@@ -37,7 +64,104 @@ public abstract class LocateBase extends ChunkProcessorAllChunks
         return this;
     }
 
+    @Override
+    protected void onScanStart()
+    {
+        this.scanStartCount = this.data.size();
+    }
+
+    /**
+     * @return the number of results found during the current/latest scan
+     */
+    protected int getScanResultCount()
+    {
+        return this.data.size() - this.scanStartCount;
+    }
+
+    /**
+     * Locates the given number of matches nearest to the given center position, within the given chunk radius.
+     * The chunks are visited in rings outward from the center chunk (see {@link RingChunkStreamer}),
+     * and only the nearest matches found so far are kept. The scan stops as soon as the next ring
+     * can't contain anything closer than the furthest of the kept matches.
+     * The results are stored in the order of increasing distance from the center.
+     */
+    public CompletableFuture<Void> locateNearestAsync(Level world, Vec3 center, int chunkRadius, int resultLimit) throws CommandSyntaxException
+    {
+        if ((world.getChunkSource() instanceof ServerChunkCache) == false)
+        {
+            throw (new SimpleCommandExceptionType(new TranslatableComponent("The nearest search can only be done on the server"))).create();
+        }
+
+        final ChunkPos centerChunk = new ChunkPos(new BlockPos(center));
+        final BlockPos posMin = new BlockPos((centerChunk.x - chunkRadius) << 4, world.getMinBuildHeight(), (centerChunk.z - chunkRadius) << 4);
+        final BlockPos posMax = new BlockPos(((centerChunk.x + chunkRadius) << 4) + 15, world.getMaxBuildHeight() - 1, ((centerChunk.z + chunkRadius) << 4) + 15);
+
+        this.validateCoordinates(world, posMin, posMax);
+
+        final RingChunkStreamer streamer = new RingChunkStreamer((ServerChunkCache) world.getChunkSource(), centerChunk, chunkRadius,
+                                                                 Configs.Generic.scanChunkWindowSize);
+        streamer.setSkipFilter(this.getChunkSkipFilter(world));
+        final NearestSearch search = new NearestSearch(center, centerChunk, resultLimit);
+
+        this.sortByDistance = true;
+        // The results are moved out of the store after each chunk, so they must stay in memory
+        this.data.setSpillEnabled(false);
+        this.onScanStart();
+
+        return ChunkScanScheduler.scheduleStreaming(this.getClass().getSimpleName(), streamer.getChunkCount(),
+                                                    (i) -> streamer.processNext((chunk) -> this.processChunkForNearest(search, chunk, posMin, posMax)),
+                                                    () -> search.isDone(streamer.getProcessedCount()),
+                                                    (duration) -> {
+                                                        search.getResults(this.data);
+                                                        this.data.setSpillEnabled(true);
+                                                        this.onScanEnd(search.chunkCount, duration);
+                                                    },
+                                                    this.progressListener)
+                                 .whenComplete((v, e) -> streamer.release());
+    }
+
+    private void processChunkForNearest(NearestSearch search, LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        final int firstNew = this.data.size();
+
+        this.processAndSummarizeChunk(chunk, posMin, posMax);
+
+        // Move the new matches from the result store into the bounded nearest set
+        this.data.removeFrom(firstNew, search::offer);
+        ++search.chunkCount;
+    }
+
+    /**
+     * @return true if the results have grown too large to be kept in memory,
+     * in which case they should be written out via {@link #createDump()} and {@link #forEachRow(Consumer)}
+     * instead of {@link #getLines()}
+     */
+    public boolean hasSpilledResults()
+    {
+        return this.data.hasSpilled();
+    }
+
+    /**
+     * Deletes the results, including any spill files. This should be called once the results have been printed.
+     */
+    public void clearResults()
+    {
+        this.data.clear();
+    }
+
     public List<String> getLines()
+    {
+        DataDump dump = this.createDump();
+
+        this.forEachRow(dump::addData);
+
+        return dump.getLines();
+    }
+
+    /**
+     * @return a new DataDump with the column titles set, but without the data rows
+     */
+    public DataDump createDump()
     {
         int columnCount = this.format == Format.CSV ? 8 : 4;
 
@@ -47,11 +171,7 @@ public abstract class LocateBase extends ChunkProcessorAllChunks
         }
 
         DataDump dump = new DataDump(columnCount, this.format);
-
-        for (LocationData entry : this.data)
-        {
-            this.addLine(dump, entry);
-        }
+        dump.setSort(this.sortByDistance == false);
 
         if (this.format == Format.CSV)
         {
@@ -76,16 +196,25 @@ public abstract class LocateBase extends ChunkProcessorAllChunks
             }
         }
 
-        return dump.getLines();
+        return dump;
+    }
+
+    /**
+     * Passes the formatted row values of each result to the given consumer
+     */
+    public void forEachRow(Consumer<String[]> rowConsumer)
+    {
+        this.data.forEach((nameId, dimensionId, x, y, z) -> rowConsumer.accept(this.getRowValues(nameId, dimensionId, x, y, z)));
     }
 
-    protected void addLine(DataDump dump, LocationData data)
+    protected String[] getRowValues(int nameId, int dimensionId, double x, double y, double z)
     {
-        Vec3 pos = data.pos;
-        int rx = ((int) pos.x) >> 9;
-        int rz = ((int) pos.z) >> 9;
-        int cx = ((int) pos.x) >> 4;
-        int cz = ((int) pos.z) >> 4;
+        String name = this.names.get(nameId);
+        String dimension = this.dimensions.get(dimensionId);
+        int rx = ((int) x) >> 9;
+        int rz = ((int) z) >> 9;
+        int cx = ((int) x) >> 4;
+        int cz = ((int) z) >> 4;
 
         if (this.format == Format.CSV)
         {
@@ -93,18 +222,18 @@ public abstract class LocateBase extends ChunkProcessorAllChunks
 
             if (this.printDimension)
             {
-                dump.addData(data.name,
-                             data.dimension,
-                             String.valueOf(rx), String.valueOf(rz),
-                             String.valueOf(cx), String.valueOf(cz),
-                             String.format(fmtCoord, pos.x), String.format(fmtCoord, pos.y), String.format(fmtCoord, pos.z));
+                return new String[] { name,
+                                      dimension,
+                                      String.valueOf(rx), String.valueOf(rz),
+                                      String.valueOf(cx), String.valueOf(cz),
+                                      String.format(fmtCoord, x), String.format(fmtCoord, y), String.format(fmtCoord, z) };
             }
             else
             {
-                dump.addData(data.name,
-                             String.valueOf(rx), String.valueOf(rz),
-                             String.valueOf(cx), String.valueOf(cz),
-                             String.format(fmtCoord, pos.x), String.format(fmtCoord, pos.y), String.format(fmtCoord, pos.z));
+                return new String[] { name,
+                                      String.valueOf(rx), String.valueOf(rz),
+                                      String.valueOf(cx), String.valueOf(cz),
+                                      String.format(fmtCoord, x), String.format(fmtCoord, y), String.format(fmtCoord, z) };
             }
         }
         else
@@ -113,37 +242,109 @@ public abstract class LocateBase extends ChunkProcessorAllChunks
             String fmtChunk = this.format == Format.ASCII ? FMT_CHUNK_5 : FMT_CHUNK;
             String fmtPos = this.format == Format.ASCII ? FMT_COORDS_8 : FMT_COORDS;
 
-            String strPos = String.format(fmtPos, pos.x, pos.y, pos.z);
+            String strPos = String.format(fmtPos, x, y, z);
             String strRegion = String.format(fmtRegion, rx, rz);
             String strChunk = String.format(fmtChunk, cx, cz);
 
             if (this.printDimension)
             {
-                dump.addData(data.name, data.dimension, strRegion, strChunk, strPos);
+                return new String[] { name, dimension, strRegion, strChunk, strPos };
             }
             else
             {
-                dump.addData(data.name, strRegion, strChunk, strPos);
+                return new String[] { name, strRegion, strChunk, strPos };
             }
         }
     }
 
-    protected static class LocationData
+    private static class NearestSearch
     {
-        private final String name;
-        private final String dimension;
-        private final Vec3 pos;
+        private final Vec3 center;
+        private final ChunkPos centerChunk;
+        private final int limit;
+        private final PriorityQueue<Hit> nearest;
+        private int chunkCount;
+        private int checkedRing = -1;
+        private boolean done;
+
+        private NearestSearch(Vec3 center, ChunkPos centerChunk, int limit)
+        {
+            this.center = center;
+            this.centerChunk = centerChunk;
+            this.limit = limit;
+            this.nearest = new PriorityQueue<>(limit + 1, Comparator.comparingDouble((Hit hit) -> hit.distanceSq).reversed());
+        }
+
+        private void offer(int nameId, int dimensionId, double x, double y, double z)
+        {
+            final double distanceSq = this.center.distanceToSqr(x, y, z);
+
+            if (this.nearest.size() < this.limit)
+            {
+                this.nearest.add(new Hit(nameId, dimensionId, x, y, z, distanceSq));
+            }
+            else if (distanceSq < this.nearest.peek().distanceSq)
+            {
+                this.nearest.poll();
+                this.nearest.add(new Hit(nameId, dimensionId, x, y, z, distanceSq));
+            }
+        }
 
-        private LocationData(String name, String dimension, Vec3 pos)
+        /**
+         * @param handledCount the number of chunks processed or skipped so far, in the ring order
+         */
+        private boolean isDone(int handledCount)
         {
-            this.name = name;
-            this.dimension = dimension;
-            this.pos = pos;
+            // The number of fully handled rings, minus one
+            final int ring = (((int) Math.sqrt(handledCount)) - 1) >> 1;
+
+            // All the rings up to and including this one have been handled.
+            // Anything in the following rings is at least as far away as the distance to the edge of the handled square.
+            if (this.done == false && ring > this.checkedRing && this.nearest.size() >= this.limit)
+            {
+                this.checkedRing = ring;
+                final double minX = (this.centerChunk.x - ring) << 4;
+                final double minZ = (this.centerChunk.z - ring) << 4;
+                final double maxX = (this.centerChunk.x + ring + 1) << 4;
+                final double maxZ = (this.centerChunk.z + ring + 1) << 4;
+                final double edgeDistance = Math.min(Math.min(this.center.x - minX, maxX - this.center.x),
+                                                     Math.min(this.center.z - minZ, maxZ - this.center.z));
+
+                this.done = this.nearest.peek().distanceSq <= edgeDistance * edgeDistance;
+            }
+
+            return this.done;
         }
 
-        protected static LocationData of(String name, String dimension, Vec3 pos)
+        private void getResults(LocationDataStore resultsOut)
+        {
+            List<Hit> list = new ArrayList<>(this.nearest);
+            list.sort(Comparator.comparingDouble((Hit hit) -> hit.distanceSq));
+
+            for (Hit hit : list)
+            {
+                resultsOut.add(hit.nameId, hit.dimensionId, hit.x, hit.y, hit.z);
+            }
+        }
+    }
+
+    private static class Hit
+    {
+        private final int nameId;
+        private final int dimensionId;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final double distanceSq;
+
+        private Hit(int nameId, int dimensionId, double x, double y, double z, double distanceSq)
         {
-            return new LocationData(name, dimension, pos);
+            this.nameId = nameId;
+            this.dimensionId = dimensionId;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.distanceSq = distanceSq;
         }
     }
 
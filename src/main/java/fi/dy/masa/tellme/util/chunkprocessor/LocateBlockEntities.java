@@ -1,12 +1,12 @@
 package fi.dy.masa.tellme.util.chunkprocessor;
 
-import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
 import com.google.common.collect.Sets;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Registry;
 import net.minecraft.resources.ResourceLocation;
@@ -15,21 +15,26 @@ import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.entity.BlockEntityType;
 import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.levelgen.structure.BoundingBox;
-import net.minecraft.world.phys.Vec3;
 import fi.dy.masa.tellme.TellMe;
 import fi.dy.masa.tellme.util.BlockInfo;
 import fi.dy.masa.tellme.util.WorldUtils;
 import fi.dy.masa.tellme.util.datadump.DataDump;
 
-public class LocateBlockEntities extends LocateBase
+public class LocateBlockEntities extends LocateBase implements IChunkScanStage
 {
     protected final Set<BlockEntityType<?>> filters;
+    protected final Reference2IntOpenHashMap<BlockEntityType<?>> filterNameIds = new Reference2IntOpenHashMap<>();
 
     protected LocateBlockEntities(DataDump.Format format, List<String> filterStrings) throws CommandSyntaxException
     {
-        super(format);
+        super(format, false);
 
         this.filters = this.generateBlockEntityFilters(filterStrings);
+
+        for (BlockEntityType<?> type : this.filters)
+        {
+            this.filterNameIds.put(type, this.names.getId(BlockInfo.getBlockEntityNameFor(type)));
+        }
     }
 
     protected Set<BlockEntityType<?>> generateBlockEntityFilters(List<String> filterStrings) throws CommandSyntaxException
@@ -60,47 +65,66 @@ public class LocateBlockEntities extends LocateBase
     }
 
     @Override
-    public void processChunks(Collection<LevelChunk> chunks, BlockPos posMin, BlockPos posMax)
+    protected void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
     {
-        final long timeBefore = System.nanoTime();
-        Set<BlockEntityType<?>> filters = this.filters;
-        int count = 0;
+        ChunkPos chunkPos = chunk.getPos();
+        final int dimensionId = this.dimensions.getId(WorldUtils.getDimensionId(chunk.getLevel()));
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int yMax = Math.min(chunk.getMaxBuildHeight() - 1, posMax.getY());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        BoundingBox box = new BoundingBox(xMin, yMin, zMin, xMax, yMax, zMax);
 
-        for (LevelChunk chunk : chunks)
+        for (BlockEntity te : chunk.getBlockEntities().values())
         {
-            if (this.data.size() >= 100000)
+            if (box.isInside(te.getBlockPos()))
             {
-                TellMe.logger.warn("Over 100 000 BlockEntities found already, aborting...");
-                break;
+                this.addIfMatches(te, dimensionId);
             }
+        }
+    }
 
-            ChunkPos chunkPos = chunk.getPos();
-            final String dim = WorldUtils.getDimensionId(chunk.getLevel());
-            final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
-            final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
-            final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
-            final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
-            final int yMax = Math.min(chunk.getMaxBuildHeight() - 1, posMax.getY());
-            final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
-            BoundingBox box = new BoundingBox(xMin, yMin, zMin, xMax, yMax, zMax);
-
-            for (BlockEntity te : chunk.getBlockEntities().values())
-            {
-                BlockPos pos = te.getBlockPos();
-                BlockEntityType<?> type = te.getType();
-                //System.out.printf("plop @ %s - box: %s\n", pos, box);
+    private void addIfMatches(BlockEntity te, int dimensionId)
+    {
+        BlockEntityType<?> type = te.getType();
 
-                if (filters.contains(type) && box.isInside(pos))
-                {
-                    String name = BlockInfo.getBlockEntityNameFor(type);
-                    this.data.add(LocationData.of(name, dim, new Vec3(pos.getX(), pos.getY(), pos.getZ())));
-                    count++;
-                }
-            }
+        if (this.filters.contains(type))
+        {
+            BlockPos pos = te.getBlockPos();
+            this.data.add(this.filterNameIds.getInt(type), dimensionId, pos.getX(), pos.getY(), pos.getZ());
         }
+    }
+
+    @Override
+    public void beginScan()
+    {
+        this.onScanStart();
+    }
+
+    @Override
+    public boolean wantsBlockEntities()
+    {
+        return true;
+    }
 
-        final long timeAfter = System.nanoTime();
+    @Override
+    public void visitBlockEntity(LevelChunk chunk, BlockEntity blockEntity)
+    {
+        this.addIfMatches(blockEntity, this.dimensions.getId(WorldUtils.getDimensionId(chunk.getLevel())));
+    }
+
+    @Override
+    public void endScan(int chunkCount, long durationNanos)
+    {
+        this.onScanEnd(chunkCount, durationNanos);
+    }
+
+    @Override
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
         TellMe.logger.info(String.format(Locale.US, "Located %d BlockEntities in %d chunks in %.3f seconds.",
-                                         count, chunks.size(), (timeAfter - timeBefore) / 1000000000D));
+                                         this.getScanResultCount(), chunkCount, durationNanos / 1000000000D));
     }
 }
@@ -5,31 +5,55 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.LongPredicate;
+import javax.annotation.Nullable;
 import org.apache.commons.lang3.tuple.Pair;
 import com.google.common.collect.Sets;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import io.netty.buffer.Unpooled;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Registry;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.LevelChunk;
-import net.minecraft.world.phys.Vec3;
+import net.minecraft.world.level.chunk.LevelChunkSection;
 import fi.dy.masa.tellme.TellMe;
 import fi.dy.masa.tellme.util.BlockInfo;
 import fi.dy.masa.tellme.util.WorldUtils;
 import fi.dy.masa.tellme.util.datadump.DataDump;
 
-public class LocateBlocks extends LocateBase
+public class LocateBlocks extends LocateBase implements ISnapshotChunkProcessor<LocationDataStore>
 {
+    // The workers are plain result stores, so the decoding buffers are per thread instead
+    private static final ThreadLocal<int[]> INDEX_BUFFER = ThreadLocal.withInitial(() -> new int[SectionDataDecoder.SECTION_SIZE]);
+    private static final ThreadLocal<int[]> POSITION_BUFFER = ThreadLocal.withInitial(() -> new int[SectionDataDecoder.SECTION_SIZE]);
+
     protected final Set<BlockState> filters;
+    protected final boolean[] filterIds;
+    // The name table IDs of the filtered states, indexed by the state ID
+    protected final int[] filterNameIds;
+    private final int[] indexBuffer = new int[SectionDataDecoder.SECTION_SIZE];
+    private final int[] positionBuffer = new int[SectionDataDecoder.SECTION_SIZE];
+    private final FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(8192));
 
     protected LocateBlocks(DataDump.Format format, List<String> filterStrings) throws CommandSyntaxException
     {
-        super(format);
+        super(format, false);
 
         this.filters = this.generateBlockStateFilters(filterStrings);
+        this.filterIds = new boolean[Block.BLOCK_STATE_REGISTRY.size()];
+        this.filterNameIds = new int[this.filterIds.length];
+
+        for (BlockState state : this.filters)
+        {
+            int id = Block.BLOCK_STATE_REGISTRY.getId(state);
+            this.filterIds[id] = true;
+            this.filterNameIds[id] = this.names.getId(state.getBlock().getRegistryName().toString());
+        }
     }
 
     protected Set<BlockState> generateBlockStateFilters(List<String> filterStrings) throws CommandSyntaxException
@@ -84,52 +108,195 @@ public class LocateBlocks extends LocateBase
     }
 
     @Override
-    public void processChunks(Collection<LevelChunk> chunks, BlockPos posMin, BlockPos posMax)
+    protected void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
     {
-        final long timeBefore = System.nanoTime();
-        Set<BlockState> filters = this.filters;
-        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
-        int count = 0;
+        ChunkPos chunkPos = chunk.getPos();
+        LevelChunkSection[] sections = chunk.getSections();
+        final int dimensionId = this.dimensions.getId(WorldUtils.getDimensionId(chunk.getLevel()));
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int yMax = Math.min(chunk.getHighestSectionPosition() + 15, posMax.getY());
+        final boolean useIndex = BlockPositionIndex.isEnabled();
 
-        for (LevelChunk chunk : chunks)
+        for (int sectionY = yMin >> 4; yMin <= yMax && sectionY <= (yMax >> 4); ++sectionY)
         {
-            if (this.data.size() > 100000)
+            final int sectionIndex = chunk.getSectionIndexFromSectionY(sectionY);
+            LevelChunkSection section = sections[sectionIndex];
+
+            // Skip the section without copying its data, if its palette can't contain any of the searched states
+            if (section != null && section.hasOnlyAir() == false && section.getStates().maybeHas(this.filters::contains) == false)
             {
-                TellMe.logger.warn("Over 100 000 blocks found already, aborting...");
-                break;
+                continue;
             }
 
-            ChunkPos chunkPos = chunk.getPos();
-            final String dim = WorldUtils.getDimensionId(chunk.getLevel());
-            final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
-            final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
-            final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
-            final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
-            final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
-            final int yMax = Math.min(chunk.getHighestSectionPosition() + 15, posMax.getY());
+            // The index is validated against the section's current data, and rebuilt if the section has changed
+            if (useIndex && section != null && section.hasOnlyAir() == false)
+            {
+                BlockPositionIndex.SectionPositions positions = BlockPositionIndex.INSTANCE.getSectionPositions(chunk, sectionIndex, section);
+                this.locateInIndexedSection(positions, this.data, dimensionId, xMin, Math.max(yMin, sectionY << 4), zMin,
+                                            xMax, Math.min(yMax, (sectionY << 4) + 15), zMax);
+                continue;
+            }
+
+            SectionSnapshot snapshot = section != null ? SectionSnapshot.of(section, this.buf) : SectionSnapshot.EMPTY;
 
-            for (int z = zMin; z <= zMax; ++z)
+            this.locateInSection(snapshot, this.data, this.indexBuffer, this.positionBuffer, dimensionId, xMin, Math.max(yMin, sectionY << 4), zMin,
+                                 xMax, Math.min(yMax, (sectionY << 4) + 15), zMax);
+        }
+    }
+
+    /**
+     * Adds the locations of all the matching blocks within the given range inside one section.
+     * The filter is first intersected with the section's palette, and the section is skipped
+     * if none of its palette entries match. Otherwise the palette indices of the section are decoded,
+     * and only the positions with a matching palette index are emitted.
+     */
+    protected void locateInSection(SectionSnapshot section, LocationDataStore results, int[] indexBuffer, int[] positionBuffer,
+                                   int dimensionId, int xMin, int yMin, int zMin, int xMax, int yMax, int zMax)
+    {
+        final boolean[] filterIds = this.filterIds;
+        boolean[] matches = filterIds;
+
+        if (section.hasPalette())
+        {
+            boolean hasMatches = false;
+            matches = new boolean[section.getPaletteSize()];
+
+            for (int i = 0; i < matches.length; ++i)
             {
-                for (int x = xMin; x <= xMax; ++x)
+                int id = section.getPaletteEntry(i);
+                matches[i] = id >= 0 && id < filterIds.length && filterIds[id];
+                hasMatches |= matches[i];
+            }
+
+            if (hasMatches == false)
+            {
+                return;
+            }
+        }
+
+        section.decode(indexBuffer);
+
+        final int count = SectionDataDecoder.findMatches(indexBuffer, matches, positionBuffer);
+        final int baseX = xMin & ~0xF;
+        final int baseY = yMin & ~0xF;
+        final int baseZ = zMin & ~0xF;
+
+        for (int i = 0; i < count; ++i)
+        {
+            final int position = positionBuffer[i];
+            final int x = baseX + (position & 0xF);
+            final int y = baseY + (position >> 8);
+            final int z = baseZ + ((position >> 4) & 0xF);
+
+            if (x >= xMin && x <= xMax && y >= yMin && y <= yMax && z >= zMin && z <= zMax)
+            {
+                results.add(this.filterNameIds[section.getPaletteEntry(indexBuffer[position])], dimensionId, x, y, z);
+            }
+        }
+    }
+
+    /**
+     * Adds the locations of all the matching blocks within the given range inside one section,
+     * by reading the positions of the matching states from the section's position index.
+     */
+    protected void locateInIndexedSection(BlockPositionIndex.SectionPositions positions, LocationDataStore results,
+                                          int dimensionId, int xMin, int yMin, int zMin, int xMax, int yMax, int zMax)
+    {
+        final boolean[] filterIds = this.filterIds;
+        final int baseX = xMin & ~0xF;
+        final int baseY = yMin & ~0xF;
+        final int baseZ = zMin & ~0xF;
+
+        for (int i = 0; i < positions.getStateCount(); ++i)
+        {
+            final int stateId = positions.getStateId(i);
+
+            if (stateId < 0 || stateId >= filterIds.length || filterIds[stateId] == false)
+            {
+                continue;
+            }
+
+            final int nameId = this.filterNameIds[stateId];
+
+            positions.getPositions(i).forEach((position) -> {
+                final int x = baseX + (position & 0xF);
+                final int y = baseY + (position >> 8);
+                final int z = baseZ + ((position >> 4) & 0xF);
+
+                if (x >= xMin && x <= xMax && y >= yMin && y <= yMax && z >= zMin && z <= zMax)
                 {
-                    for (int y = yMin; y <= yMax; ++y)
-                    {
-                        pos.set(x, y, z);
-                        BlockState state = chunk.getBlockState(pos);
-
-                        if (filters.contains(state))
-                        {
-                            ResourceLocation name = state.getBlock().getRegistryName();
-                            this.data.add(LocationData.of(name.toString(), dim, new Vec3(x, y, z)));
-                            count++;
-                        }
-                    }
+                    results.add(nameId, dimensionId, x, y, z);
                 }
-            }
+            });
         }
+    }
+
+    @Override
+    @Nullable
+    protected LongPredicate getChunkSkipFilter(Level world)
+    {
+        return BlockStateSummaries.INSTANCE.createChunkSkipFilter(world, this.filters);
+    }
 
-        final long timeAfter = System.nanoTime();
+    @Override
+    protected boolean canProcessOnWorkerThreads()
+    {
+        // The position index can only be used on the server thread, and it's faster than decoding the data on the workers
+        return BlockPositionIndex.isEnabled() == false && super.canProcessOnWorkerThreads();
+    }
+
+    @Override
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
         TellMe.logger.info(String.format(Locale.US, "Located %d blocks in %d chunks in %.3f seconds.",
-                                         count, chunks.size(), (timeAfter - timeBefore) / 1000000000D));
+                                         this.getScanResultCount(), chunkCount, durationNanos / 1000000000D));
+    }
+
+    @Override
+    public LocationDataStore createWorker()
+    {
+        return this.createResultStore();
+    }
+
+    @Override
+    public void processChunk(LocationDataStore worker, ChunkSnapshot chunk, BlockPos posMin, BlockPos posMax)
+    {
+        ChunkPos chunkPos = chunk.getPos();
+        int[] indexBuffer = INDEX_BUFFER.get();
+        int[] positionBuffer = POSITION_BUFFER.get();
+        final int dimensionId = this.dimensions.getId(chunk.getDimension());
+        final int xMin = Math.max(chunkPos.x << 4, posMin.getX());
+        final int zMin = Math.max(chunkPos.z << 4, posMin.getZ());
+        final int xMax = Math.min((chunkPos.x << 4) + 15, posMax.getX());
+        final int zMax = Math.min((chunkPos.z << 4) + 15, posMax.getZ());
+        final int yMin = Math.max(chunk.getMinBuildHeight(), posMin.getY());
+        final int yMax = Math.min(chunk.getTopY(), posMax.getY());
+
+        for (int sectionY = yMin >> 4; yMin <= yMax && sectionY <= (yMax >> 4); ++sectionY)
+        {
+            this.locateInSection(chunk.getSection(sectionY), worker, indexBuffer, positionBuffer, dimensionId, xMin, Math.max(yMin, sectionY << 4), zMin,
+                                 xMax, Math.min(yMax, (sectionY << 4) + 15), zMax);
+        }
+    }
+
+    @Override
+    public void mergeWorkers(LocationDataStore into, LocationDataStore from)
+    {
+        into.addAll(from);
+    }
+
+    @Override
+    public void onScanFinished(LocationDataStore results, int chunkCount, long durationNanos)
+    {
+        final int resultCount = results.size();
+
+        this.data.addAll(results);
+
+        TellMe.logger.info(String.format(Locale.US, "Located %d blocks in %d chunks in %.3f seconds (using %d threads).",
+                                         resultCount, chunkCount, durationNanos / 1000000000D, ParallelChunkScanner.getThreadCount()));
     }
 }
@@ -1,12 +1,12 @@
 package fi.dy.masa.tellme.util.chunkprocessor;
 
-import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
 import com.google.common.collect.Sets;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Registry;
 import net.minecraft.resources.ResourceLocation;
@@ -14,6 +14,7 @@ import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.phys.Vec3;
 import fi.dy.masa.tellme.TellMe;
 import fi.dy.masa.tellme.util.EntityInfo;
 import fi.dy.masa.tellme.util.WorldUtils;
@@ -22,14 +23,20 @@ import fi.dy.masa.tellme.util.datadump.DataDump;
 public class LocateEntities extends LocateBase
 {
     protected final Set<EntityType<?>> filters;
-    protected String dimName = "";
+    protected final Reference2IntOpenHashMap<EntityType<?>> filterNameIds = new Reference2IntOpenHashMap<>();
+    protected int dimensionId;
     protected int totalCount;
 
     public LocateEntities(DataDump.Format format, List<String> filterStrings) throws CommandSyntaxException
     {
-        super(format);
+        super(format, true);
 
         this.filters = this.generateEntityFilters(filterStrings);
+
+        for (EntityType<?> type : this.filters)
+        {
+            this.filterNameIds.put(type, this.names.getId(EntityInfo.getEntityNameFor(type)));
+        }
     }
 
     protected Set<EntityType<?>> generateEntityFilters(List<String> filterStrings) throws CommandSyntaxException
@@ -65,20 +72,25 @@ public class LocateEntities extends LocateBase
     }
 
     @Override
-    public void processChunks(Collection<LevelChunk> chunks, BlockPos posMin, BlockPos posMax)
+    protected void onScanStart()
     {
-        final long timeBefore = System.nanoTime();
+        super.onScanStart();
+        this.totalCount = 0;
+    }
 
-        for (LevelChunk chunk : chunks)
-        {
-            ChunkPos chunkPos = chunk.getPos();
-            this.dimName = WorldUtils.getDimensionId(chunk.getLevel());
-            WorldUtils.processEntitiesInChunk(chunk.getLevel(), chunkPos.x, chunkPos.z, this::entityConsumer);
-        }
+    @Override
+    protected void processChunk(LevelChunk chunk, BlockPos posMin, BlockPos posMax)
+    {
+        ChunkPos chunkPos = chunk.getPos();
+        this.dimensionId = this.dimensions.getId(WorldUtils.getDimensionId(chunk.getLevel()));
+        WorldUtils.processEntitiesInChunk(chunk.getLevel(), chunkPos.x, chunkPos.z, this::entityConsumer);
+    }
 
-        final long timeAfter = System.nanoTime();
+    @Override
+    protected void onScanEnd(int chunkCount, long durationNanos)
+    {
         TellMe.logger.info(String.format(Locale.US, "Located %d Entities in %d chunks in %.3f seconds.",
-                                         this.totalCount, chunks.size(), (timeAfter - timeBefore) / 1000000000D));
+                                         this.totalCount, chunkCount, durationNanos / 1000000000D));
     }
 
     private void entityConsumer(Entity entity)
@@ -87,8 +99,8 @@ public class LocateEntities extends LocateBase
 
         if (this.filters.contains(type))
         {
-            String name = EntityInfo.getEntityNameFor(type);
-            this.data.add(LocationData.of(name, this.dimName, entity.position()));
+            Vec3 pos = entity.position();
+            this.data.add(this.filterNameIds.getInt(type), this.dimensionId, pos.x, pos.y, pos.z);
             ++this.totalCount;
         }
     }
@@ -0,0 +1,424 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import fi.dy.masa.tellme.TellMe;
+
+/**
+ * Holds the results of a locate scan. The results are stored column-wise: an ID into a shared name table,
+ * a byte ID into a shared dimension table, and either a packed block position or, for stores created
+ * with precise positions (such as for entities), the three double coordinates.
+ * Up to the given number of results are kept in memory, after which they are moved into a temporary spill file,
+ * in the same format. The results can then be iterated in the order they were added,
+ * by streaming them back from the spill files.
+ * A store is not thread safe, so each worker thread must use its own store. The tables can be shared.
+ * {@link #clear()} must be called once the results are no longer needed, to delete the spill files.
+ */
+public class LocationDataStore
+{
+    private static final int BUFFER_SIZE = 65536;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final StringTable names;
+    private final StringTable dimensions;
+    private final boolean precisePositions;
+    private final int memoryLimit;
+    private final List<Segment> segments = new ArrayList<>();
+    private int[] nameIds;
+    private byte[] dimensionIds;
+    private long[] blockPositions;
+    private double[] coordinates;
+    private int memoryCount;
+    @Nullable private Segment openSegment;
+    @Nullable private DataOutputStream out;
+    private boolean spillEnabled = true;
+    private int size;
+
+    /**
+     * @param precisePositions if true, then the exact double coordinates are stored, instead of the block positions
+     */
+    public LocationDataStore(int memoryLimit, StringTable names, StringTable dimensions, boolean precisePositions)
+    {
+        this.memoryLimit = Math.max(1, memoryLimit);
+        this.names = names;
+        this.dimensions = dimensions;
+        this.precisePositions = precisePositions;
+
+        final int capacity = Math.min(this.memoryLimit, INITIAL_CAPACITY);
+        this.nameIds = new int[capacity];
+        this.dimensionIds = new byte[capacity];
+        this.blockPositions = precisePositions ? new long[0] : new long[capacity];
+        this.coordinates = precisePositions ? new double[capacity * 3] : new double[0];
+    }
+
+    public StringTable getNames()
+    {
+        return this.names;
+    }
+
+    public StringTable getDimensions()
+    {
+        return this.dimensions;
+    }
+
+    /**
+     * Enables or disables moving the results into the spill files.
+     * While disabled, all the new results are kept in memory.
+     */
+    public void setSpillEnabled(boolean enabled)
+    {
+        this.spillEnabled = enabled;
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    /**
+     * @return true if some of the results have been moved to the spill files
+     */
+    public boolean hasSpilled()
+    {
+        return this.segments.isEmpty() == false;
+    }
+
+    public void add(int nameId, int dimensionId, int x, int y, int z)
+    {
+        if (this.precisePositions)
+        {
+            this.add(nameId, dimensionId, (double) x, (double) y, (double) z);
+            return;
+        }
+
+        final int index = this.allocate(nameId, dimensionId);
+        this.blockPositions[index] = BlockPos.asLong(x, y, z);
+        this.onAdded();
+    }
+
+    public void add(int nameId, int dimensionId, double x, double y, double z)
+    {
+        if (this.precisePositions == false)
+        {
+            this.add(nameId, dimensionId, (int) Math.floor(x), (int) Math.floor(y), (int) Math.floor(z));
+            return;
+        }
+
+        final int index = this.allocate(nameId, dimensionId);
+        this.coordinates[index * 3    ] = x;
+        this.coordinates[index * 3 + 1] = y;
+        this.coordinates[index * 3 + 2] = z;
+        this.onAdded();
+    }
+
+    /**
+     * Moves all the results from the other store into this store, leaving the other store empty.
+     * The other store must use the same tables and position type.
+     * The spill files of the other store are taken over as they are, without copying them,
+     * if the in-memory results of this store can be spilled first. Otherwise all the results are copied.
+     */
+    public void addAll(LocationDataStore other)
+    {
+        if (other.hasSpilled())
+        {
+            // Keep the results in order, by spilling the earlier results of this store first
+            if (this.spillEnabled == false || this.spillMemory() == false)
+            {
+                other.forEach(this::add);
+                other.clear();
+                return;
+            }
+
+            this.closeSegment();
+            other.closeSegment();
+            this.segments.addAll(other.segments);
+            this.size += other.size - other.memoryCount;
+            other.segments.clear();
+        }
+
+        other.visitMemory(0, this::add);
+        other.memoryCount = 0;
+        other.size = 0;
+    }
+
+    /**
+     * Removes all the results starting from the given index, passing them to the given consumer in order.
+     * The removed results must all still be in memory, which is guaranteed while spilling is disabled.
+     */
+    public void removeFrom(int index, ILocationConsumer consumer)
+    {
+        final int firstInMemory = this.size - this.memoryCount;
+
+        if (index < firstInMemory)
+        {
+            throw new IllegalStateException("Can't remove results that have already been spilled to disk");
+        }
+
+        final int start = index - firstInMemory;
+
+        this.visitMemory(start, consumer);
+        this.size -= this.memoryCount - start;
+        this.memoryCount = start;
+    }
+
+    /**
+     * Passes all the results to the given consumer, in the order they were added
+     */
+    public void forEach(ILocationConsumer consumer)
+    {
+        this.closeSegment();
+
+        for (Segment segment : this.segments)
+        {
+            try
+            {
+                segment.forEach(consumer, this.precisePositions);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("Failed to read the locate results spill file", e);
+            }
+        }
+
+        this.visitMemory(0, consumer);
+    }
+
+    /**
+     * Removes all the results, and deletes the spill files
+     */
+    public void clear()
+    {
+        this.closeSegment();
+
+        for (Segment segment : this.segments)
+        {
+            segment.file.delete();
+        }
+
+        this.segments.clear();
+        this.memoryCount = 0;
+        this.size = 0;
+    }
+
+    private int allocate(int nameId, int dimensionId)
+    {
+        final int index = this.memoryCount;
+
+        if (index >= this.nameIds.length)
+        {
+            final int capacity = Math.max(index + 1, this.nameIds.length * 2);
+            this.nameIds = Arrays.copyOf(this.nameIds, capacity);
+            this.dimensionIds = Arrays.copyOf(this.dimensionIds, capacity);
+
+            if (this.precisePositions)
+            {
+                this.coordinates = Arrays.copyOf(this.coordinates, capacity * 3);
+            }
+            else
+            {
+                this.blockPositions = Arrays.copyOf(this.blockPositions, capacity);
+            }
+        }
+
+        this.nameIds[index] = nameId;
+        this.dimensionIds[index] = (byte) dimensionId;
+
+        return index;
+    }
+
+    private void onAdded()
+    {
+        ++this.memoryCount;
+        ++this.size;
+
+        if (this.spillEnabled && this.memoryCount >= this.memoryLimit)
+        {
+            this.spillMemory();
+        }
+    }
+
+    private void visitMemory(int start, ILocationConsumer consumer)
+    {
+        for (int i = start; i < this.memoryCount; ++i)
+        {
+            final int nameId = this.nameIds[i];
+            final int dimensionId = this.dimensionIds[i] & 0xFF;
+
+            if (this.precisePositions)
+            {
+                consumer.accept(nameId, dimensionId, this.coordinates[i * 3], this.coordinates[i * 3 + 1], this.coordinates[i * 3 + 2]);
+            }
+            else
+            {
+                final long pos = this.blockPositions[i];
+                consumer.accept(nameId, dimensionId, BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+            }
+        }
+    }
+
+    /**
+     * @return true if all the in-memory results were written to the spill file
+     */
+    private boolean spillMemory()
+    {
+        if (this.memoryCount == 0)
+        {
+            return true;
+        }
+
+        try
+        {
+            if (this.out == null)
+            {
+                File file = File.createTempFile("tellme_locate_", ".bin");
+                file.deleteOnExit();
+                this.openSegment = new Segment(file);
+                this.segments.add(this.openSegment);
+                this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            }
+
+            for (int i = 0; i < this.memoryCount; ++i)
+            {
+                this.out.writeInt(this.nameIds[i]);
+                this.out.writeByte(this.dimensionIds[i]);
+
+                if (this.precisePositions)
+                {
+                    this.out.writeDouble(this.coordinates[i * 3    ]);
+                    this.out.writeDouble(this.coordinates[i * 3 + 1]);
+                    this.out.writeDouble(this.coordinates[i * 3 + 2]);
+                }
+                else
+                {
+                    this.out.writeLong(this.blockPositions[i]);
+                }
+            }
+
+            this.openSegment.count += this.memoryCount;
+            this.memoryCount = 0;
+            return true;
+        }
+        catch (IOException e)
+        {
+            // Keep the results in memory, rather than losing them
+            TellMe.logger.warn("Failed to write the locate results to the spill file", e);
+            this.spillEnabled = false;
+            return false;
+        }
+    }
+
+    private void closeSegment()
+    {
+        if (this.out != null)
+        {
+            try
+            {
+                this.out.close();
+            }
+            catch (IOException e)
+            {
+                TellMe.logger.warn("Failed to close the locate results spill file", e);
+            }
+
+            this.out = null;
+            this.openSegment = null;
+        }
+    }
+
+    public interface ILocationConsumer
+    {
+        void accept(int nameId, int dimensionId, double x, double y, double z);
+    }
+
+    /**
+     * An append-only table of strings, which assigns each distinct string a running ID.
+     * This is safe to share between threads.
+     */
+    public static class StringTable
+    {
+        private final Object2IntOpenHashMap<String> ids = new Object2IntOpenHashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final int maxSize;
+
+        public StringTable(int maxSize)
+        {
+            this.maxSize = maxSize;
+            this.ids.defaultReturnValue(-1);
+        }
+
+        public synchronized int getId(String str)
+        {
+            int id = this.ids.getInt(str);
+
+            if (id == -1)
+            {
+                if (this.strings.size() >= this.maxSize)
+                {
+                    throw new IllegalStateException("Too many distinct values (max " + this.maxSize + ")");
+                }
+
+                id = this.strings.size();
+                this.strings.add(str);
+                this.ids.put(str, id);
+            }
+
+            return id;
+        }
+
+        public synchronized String get(int id)
+        {
+            return this.strings.get(id);
+        }
+    }
+
+    private static class Segment
+    {
+        private final File file;
+        private int count;
+
+        private Segment(File file)
+        {
+            this.file = file;
+        }
+
+        private void forEach(ILocationConsumer consumer, boolean precisePositions) throws IOException
+        {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), BUFFER_SIZE)))
+            {
+                for (int i = 0; i < this.count; ++i)
+                {
+                    final int nameId = in.readInt();
+                    final int dimensionId = in.readByte() & 0xFF;
+
+                    if (precisePositions)
+                    {
+                        consumer.accept(nameId, dimensionId, in.readDouble(), in.readDouble(), in.readDouble());
+                    }
+                    else
+                    {
+                        final long pos = in.readLong();
+                        consumer.accept(nameId, dimensionId, BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+                    }
+                }
+            }
+        }
+    }
+}
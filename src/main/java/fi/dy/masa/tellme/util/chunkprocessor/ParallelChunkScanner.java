@@ -0,0 +1,209 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import io.netty.buffer.Unpooled;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraftforge.server.ServerLifecycleHooks;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.config.Configs;
+
+public class ParallelChunkScanner
+{
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    @Nullable private static ForkJoinPool pool;
+
+    public static synchronized ForkJoinPool getPool()
+    {
+        int threads = getThreadCount();
+
+        if (pool == null || pool.getParallelism() != threads)
+        {
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+
+            pool = new ForkJoinPool(threads, ParallelChunkScanner::createWorkerThread, null, false);
+        }
+
+        return pool;
+    }
+
+    public static int getThreadCount()
+    {
+        int threads = Configs.Generic.scanThreadCount;
+        return threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    private static ForkJoinWorkerThread createWorkerThread(ForkJoinPool pool)
+    {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("TellMe Scan Worker #" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setContextClassLoader(TellMe.class.getClassLoader());
+        return thread;
+    }
+
+    /**
+     * Creates a scan where the chunks are passed in one by one as they get loaded,
+     * and their snapshots are processed on the worker thread pool in small batches.
+     * This way the snapshots of the whole area never need to be held in memory at once.
+     * If the area corners are null, then each chunk is processed over the full height of its own world,
+     * which allows scanning the chunks of several dimensions at once.
+     */
+    public static <W> StreamedScan<W> createStreamedScan(ISnapshotChunkProcessor<W> processor, @Nullable BlockPos posMin, @Nullable BlockPos posMax)
+    {
+        return new StreamedScan<>(processor, getPool(), posMin, posMax);
+    }
+
+    /**
+     * Merges the per-thread workers of a scan into one of them
+     * @return the merged results, or a new empty worker if there were no workers
+     */
+    static <W> W mergeWorkers(ISnapshotChunkProcessor<W> processor, Collection<W> workers)
+    {
+        W results = null;
+
+        for (W worker : workers)
+        {
+            if (results == null)
+            {
+                results = worker;
+            }
+            else
+            {
+                processor.mergeWorkers(results, worker);
+            }
+        }
+
+        return results != null ? results : processor.createWorker();
+    }
+
+    public static class StreamedScan<W>
+    {
+        private static final int BATCH_SIZE = 64;
+
+        private final ISnapshotChunkProcessor<W> processor;
+        private final ForkJoinPool pool;
+        @Nullable private final BlockPos posMin;
+        @Nullable private final BlockPos posMax;
+        private final AtomicInteger pendingBatches = new AtomicInteger();
+        private final FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(8192));
+        // One worker per pool thread, as each thread only processes one batch at a time
+        private final Map<Thread, W> workers = new ConcurrentHashMap<>();
+        private final long startTime;
+        private CompletableFuture<Void> batches = CompletableFuture.completedFuture(null);
+        private List<ChunkSnapshot> batch = new ArrayList<>();
+        private int chunkCount;
+        private boolean released;
+
+        private StreamedScan(ISnapshotChunkProcessor<W> processor, ForkJoinPool pool, @Nullable BlockPos posMin, @Nullable BlockPos posMax)
+        {
+            this.processor = processor;
+            this.pool = pool;
+            this.posMin = posMin;
+            this.posMax = posMax;
+            this.startTime = System.nanoTime();
+        }
+
+        /**
+         * @return false if the worker threads are falling behind, and no more chunks should be added for now
+         */
+        public boolean canAcceptChunks()
+        {
+            return this.pendingBatches.get() < this.pool.getParallelism() * 2;
+        }
+
+        /**
+         * Takes a snapshot of the given chunk and queues it for processing. This must be called on the server thread.
+         */
+        public void addChunk(LevelChunk chunk)
+        {
+            this.batch.add(ChunkSnapshot.of(chunk, this.buf));
+            ++this.chunkCount;
+
+            if (this.batch.size() >= BATCH_SIZE)
+            {
+                this.submitBatch();
+            }
+        }
+
+        /**
+         * Submits the remaining chunks for processing. The returned future completes on the server thread,
+         * after the processor's onScanFinished() method has been called.
+         */
+        public CompletableFuture<Void> finish()
+        {
+            this.submitBatch();
+            this.release();
+
+            final int chunkCount = this.chunkCount;
+            MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+
+            CompletableFuture<W> results = this.batches.thenApplyAsync((v) -> mergeWorkers(this.processor, this.workers.values()), this.pool);
+
+            return results.thenAcceptAsync((r) -> this.processor.onScanFinished(r, chunkCount, System.nanoTime() - this.startTime), server)
+                               .whenComplete((v, e) -> {
+                                   if (e != null)
+                                   {
+                                       TellMe.logger.error("Exception while scanning chunks", e);
+                                   }
+                               });
+        }
+
+        /**
+         * Releases the snapshot buffer. Safe to call multiple times.
+         */
+        public void release()
+        {
+            if (this.released == false)
+            {
+                this.buf.release();
+                this.released = true;
+            }
+        }
+
+        private void submitBatch()
+        {
+            if (this.batch.isEmpty())
+            {
+                return;
+            }
+
+            final List<ChunkSnapshot> snapshots = this.batch;
+            this.batch = new ArrayList<>();
+            this.pendingBatches.incrementAndGet();
+
+            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                W worker = this.workers.computeIfAbsent(Thread.currentThread(), (t) -> this.processor.createWorker());
+
+                for (ChunkSnapshot snapshot : snapshots)
+                {
+                    if (this.posMin != null && this.posMax != null)
+                    {
+                        this.processor.processChunk(worker, snapshot, this.posMin, this.posMax);
+                    }
+                    else
+                    {
+                        this.processor.processChunk(worker, snapshot, new BlockPos(-30000000, snapshot.getMinBuildHeight(), -30000000),
+                                                    new BlockPos(30000000, snapshot.getMaxBuildHeight() - 1, 30000000));
+                    }
+                }
+            }, this.pool).whenComplete((v, e) -> this.pendingBatches.decrementAndGet());
+
+            this.batches = CompletableFuture.allOf(this.batches, future);
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.chunk.ChunkStatus;
+import net.minecraft.world.level.chunk.storage.RegionFileVersion;
+import net.minecraft.world.level.dimension.DimensionType;
+import net.minecraft.world.level.storage.LevelResource;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.util.WorldUtils;
+
+/**
+ * Reads the saved chunks of a dimension directly from the region files on disk,
+ * without loading any of the chunks into the world. The region files are memory mapped
+ * and processed in parallel on the scan worker thread pool, and the block state palettes
+ * and packed data arrays of the chunk sections are decoded straight into {@link ChunkSnapshot}s.
+ * Note that this only sees what has been saved to disk, so any unsaved changes
+ * in currently loaded chunks will not be included. Chunks saved in the pre-1.18 format
+ * (which haven't been upgraded yet) can't be read, they are skipped and counted.
+ */
+public class RegionFileScanner
+{
+    private static final Pattern PATTERN_REGION_FILE = Pattern.compile("^r\\.(-?[0-9]+)\\.(-?[0-9]+)\\.mca$");
+    private static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+    // The data version of 21w43a, which moved the chunk data out of the Level tag and changed the section format
+    private static final int FIRST_CURRENT_FORMAT_DATA_VERSION = 2844;
+
+    public static Path getRegionDirectory(ServerLevel world)
+    {
+        Path root = world.getServer().getWorldPath(LevelResource.ROOT);
+        return DimensionType.getStorageFolder(world.dimension(), root).resolve("region");
+    }
+
+    /**
+     * @return the region files in the given directory that overlap with the given chunk area
+     */
+    public static List<RegionFileEntry> getRegionFiles(Path dir, ChunkPos posMin, ChunkPos posMax) throws IOException
+    {
+        List<RegionFileEntry> list = new ArrayList<>();
+
+        if (Files.isDirectory(dir) == false)
+        {
+            return list;
+        }
+
+        try (Stream<Path> stream = Files.list(dir))
+        {
+            stream.forEach((file) -> {
+                Matcher matcher = PATTERN_REGION_FILE.matcher(file.getFileName().toString());
+
+                if (matcher.matches())
+                {
+                    int regionX = Integer.parseInt(matcher.group(1));
+                    int regionZ = Integer.parseInt(matcher.group(2));
+
+                    if (regionX >= (posMin.x >> 5) && regionX <= (posMax.x >> 5) &&
+                        regionZ >= (posMin.z >> 5) && regionZ <= (posMax.z >> 5))
+                    {
+                        list.add(new RegionFileEntry(file, regionX, regionZ));
+                    }
+                }
+            });
+        }
+
+        return list;
+    }
+
+    /**
+     * Scans all the saved chunks of the given world that are within the given area.
+     * The directory listing is done on the calling thread, and the region files are then read
+     * and processed on the worker thread pool. The returned future completes on the server thread,
+     * after the processor's onScanFinished() method has been called.
+     */
+    public static <W> CompletableFuture<Integer> scan(ISnapshotChunkProcessor<W> processor, ServerLevel world,
+                                                      BlockPos posMin, BlockPos posMax) throws IOException
+    {
+        return scan(processor, world, posMin, posMax, null);
+    }
+
+    /**
+     * Scans all the saved chunks of the given world that are within the given area,
+     * except for the chunks matched by the given skip filter, which are not read at all.
+     * The read chunks are also added to the block state summaries, if they are enabled.
+     * @param skipFilter an optional filter for the chunks to skip, taking packed ChunkPos values. This is called from the worker threads.
+     * @return a future with the number of chunks that were skipped because they were saved in an older chunk format
+     */
+    public static <W> CompletableFuture<Integer> scan(ISnapshotChunkProcessor<W> processor, ServerLevel world,
+                                                      BlockPos posMin, BlockPos posMax, @Nullable LongPredicate skipFilter) throws IOException
+    {
+        final long timeBefore = System.nanoTime();
+        ChunkPos chunkPosMin = new ChunkPos(posMin.getX() >> 4, posMin.getZ() >> 4);
+        ChunkPos chunkPosMax = new ChunkPos(posMax.getX() >> 4, posMax.getZ() >> 4);
+        List<RegionFileEntry> files = getRegionFiles(getRegionDirectory(world), chunkPosMin, chunkPosMax);
+        ScanContext<W> context = new ScanContext<>(processor, WorldUtils.getDimensionId(world), world.getMinSection(),
+                                                   world.getSectionsCount(), chunkPosMin, chunkPosMax, posMin, posMax);
+        context.skipFilter = skipFilter;
+        context.summaries = BlockStateSummaries.isEnabled() ? BlockStateSummaries.INSTANCE.getSummaries(world) : null;
+        final ForkJoinPool pool = ParallelChunkScanner.getPool();
+        MinecraftServer server = world.getServer();
+
+        TellMe.logger.info("Scanning {} region files from '{}'", files.size(), getRegionDirectory(world));
+
+        CompletableFuture<W> future = CompletableFuture.supplyAsync(() -> {
+            (new RegionScanTask<>(context, files, 0, files.size())).invoke();
+            return ParallelChunkScanner.mergeWorkers(processor, context.workers.values());
+        }, pool);
+
+        return future.thenApplyAsync((results) -> {
+                         final int skippedCount = context.skippedChunkCount.get();
+
+                         if (skippedCount > 0)
+                         {
+                             TellMe.logger.warn("Skipped {} chunks saved in the pre-1.18 chunk format", skippedCount);
+                         }
+
+                         processor.onScanFinished(results, context.chunkCount.get(), System.nanoTime() - timeBefore);
+                         return skippedCount;
+                     }, server)
+                     .whenComplete((v, e) -> {
+                         if (e != null)
+                         {
+                             TellMe.logger.error("Exception while scanning region files", e);
+                         }
+                     });
+    }
+
+    private static <W> void scanRegionFile(ScanContext<W> context, RegionFileEntry entry, W worker)
+    {
+        Object2IntOpenHashMap<CompoundTag> stateIds = new Object2IntOpenHashMap<>();
+        stateIds.defaultReturnValue(-1);
+
+        try (FileChannel channel = FileChannel.open(entry.file, StandardOpenOption.READ))
+        {
+            final long size = channel.size();
+
+            if (size < HEADER_SIZE)
+            {
+                return;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            for (int i = 0; i < 1024; ++i)
+            {
+                int chunkX = (entry.regionX << 5) + (i & 31);
+                int chunkZ = (entry.regionZ << 5) + (i >> 5);
+                int location = buffer.getInt(i * 4);
+
+                if (location == 0 || context.isChunkInArea(chunkX, chunkZ) == false ||
+                    (context.skipFilter != null && context.skipFilter.test(ChunkPos.asLong(chunkX, chunkZ))))
+                {
+                    continue;
+                }
+
+                try
+                {
+                    CompoundTag tag = readChunkTag(entry, buffer, location, chunkX, chunkZ);
+                    ChunkSnapshot snapshot = tag != null ? context.createSnapshot(tag, chunkX, chunkZ, stateIds) : null;
+
+                    if (snapshot != null)
+                    {
+                        if (context.summaries != null)
+                        {
+                            context.summaries.addChunk(snapshot);
+                        }
+
+                        context.processor.processChunk(worker, snapshot, context.posMin, context.posMax);
+                        context.chunkCount.incrementAndGet();
+                    }
+                }
+                catch (Exception e)
+                {
+                    TellMe.logger.warn("Failed to read chunk [{}, {}] from region file '{}'", chunkX, chunkZ, entry.file, e);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            TellMe.logger.warn("Failed to read region file '{}'", entry.file, e);
+        }
+    }
+
+    @Nullable
+    private static CompoundTag readChunkTag(RegionFileEntry entry, ByteBuffer buffer, int location, int chunkX, int chunkZ) throws IOException
+    {
+        final long offset = (long) (location >>> 8) * SECTOR_SIZE;
+        final long maxLength = (long) (location & 0xFF) * SECTOR_SIZE;
+
+        if (offset < HEADER_SIZE || offset + 5 > buffer.capacity())
+        {
+            return null;
+        }
+
+        // The length includes the compression type byte
+        int length = buffer.getInt((int) offset);
+        int compression = buffer.get((int) offset + 4);
+
+        // Oversized chunks are stored in separate files
+        if ((compression & 0x80) != 0)
+        {
+            Path file = entry.file.resolveSibling("c." + chunkX + "." + chunkZ + ".mcc");
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                return readCompressedTag(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), compression & 0x7F);
+            }
+        }
+
+        if (length <= 1 || length + 4 > maxLength || offset + 4 + length > buffer.capacity())
+        {
+            return null;
+        }
+
+        return readCompressedTag(buffer.slice((int) offset + 5, length - 1), compression);
+    }
+
+    @Nullable
+    private static CompoundTag readCompressedTag(ByteBuffer data, int compression) throws IOException
+    {
+        RegionFileVersion version = RegionFileVersion.fromId(compression);
+
+        if (version == null)
+        {
+            return null;
+        }
+
+        try (InputStream is = version.wrap(new ByteBufInputStream(Unpooled.wrappedBuffer(data), true));
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(is)))
+        {
+            return NbtIo.read(dis);
+        }
+    }
+
+    public static class RegionFileEntry
+    {
+        public final Path file;
+        public final int regionX;
+        public final int regionZ;
+
+        public RegionFileEntry(Path file, int regionX, int regionZ)
+        {
+            this.file = file;
+            this.regionX = regionX;
+            this.regionZ = regionZ;
+        }
+    }
+
+    private static class ScanContext<W>
+    {
+        private final ISnapshotChunkProcessor<W> processor;
+        private final AtomicInteger chunkCount = new AtomicInteger();
+        private final AtomicInteger skippedChunkCount = new AtomicInteger();
+        // One worker per pool thread, as each thread only scans one region file at a time
+        private final Map<Thread, W> workers = new ConcurrentHashMap<>();
+        private final String dimension;
+        private final int minSectionY;
+        private final int sectionCount;
+        private final ChunkPos chunkPosMin;
+        private final ChunkPos chunkPosMax;
+        private final BlockPos posMin;
+        private final BlockPos posMax;
+        @Nullable private LongPredicate skipFilter;
+        @Nullable private BlockStateSummaries.DimensionSummaries summaries;
+
+        private ScanContext(ISnapshotChunkProcessor<W> processor, String dimension, int minSectionY, int sectionCount,
+                            ChunkPos chunkPosMin, ChunkPos chunkPosMax, BlockPos posMin, BlockPos posMax)
+        {
+            this.processor = processor;
+            this.dimension = dimension;
+            this.minSectionY = minSectionY;
+            this.sectionCount = sectionCount;
+            this.chunkPosMin = chunkPosMin;
+            this.chunkPosMax = chunkPosMax;
+            this.posMin = posMin;
+            this.posMax = posMax;
+        }
+
+        private W getWorker()
+        {
+            return this.workers.computeIfAbsent(Thread.currentThread(), (t) -> this.processor.createWorker());
+        }
+
+        private boolean isChunkInArea(int chunkX, int chunkZ)
+        {
+            return chunkX >= this.chunkPosMin.x && chunkX <= this.chunkPosMax.x &&
+                   chunkZ >= this.chunkPosMin.z && chunkZ <= this.chunkPosMax.z;
+        }
+
+        /**
+         * Decodes the block states of the given chunk tag. Chunks that have not been fully generated are skipped.
+         * Chunks in the pre-1.18 format are also skipped, and added to the skipped chunk count.
+         * @param stateIds a cache of the already decoded palette entries
+         */
+        @Nullable
+        private ChunkSnapshot createSnapshot(CompoundTag tag, int chunkX, int chunkZ, Object2IntOpenHashMap<CompoundTag> stateIds)
+        {
+            // The old chunks only have the Status inside the Level tag, so they would otherwise look like ungenerated chunks
+            if (tag.getInt("DataVersion") < FIRST_CURRENT_FORMAT_DATA_VERSION || tag.contains("Level", Tag.TAG_COMPOUND))
+            {
+                this.skippedChunkCount.incrementAndGet();
+                return null;
+            }
+
+            if (ChunkStatus.byName(tag.getString("Status")) != ChunkStatus.FULL)
+            {
+                return null;
+            }
+
+            SectionSnapshot[] sections = new SectionSnapshot[this.sectionCount];
+            ListTag sectionTags = tag.getList("sections", Tag.TAG_COMPOUND);
+            int highestIndex = -1;
+
+            for (int i = 0; i < sectionTags.size(); ++i)
+            {
+                CompoundTag sectionTag = sectionTags.getCompound(i);
+                int index = sectionTag.getByte("Y") - this.minSectionY;
+
+                if (index < 0 || index >= this.sectionCount || sectionTag.contains("block_states", Tag.TAG_COMPOUND) == false)
+                {
+                    continue;
+                }
+
+                SectionSnapshot section = readSection(sectionTag.getCompound("block_states"), stateIds);
+
+                if (section != null)
+                {
+                    sections[index] = section;
+
+                    if (index > highestIndex)
+                    {
+                        highestIndex = index;
+                    }
+                }
+            }
+
+            for (int i = 0; i < sections.length; ++i)
+            {
+                if (sections[i] == null)
+                {
+                    sections[i] = SectionSnapshot.EMPTY;
+                }
+            }
+
+            // Same as LevelChunk#getHighestSectionPosition() + 15
+            int topY = highestIndex >= 0 ? ((this.minSectionY + highestIndex) << 4) + 15 : (this.minSectionY << 4) + 15;
+
+            return new ChunkSnapshot(new ChunkPos(chunkX, chunkZ), this.dimension, this.minSectionY, topY, sections);
+        }
+
+        /**
+         * Decodes the on-disk section block state container. The data array always indexes into
+         * the section's own palette, using at least 4 bits per entry, and no data is stored for single-value sections.
+         * @return the snapshot, or null if the section only contains air or its data is invalid
+         */
+        @Nullable
+        private static SectionSnapshot readSection(CompoundTag tag, Object2IntOpenHashMap<CompoundTag> stateIds)
+        {
+            ListTag paletteTag = tag.getList("palette", Tag.TAG_COMPOUND);
+            final int size = paletteTag.size();
+
+            if (size == 0)
+            {
+                return null;
+            }
+
+            int[] palette = new int[size];
+            boolean onlyAir = true;
+
+            for (int i = 0; i < size; ++i)
+            {
+                CompoundTag entryTag = paletteTag.getCompound(i);
+                int id = stateIds.getInt(entryTag);
+
+                if (id == -1)
+                {
+                    id = Block.BLOCK_STATE_REGISTRY.getId(NbtUtils.readBlockState(entryTag));
+                    stateIds.put(entryTag, id);
+                }
+
+                palette[i] = id;
+                onlyAir &= Block.BLOCK_STATE_REGISTRY.byId(id).isAir();
+            }
+
+            if (onlyAir)
+            {
+                return null;
+            }
+
+            if (size == 1)
+            {
+                return new SectionSnapshot(0, palette, new long[0]);
+            }
+
+            final int bits = Math.max(4, Mth.ceillog2(size));
+            final int valuesPerLong = 64 / bits;
+            long[] data = tag.getLongArray("data");
+
+            if (data.length != (SectionSnapshot.BLOCKS_PER_SECTION + valuesPerLong - 1) / valuesPerLong)
+            {
+                return null;
+            }
+
+            return new SectionSnapshot(bits, palette, data);
+        }
+    }
+
+    private static class RegionScanTask<W> extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ScanContext<W> context;
+        private final List<RegionFileEntry> files;
+        private final int start;
+        private final int end;
+
+        private RegionScanTask(ScanContext<W> context, List<RegionFileEntry> files, int start, int end)
+        {
+            this.context = context;
+            this.files = files;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (this.end - this.start <= 1)
+            {
+                if (this.start < this.end)
+                {
+                    scanRegionFile(this.context, this.files.get(this.start), this.context.getWorker());
+                }
+
+                return;
+            }
+
+            final int mid = (this.start + this.end) >>> 1;
+
+            invokeAll(new RegionScanTask<>(this.context, this.files, this.start, mid),
+                      new RegionScanTask<>(this.context, this.files, mid, this.end));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.world.level.ChunkPos;
+
+/**
+ * A {@link ChunkStreamer} that visits the chunks in square rings outward from the center chunk,
+ * so that all the chunks at a given ring distance are processed before any chunk further out.
+ */
+public class RingChunkStreamer extends ChunkStreamer
+{
+    private final int centerX;
+    private final int centerZ;
+    private int ring;
+    private int indexInRing;
+
+    public RingChunkStreamer(ServerChunkCache chunkSource, ChunkPos center, int chunkRadius, int windowSize)
+    {
+        super(chunkSource, new ChunkPos(center.x - chunkRadius, center.z - chunkRadius),
+                           new ChunkPos(center.x + chunkRadius, center.z + chunkRadius), windowSize);
+
+        this.centerX = center.x;
+        this.centerZ = center.z;
+    }
+
+    /**
+     * @return the ring distance (the Chebyshev distance in chunks) of the given chunk from the given center chunk
+     */
+    public static int getRing(ChunkPos pos, ChunkPos center)
+    {
+        return Math.max(Math.abs(pos.x - center.x), Math.abs(pos.z - center.z));
+    }
+
+    @Override
+    protected ChunkPos getNextPosition()
+    {
+        final int r = this.ring;
+        ChunkPos pos;
+
+        if (r == 0)
+        {
+            pos = new ChunkPos(this.centerX, this.centerZ);
+        }
+        else
+        {
+            // Each ring has 8 * r chunks, walked clockwise as four sides of 2 * r chunks each
+            final int side = this.indexInRing / (2 * r);
+            final int offset = this.indexInRing % (2 * r);
+
+            if (side == 0)
+            {
+                pos = new ChunkPos(this.centerX - r + offset, this.centerZ - r);
+            }
+            else if (side == 1)
+            {
+                pos = new ChunkPos(this.centerX + r, this.centerZ - r + offset);
+            }
+            else if (side == 2)
+            {
+                pos = new ChunkPos(this.centerX + r - offset, this.centerZ + r);
+            }
+            else
+            {
+                pos = new ChunkPos(this.centerX - r, this.centerZ + r - offset);
+            }
+        }
+
+        if (++this.indexInRing >= Math.max(1, 8 * r))
+        {
+            ++this.ring;
+            this.indexInRing = 0;
+        }
+
+        return pos;
+    }
+}
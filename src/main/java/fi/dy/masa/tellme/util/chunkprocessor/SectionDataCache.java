@@ -0,0 +1,425 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32C;
+import javax.annotation.Nullable;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LevelAccessor;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.storage.LevelResource;
+import fi.dy.masa.tellme.TellMe;
+import fi.dy.masa.tellme.config.Configs;
+import fi.dy.masa.tellme.util.WorldUtils;
+
+/**
+ * The common base of the caches that hold some data derived from the block states of chunk sections.
+ * Not all block changes fire events (for example the plant growth and many mod machines use setBlock()
+ * with only the client update flag), and the chunks may also change while they are unloaded.
+ * So the cached data is validated on every use against a hash of the section's block state data,
+ * and it's only reused if the hash still matches. The block change events (see BlockChangeEventHandler)
+ * just drop the changed sections early, so that their data doesn't take up memory until the next use.
+ * At most {@link Configs.Generic#sectionCacheMaxChunks} chunks are kept per dimension, the least recently used ones are dropped.
+ * The caches are saved per world and dimension under config/tellme/&lt;directoryName&gt;/.
+ * The files are written on the IO threads, from a copy of the cache's chunk list taken on the server thread.
+ * The block states are saved through a shared state table in each file, so the files survive registry ID changes.
+ */
+public abstract class SectionDataCache<T extends SectionDataCache.SectionData>
+{
+    private final Map<ResourceKey<Level>, DimensionCache> caches = new HashMap<>();
+    private final FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(8192));
+    private final CRC32C crc = new CRC32C();
+    private final String directoryName;
+    private final String description;
+    private final int fileVersion;
+
+    /**
+     * @param directoryName the name of the directory under config/tellme/ where the cache files are saved
+     * @param description a description of the cached data, used in the log messages
+     * @param fileVersion the version of the file format. Cache files with a different version are discarded.
+     */
+    protected SectionDataCache(String directoryName, String description, int fileVersion)
+    {
+        this.directoryName = directoryName;
+        this.description = description;
+        this.fileVersion = fileVersion;
+    }
+
+    /**
+     * Creates the cached data of the given (non-empty) section
+     */
+    protected abstract T createSectionData(LevelChunkSection section, int version);
+
+    /**
+     * Writes the cached data of one section into the given tag
+     * @param stateTable the table that maps global block state IDs to the state indices in the saved file
+     */
+    protected abstract void writeSectionData(T data, CompoundTag tag, StateTable stateTable);
+
+    /**
+     * Reads the cached data of one section from the given tag
+     * @param stateIds the global block state IDs, indexed by the state indices in the saved file
+     * @return the read data, or null if the tag was invalid
+     */
+    @Nullable
+    protected abstract T readSectionData(CompoundTag tag, int version, int[] stateIds);
+
+    /**
+     * Returns the cached data of the given (non-empty) section, recreating it if the section's
+     * current block state data doesn't match the hash that the cached data was created from.
+     * This must be called on the server thread.
+     */
+    @SuppressWarnings("unchecked")
+    public T getSectionData(LevelChunk chunk, int sectionIndex, LevelChunkSection section)
+    {
+        DimensionCache cache = this.getDimensionCache(chunk.getLevel());
+        ChunkEntry entry = cache.getOrCreateEntry(chunk.getPos().toLong(), chunk.getSectionsCount());
+        T data = (T) entry.sections[sectionIndex];
+        int version = this.getContentVersion(section);
+
+        if (data == null || data.version != version)
+        {
+            data = this.createSectionData(section, version);
+            entry.sections[sectionIndex] = data;
+            cache.dirty = true;
+        }
+
+        return data;
+    }
+
+    public void onBlockChanged(LevelAccessor world, BlockPos pos)
+    {
+        DimensionCache cache = this.getLoadedCache(world);
+
+        if (cache != null)
+        {
+            ChunkEntry entry = cache.chunks.get(ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4));
+            int index = world.getSectionIndex(pos.getY());
+
+            if (entry != null && index >= 0 && index < entry.sections.length && entry.sections[index] != null)
+            {
+                entry.sections[index] = null;
+                cache.dirty = true;
+            }
+        }
+    }
+
+    public void onWorldSave(LevelAccessor world)
+    {
+        DimensionCache cache = this.getLoadedCache(world);
+
+        if (cache != null && cache.dirty)
+        {
+            this.writeToFile(cache);
+        }
+    }
+
+    public void onServerStopped()
+    {
+        // Let the last saves finish before the next world could read the files
+        for (DimensionCache cache : this.caches.values())
+        {
+            cache.pendingWrite.join();
+        }
+
+        this.caches.clear();
+    }
+
+    @Nullable
+    private DimensionCache getLoadedCache(LevelAccessor world)
+    {
+        if (this.caches.isEmpty() || (world instanceof Level) == false || world.isClientSide())
+        {
+            return null;
+        }
+
+        return this.caches.get(((Level) world).dimension());
+    }
+
+    private DimensionCache getDimensionCache(Level world)
+    {
+        return this.caches.computeIfAbsent(world.dimension(), (k) -> this.readFromFile(this.getCacheFile(world), world.getSectionsCount()));
+    }
+
+    /**
+     * @return a hash of the section's block state container, including its palette
+     */
+    private int getContentVersion(LevelChunkSection section)
+    {
+        this.buf.clear();
+        section.getStates().write(this.buf);
+        this.crc.reset();
+        this.crc.update(this.buf.nioBuffer());
+
+        return (int) this.crc.getValue();
+    }
+
+    private File getCacheFile(Level world)
+    {
+        MinecraftServer server = world.getServer();
+        String worldName = server != null ? server.getWorldPath(LevelResource.ROOT).toAbsolutePath().normalize().getFileName().toString() : "unknown";
+        String dimension = WorldUtils.getDimensionId(world).replace(':', '_');
+        File dir = new File(new File(Configs.dumpOutputDir, this.directoryName), worldName);
+
+        return new File(dir, dimension + ".nbt");
+    }
+
+    private DimensionCache readFromFile(File file, int sectionCount)
+    {
+        DimensionCache cache = new DimensionCache(file, sectionCount);
+
+        if (file.exists() == false)
+        {
+            return cache;
+        }
+
+        try
+        {
+            CompoundTag root = NbtIo.readCompressed(file);
+
+            // The cache is just thrown away if the format or the world height has changed
+            if (root.getInt("version") != this.fileVersion || root.getInt("section_count") != sectionCount)
+            {
+                return cache;
+            }
+
+            ListTag stateTags = root.getList("states", Tag.TAG_COMPOUND);
+            int[] stateIds = new int[stateTags.size()];
+
+            for (int i = 0; i < stateIds.length; ++i)
+            {
+                stateIds[i] = Block.BLOCK_STATE_REGISTRY.getId(NbtUtils.readBlockState(stateTags.getCompound(i)));
+            }
+
+            ListTag chunkTags = root.getList("chunks", Tag.TAG_COMPOUND);
+
+            for (int i = 0; i < chunkTags.size(); ++i)
+            {
+                CompoundTag chunkTag = chunkTags.getCompound(i);
+                ChunkEntry entry = cache.getOrCreateEntry(chunkTag.getLong("pos"), sectionCount);
+                ListTag sectionTags = chunkTag.getList("sections", Tag.TAG_COMPOUND);
+
+                for (int s = 0; s < sectionTags.size(); ++s)
+                {
+                    CompoundTag sectionTag = sectionTags.getCompound(s);
+                    int index = sectionTag.getInt("index");
+
+                    if (index >= 0 && index < sectionCount)
+                    {
+                        entry.sections[index] = this.readSectionData(sectionTag, sectionTag.getInt("version"), stateIds);
+                    }
+                }
+            }
+
+            TellMe.logger.info("Read the cached {} of {} chunks from '{}'", this.description, cache.chunks.size(), file.getAbsolutePath());
+        }
+        catch (Exception e)
+        {
+            TellMe.logger.warn("Failed to read the cached {} from '{}'", this.description, file.getAbsolutePath(), e);
+            cache.chunks.clear();
+        }
+
+        return cache;
+    }
+
+    /**
+     * Takes a copy of the cache's chunk list, and writes it to the cache file on the IO threads.
+     * The section data objects are immutable, so only the per-chunk arrays need to be copied.
+     */
+    private void writeToFile(DimensionCache cache)
+    {
+        final List<ChunkEntry> entries = new ArrayList<>(cache.chunks.size());
+        final long[] positions = new long[cache.chunks.size()];
+
+        for (Long2ObjectMap.Entry<ChunkEntry> mapEntry : cache.chunks.long2ObjectEntrySet())
+        {
+            positions[entries.size()] = mapEntry.getLongKey();
+            entries.add(mapEntry.getValue().copy());
+        }
+
+        cache.dirty = false;
+        cache.pendingWrite = cache.pendingWrite.thenRunAsync(() -> this.writeEntries(cache.file, cache.sectionCount, positions, entries), Util.ioPool());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeEntries(File file, int sectionCount, long[] positions, List<ChunkEntry> entries)
+    {
+        StateTable stateTable = new StateTable();
+        ListTag chunkTags = new ListTag();
+
+        for (int i = 0; i < positions.length; ++i)
+        {
+            ListTag sectionTags = new ListTag();
+            SectionData[] sections = entries.get(i).sections;
+
+            for (int index = 0; index < sections.length; ++index)
+            {
+                if (sections[index] == null)
+                {
+                    continue;
+                }
+
+                CompoundTag sectionTag = new CompoundTag();
+                sectionTag.putInt("index", index);
+                sectionTag.putInt("version", sections[index].version);
+                this.writeSectionData((T) sections[index], sectionTag, stateTable);
+                sectionTags.add(sectionTag);
+            }
+
+            if (sectionTags.isEmpty() == false)
+            {
+                CompoundTag chunkTag = new CompoundTag();
+                chunkTag.putLong("pos", positions[i]);
+                chunkTag.put("sections", sectionTags);
+                chunkTags.add(chunkTag);
+            }
+        }
+
+        CompoundTag root = new CompoundTag();
+        root.putInt("version", this.fileVersion);
+        root.putInt("section_count", sectionCount);
+        root.put("states", stateTable.stateTags);
+        root.put("chunks", chunkTags);
+
+        try
+        {
+            File dir = file.getParentFile();
+
+            if (dir.exists() == false && dir.mkdirs() == false)
+            {
+                TellMe.logger.warn("Failed to create the directory '{}'", dir.getAbsolutePath());
+                return;
+            }
+
+            NbtIo.writeCompressed(root, file);
+        }
+        catch (Exception e)
+        {
+            TellMe.logger.warn("Failed to write the cached {} to '{}'", this.description, file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * The base class of the cached data of one section
+     */
+    public static abstract class SectionData
+    {
+        /** The hash of the section's block state data, at the time that this data was created */
+        protected final int version;
+
+        protected SectionData(int version)
+        {
+            this.version = version;
+        }
+    }
+
+    /**
+     * Assigns the block states written to a cache file their indices in the file's state table
+     */
+    protected static class StateTable
+    {
+        private final Int2IntOpenHashMap stateIndices = new Int2IntOpenHashMap();
+        private final ListTag stateTags = new ListTag();
+
+        public int getIndex(int stateId)
+        {
+            if (this.stateIndices.containsKey(stateId) == false)
+            {
+                this.stateIndices.put(stateId, this.stateTags.size());
+                this.stateTags.add(NbtUtils.writeBlockState(Block.BLOCK_STATE_REGISTRY.byId(stateId)));
+            }
+
+            return this.stateIndices.get(stateId);
+        }
+
+        public int[] getIndices(int[] stateIds)
+        {
+            int[] indices = new int[stateIds.length];
+
+            for (int i = 0; i < indices.length; ++i)
+            {
+                indices[i] = this.getIndex(stateIds[i]);
+            }
+
+            return indices;
+        }
+    }
+
+    private static class ChunkEntry
+    {
+        private final SectionData[] sections;
+
+        private ChunkEntry(int sectionCount)
+        {
+            this.sections = new SectionData[sectionCount];
+        }
+
+        private ChunkEntry(SectionData[] sections)
+        {
+            this.sections = sections;
+        }
+
+        private ChunkEntry copy()
+        {
+            return new ChunkEntry(this.sections.clone());
+        }
+    }
+
+    private static class DimensionCache
+    {
+        // In the least recently used order, the most recently used chunk is the last one
+        private final Long2ObjectLinkedOpenHashMap<ChunkEntry> chunks = new Long2ObjectLinkedOpenHashMap<>();
+        private final File file;
+        private final int sectionCount;
+        private CompletableFuture<Void> pendingWrite = CompletableFuture.completedFuture(null);
+        private boolean dirty;
+
+        private DimensionCache(File file, int sectionCount)
+        {
+            this.file = file;
+            this.sectionCount = sectionCount;
+        }
+
+        private ChunkEntry getOrCreateEntry(long chunkPos, int sectionCount)
+        {
+            ChunkEntry entry = this.chunks.getAndMoveToLast(chunkPos);
+
+            if (entry == null || entry.sections.length != sectionCount)
+            {
+                entry = new ChunkEntry(sectionCount);
+                this.chunks.putAndMoveToLast(chunkPos, entry);
+
+                final int maxChunks = Configs.Generic.sectionCacheMaxChunks;
+
+                while (this.chunks.size() > maxChunks)
+                {
+                    this.chunks.removeFirst();
+                    this.dirty = true;
+                }
+            }
+
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import java.util.Arrays;
+
+/**
+ * Bulk decoding of the packed palette index arrays of chunk sections (in the SimpleBitStorage format,
+ * where the values don't span across longs), and some kernels that operate on the decoded index arrays.
+ */
+public class SectionDataDecoder
+{
+    public static final int SECTION_SIZE = 4096;
+
+    /**
+     * Unpacks the palette indices of a whole section from the packed data array into the given array,
+     * which must have room for at least SECTION_SIZE values.
+     * Any values missing from the end of the data array are set to 0.
+     * @param bits the number of bits per value, 0 for single-value sections
+     */
+    public static void decode(long[] data, int bits, int[] out)
+    {
+        if (bits == 0)
+        {
+            Arrays.fill(out, 0, SECTION_SIZE, 0);
+            return;
+        }
+
+        final int valuesPerLong = 64 / bits;
+        final long mask = (1L << bits) - 1L;
+        int index = 0;
+
+        for (int i = 0; i < data.length && index < SECTION_SIZE; ++i)
+        {
+            long value = data[i];
+            final int end = Math.min(index + valuesPerLong, SECTION_SIZE);
+
+            for (; index < end; ++index)
+            {
+                out[index] = (int) (value & mask);
+                value >>>= bits;
+            }
+        }
+
+        if (index < SECTION_SIZE)
+        {
+            Arrays.fill(out, index, SECTION_SIZE, 0);
+        }
+    }
+
+    /**
+     * Adds the number of occurrences of each index value in the decoded section to the histogram
+     */
+    public static void histogram(int[] indices, int[] histogram)
+    {
+        for (int i = 0; i < SECTION_SIZE; ++i)
+        {
+            ++histogram[indices[i]];
+        }
+    }
+
+    /**
+     * @return true if any of the index values in the decoded section is marked in the matches array
+     */
+    public static boolean containsAny(int[] indices, boolean[] matches)
+    {
+        for (int i = 0; i < SECTION_SIZE; ++i)
+        {
+            int value = indices[i];
+
+            if (value < matches.length && matches[value])
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Collects the positions (y << 8 | z << 4 | x) of the values that are marked in the matches array
+     * @return the number of positions written to positionsOut
+     */
+    public static int findMatches(int[] indices, boolean[] matches, int[] positionsOut)
+    {
+        int count = 0;
+
+        for (int i = 0; i < SECTION_SIZE; ++i)
+        {
+            int value = indices[i];
+
+            if (value < matches.length && matches[value])
+            {
+                positionsOut[count++] = i;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,206 @@
+package fi.dy.masa.tellme.util.chunkprocessor;
+
+import javax.annotation.Nullable;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+/**
+ * An immutable copy of the block state data of one chunk section.
+ * The palette entries are global block state IDs (from Block.BLOCK_STATE_REGISTRY),
+ * and the data array is the packed palette index storage, in the same format
+ * that the vanilla SimpleBitStorage uses (values don't span across longs).
+ * This can be safely read from other threads than the server thread.
+ */
+public class SectionSnapshot
+{
+    public static final int BLOCKS_PER_SECTION = 4096;
+    public static final SectionSnapshot EMPTY = new SectionSnapshot(0, new int[] { Block.BLOCK_STATE_REGISTRY.getId(Blocks.AIR.defaultBlockState()) }, new long[0]);
+
+    private final int bits;
+    @Nullable private final int[] palette;
+    private final long[] data;
+    private final int valuesPerLong;
+    private final long mask;
+
+    /**
+     * @param bits the number of bits per entry in the packed data array
+     * @param palette the global state IDs of the palette entries, or null if the data array holds global state IDs directly
+     * @param data the packed palette indices
+     */
+    public SectionSnapshot(int bits, @Nullable int[] palette, long[] data)
+    {
+        this.bits = bits;
+        this.palette = palette;
+        this.data = data;
+        this.valuesPerLong = bits > 0 ? 64 / bits : 0;
+        this.mask = (1L << bits) - 1L;
+    }
+
+    /**
+     * Creates a snapshot of the given section, by using the network serialization of the section's
+     * block state container. The given buffer is used as temporary storage and is cleared before use.
+     * This must be called on the thread that owns the section (ie. the server thread).
+     */
+    public static SectionSnapshot of(LevelChunkSection section, FriendlyByteBuf buf)
+    {
+        if (section.hasOnlyAir())
+        {
+            return EMPTY;
+        }
+
+        buf.clear();
+        section.getStates().write(buf);
+
+        final int bits = buf.readByte();
+        int[] palette = null;
+
+        // Single value palette
+        if (bits == 0)
+        {
+            palette = new int[] { buf.readVarInt() };
+        }
+        // Linear (1..4 bits) or HashMap (5..8 bits) palettes. Larger values use the global palette, which doesn't write anything.
+        else if (bits <= 8)
+        {
+            final int size = buf.readVarInt();
+            palette = new int[size];
+
+            for (int i = 0; i < size; ++i)
+            {
+                palette[i] = buf.readVarInt();
+            }
+        }
+
+        long[] data = buf.readLongArray(null);
+
+        return new SectionSnapshot(bits, palette, data);
+    }
+
+    public static int getIndex(int x, int y, int z)
+    {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    public int getBits()
+    {
+        return this.bits;
+    }
+
+    public long[] getData()
+    {
+        return this.data;
+    }
+
+    public boolean isSingleValue()
+    {
+        return this.bits == 0;
+    }
+
+    public boolean hasPalette()
+    {
+        return this.palette != null;
+    }
+
+    /**
+     * @return the number of palette entries, or 0 if this section uses the global palette
+     */
+    public int getPaletteSize()
+    {
+        return this.palette != null ? this.palette.length : 0;
+    }
+
+    /**
+     * @return the global state ID of the given palette entry
+     */
+    public int getPaletteEntry(int paletteIndex)
+    {
+        return this.palette != null ? this.palette[paletteIndex] : paletteIndex;
+    }
+
+    public int getPaletteIndex(int index)
+    {
+        if (this.bits == 0)
+        {
+            return 0;
+        }
+
+        final int longIndex = index / this.valuesPerLong;
+        final int shift = (index - longIndex * this.valuesPerLong) * this.bits;
+
+        return (int) ((this.data[longIndex] >>> shift) & this.mask);
+    }
+
+    public int getStateId(int index)
+    {
+        return this.getPaletteEntry(this.getPaletteIndex(index));
+    }
+
+    public int getStateId(int x, int y, int z)
+    {
+        return this.getStateId(getIndex(x, y, z));
+    }
+
+    /**
+     * Unpacks the palette indices of all the blocks in this section into the given array
+     * (or the global state IDs directly, if this section doesn't have a palette)
+     */
+    public void decode(int[] indicesOut)
+    {
+        SectionDataDecoder.decode(this.data, this.bits, indicesOut);
+    }
+
+    /**
+     * Adds the counts of all the states in this section to the given array, indexed by the global state ID
+     * @param indexBuffer a temporary array for the decoded palette indices
+     * @param touchedStates if not null, the state IDs whose counts were zero before are added to this list
+     */
+    public void countStates(long[] counts, int[] indexBuffer, @Nullable IntArrayList touchedStates)
+    {
+        if (this.bits == 0)
+        {
+            addCount(counts, touchedStates, this.palette[0], BLOCKS_PER_SECTION);
+            return;
+        }
+
+        this.decode(indexBuffer);
+
+        if (this.palette != null)
+        {
+            int[] histogram = new int[1 << this.bits];
+            final int size = Math.min(this.palette.length, histogram.length);
+
+            SectionDataDecoder.histogram(indexBuffer, histogram);
+
+            for (int i = 0; i < size; ++i)
+            {
+                if (histogram[i] != 0)
+                {
+                    addCount(counts, touchedStates, this.palette[i], histogram[i]);
+                }
+            }
+        }
+        else
+        {
+            for (int i = 0; i < BLOCKS_PER_SECTION; ++i)
+            {
+                addCount(counts, touchedStates, indexBuffer[i], 1);
+            }
+        }
+    }
+
+    /**
+     * Adds to the count of the given state, and adds the state to the touched list if its count was zero before
+     */
+    static void addCount(long[] counts, @Nullable IntArrayList touchedStates, int stateId, long count)
+    {
+        if (touchedStates != null && counts[stateId] == 0)
+        {
+            touchedStates.add(stateId);
+        }
+
+        counts[stateId] += count;
+    }
+}
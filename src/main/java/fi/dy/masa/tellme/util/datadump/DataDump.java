@@ -4,11 +4,13 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 import fi.dy.masa.tellme.TellMe;
@@ -303,6 +305,56 @@ public class DataDump
         return this.format.getRowFormatter(this).getFormattedLines();
     }
 
+    /**
+     * Writes the dump to a file, with the data rows generated by the given source instead of being stored in the dump.
+     * The source is run twice, first to calculate the column widths and then to write out the rows,
+     * so the rows never need to be held in memory all at once. The rows are written in the order
+     * that the source generates them, ie. they are not sorted.
+     */
+    @Nullable
+    public File dumpStreamedDataToFile(String fileNameBase, String fileNameExtension, IRowSource rowSource)
+    {
+        File outFile = createOutputFile(fileNameBase, fileNameExtension);
+
+        if (outFile == null)
+        {
+            return null;
+        }
+
+        rowSource.forEachRow(this::updateMaxColumnLengths);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outFile)))
+        {
+            this.format.getRowFormatter(this).formatStreamedLines(rowSource, (line) -> {
+                try
+                {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            TellMe.logger.error("dumpStreamedDataToFile(): Exception while writing data dump to file '{}'", outFile.getName(), e);
+        }
+
+        return outFile;
+    }
+
+    /**
+     * Prints the dump to the logger, with the data rows generated by the given source.
+     * @see #dumpStreamedDataToFile(String, String, IRowSource)
+     */
+    public void printStreamedDataToLogger(IRowSource rowSource)
+    {
+        rowSource.forEachRow(this::updateMaxColumnLengths);
+        this.format.getRowFormatter(this).formatStreamedLines(rowSource, TellMe.logger::info);
+    }
+
     @Nullable
     public static File dumpDataToFile(String fileNameBase, List<String> lines, Format format)
     {
@@ -324,6 +376,39 @@ public class DataDump
 
     @Nullable
     public static File dumpDataToFile(String fileNameBase, String fileNameExtension, List<String> lines)
+    {
+        File outFile = createOutputFile(fileNameBase, fileNameExtension);
+
+        if (outFile == null)
+        {
+            return null;
+        }
+
+        String fileName = outFile.getName();
+
+        try
+        {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(outFile));
+            int size = lines.size();
+
+            for (int i = 0; i < size; i++)
+            {
+                writer.write(lines.get(i));
+                writer.newLine();
+            }
+
+            writer.close();
+        }
+        catch (IOException e)
+        {
+            TellMe.logger.error("dumpDataToFile(): Exception while writing data dump to file '{}'", fileName, e);
+        }
+
+        return outFile;
+    }
+
+    @Nullable
+    public static File createOutputFile(String fileNameBase, String fileNameExtension)
     {
         File outFile = null;
         File outputDir = Configs.dumpOutputDir;
@@ -369,24 +454,6 @@ public class DataDump
             return null;
         }
 
-        try
-        {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(outFile));
-            int size = lines.size();
-
-            for (int i = 0; i < size; i++)
-            {
-                writer.write(lines.get(i));
-                writer.newLine();
-            }
-
-            writer.close();
-        }
-        catch (IOException e)
-        {
-            TellMe.logger.error("dumpDataToFile(): Exception while writing data dump to file '{}'", fileName, e);
-        }
-
         return outFile;
     }
 
@@ -400,6 +467,15 @@ public class DataDump
         }
     }
 
+    public interface IRowSource
+    {
+        /**
+         * Passes the values of each data row to the given consumer, in order.
+         * This may be called multiple times, and must produce the same rows each time.
+         */
+        void forEachRow(Consumer<String[]> rowConsumer);
+    }
+
     public static enum Alignment
     {
         LEFT,
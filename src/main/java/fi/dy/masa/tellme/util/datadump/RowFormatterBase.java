@@ -2,6 +2,7 @@ package fi.dy.masa.tellme.util.datadump;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public abstract class RowFormatterBase
 {
@@ -29,6 +30,26 @@ public abstract class RowFormatterBase
         return linesOut;
     }
 
+    /**
+     * Formats the dump with the data rows taken from the given source instead of the dump itself,
+     * passing each line to the given consumer as soon as it has been formatted.
+     */
+    public void formatStreamedLines(DataDump.IRowSource rowSource, Consumer<String> linesOut)
+    {
+        List<String> lines = new ArrayList<>();
+
+        this.addHeaders(this.dump.headers, lines);
+        this.addTopTitle(this.dump.title, lines);
+        lines.forEach(linesOut);
+        lines.clear();
+
+        rowSource.forEachRow((values) -> linesOut.accept(this.getFormattedData(new Row(values))));
+
+        this.addBottomTitle(this.dump.title, lines);
+        this.addFooters(this.dump.footers, lines);
+        lines.forEach(linesOut);
+    }
+
     public void addHeaders(List<String> headers, List<String> linesOut)
     {
         if (this.addHeaders)